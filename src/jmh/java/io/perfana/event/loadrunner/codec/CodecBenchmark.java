@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner.codec;
+
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parse time and allocation per poll of the codecs, run with: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    @Param({"1", "10"})
+    int activeRuns;
+
+    private String testRunsActiveJson;
+    private String testRunTransactionsJson;
+
+    private final LoadRunnerCloudCodec jackson = new JacksonCodec();
+    private final LoadRunnerCloudCodec streaming = new StreamingJacksonCodec();
+
+    @Setup
+    public void setUp() {
+        StringBuilder runs = new StringBuilder("[");
+        for (int i = 0; i < activeRuns; i++) {
+            if (i > 0) runs.append(',');
+            runs.append("{\"runId\":").append(1000 + i)
+                .append(",\"testId\":2,\"projectId\":1,\"testName\":\"load test ").append(i)
+                .append("\",\"startTime\":1700000000000,\"triggeredBy\":\"perfana\",\"status\":\"RUNNING\"}");
+        }
+        testRunsActiveJson = runs.append(']').toString();
+
+        StringBuilder transactions = new StringBuilder("[");
+        for (int i = 0; i < 50; i++) {
+            if (i > 0) transactions.append(',');
+            transactions.append("{\"loadTestScriptId\":5,\"scriptName\":\"script\",\"name\":\"transaction ").append(i)
+                .append("\",\"slaStatus\":\"N/A\",\"slaThreshold\":null,\"min\":0.1,\"max\":2.5,\"avg\":0.4,")
+                .append("\"percentile\":1.2,\"stdDeviation\":0.3,\"passed\":1000,\"failed\":3,\"successRate\":99.7}");
+        }
+        testRunTransactionsJson = transactions.append(']').toString();
+    }
+
+    @Benchmark
+    public TestRunActive[] testRunsActiveJackson() throws IOException {
+        return jackson.read(testRunsActiveJson, TestRunActive[].class);
+    }
+
+    @Benchmark
+    public TestRunActive[] testRunsActiveStreaming() throws IOException {
+        return streaming.read(testRunsActiveJson, TestRunActive[].class);
+    }
+
+    @Benchmark
+    public TestRunTransaction[] testRunTransactionsJackson() throws IOException {
+        return jackson.read(testRunTransactionsJson, TestRunTransaction[].class);
+    }
+
+    @Benchmark
+    public TestRunTransaction[] testRunTransactionsStreaming() throws IOException {
+        return streaming.read(testRunTransactionsJson, TestRunTransaction[].class);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+/**
+ * Settings for the comparison of a run with the baseline of earlier runs of the same load test.
+ */
+public class BaselineSettings {
+    private final boolean enabled;
+    private final String directory;
+    private final int maxRuns;
+    private final double maxThroughputDecreasePercentage;
+    private final double maxAvgIncreasePercentage;
+    private final double maxPercentileIncreasePercentage;
+    private final double maxErrorPercentageIncrease;
+
+    BaselineSettings(
+        boolean enabled,
+        String directory,
+        int maxRuns,
+        double maxThroughputDecreasePercentage,
+        double maxAvgIncreasePercentage,
+        double maxPercentileIncreasePercentage,
+        double maxErrorPercentageIncrease) {
+            this.enabled = enabled;
+            this.directory = directory;
+            this.maxRuns = maxRuns;
+            this.maxThroughputDecreasePercentage = maxThroughputDecreasePercentage;
+            this.maxAvgIncreasePercentage = maxAvgIncreasePercentage;
+            this.maxPercentileIncreasePercentage = maxPercentileIncreasePercentage;
+            this.maxErrorPercentageIncrease = maxErrorPercentageIncrease;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public int getMaxRuns() {
+        return maxRuns;
+    }
+
+    public double getMaxThroughputDecreasePercentage() {
+        return maxThroughputDecreasePercentage;
+    }
+
+    public double getMaxAvgIncreasePercentage() {
+        return maxAvgIncreasePercentage;
+    }
+
+    public double getMaxPercentileIncreasePercentage() {
+        return maxPercentileIncreasePercentage;
+    }
+
+    /**
+     * @return max increase of the error percentage, in percentage points
+     */
+    public double getMaxErrorPercentageIncrease() {
+        return maxErrorPercentageIncrease;
+    }
+
+    @Override
+    public String toString() {
+        return "BaselineSettings{" +
+            "enabled=" + enabled +
+            ", directory='" + directory + '\'' +
+            ", maxRuns=" + maxRuns +
+            ", maxThroughputDecreasePercentage=" + maxThroughputDecreasePercentage +
+            ", maxAvgIncreasePercentage=" + maxAvgIncreasePercentage +
+            ", maxPercentileIncreasePercentage=" + maxPercentileIncreasePercentage +
+            ", maxErrorPercentageIncrease=" + maxErrorPercentageIncrease +
+            '}';
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.time.Duration;
+
+/**
+ * Settings for the step-load capacity search.
+ */
+public class CapacitySearchSettings {
+    private final boolean enabled;
+    private final int startVusers;
+    private final int stepVusers;
+    private final int maxVusers;
+    private final Duration stepDuration;
+    private final double minThroughputGainPercentage;
+    private final double maxResponseTimeIncreasePercentage;
+
+    CapacitySearchSettings(
+        boolean enabled,
+        int startVusers,
+        int stepVusers,
+        int maxVusers,
+        Duration stepDuration,
+        double minThroughputGainPercentage,
+        double maxResponseTimeIncreasePercentage) {
+            this.enabled = enabled;
+            this.startVusers = startVusers;
+            this.stepVusers = stepVusers;
+            this.maxVusers = maxVusers;
+            this.stepDuration = stepDuration;
+            this.minThroughputGainPercentage = minThroughputGainPercentage;
+            this.maxResponseTimeIncreasePercentage = maxResponseTimeIncreasePercentage;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getStartVusers() {
+        return startVusers;
+    }
+
+    public int getStepVusers() {
+        return stepVusers;
+    }
+
+    public int getMaxVusers() {
+        return maxVusers;
+    }
+
+    public Duration getStepDuration() {
+        return stepDuration;
+    }
+
+    public double getMinThroughputGainPercentage() {
+        return minThroughputGainPercentage;
+    }
+
+    public double getMaxResponseTimeIncreasePercentage() {
+        return maxResponseTimeIncreasePercentage;
+    }
+
+    @Override
+    public String toString() {
+        return "CapacitySearchSettings{" +
+            "enabled=" + enabled +
+            ", startVusers=" + startVusers +
+            ", stepVusers=" + stepVusers +
+            ", maxVusers=" + maxVusers +
+            ", stepDuration=" + stepDuration +
+            ", minThroughputGainPercentage=" + minThroughputGainPercentage +
+            ", maxResponseTimeIncreasePercentage=" + maxResponseTimeIncreasePercentage +
+            '}';
+    }
+}
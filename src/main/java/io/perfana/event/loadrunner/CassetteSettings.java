@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.util.Locale;
+
+/**
+ * Settings to record the LoadRunner Cloud exchanges to a cassette file, or replay them without LoadRunner Cloud.
+ */
+public class CassetteSettings {
+
+    public enum Mode {
+        OFF, RECORD, REPLAY;
+
+        static Mode parse(String mode) {
+            if (mode == null || mode.trim().isEmpty()) {
+                return OFF;
+            }
+            try {
+                return valueOf(mode.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new LoadRunnerCloudClientException("unknown cassetteMode '" + mode + "', use off, record or replay");
+            }
+        }
+    }
+
+    private final Mode mode;
+    private final String file;
+    private final int timeCompression;
+
+    CassetteSettings(
+        Mode mode,
+        String file,
+        int timeCompression) {
+            this.mode = mode;
+            this.file = file;
+            this.timeCompression = Math.max(1, timeCompression);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isRecord() {
+        return mode == Mode.RECORD;
+    }
+
+    public boolean isReplay() {
+        return mode == Mode.REPLAY;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public int getTimeCompression() {
+        return timeCompression;
+    }
+
+    @Override
+    public String toString() {
+        return "CassetteSettings{" +
+            "mode=" + mode +
+            ", file='" + file + '\'' +
+            ", timeCompression=" + timeCompression +
+            '}';
+    }
+}
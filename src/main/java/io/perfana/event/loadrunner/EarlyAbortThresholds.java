@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.time.Duration;
+
+/**
+ * Thresholds to stop a run early. A threshold of zero is disabled.
+ */
+public class EarlyAbortThresholds {
+    private final double maxErrorPercentage;
+    private final long maxFailedTransactionsPerMinute;
+    private final long maxAvgResponseTimeMillis;
+    private final Duration sustainedDuration;
+    private final Duration checkPeriod;
+
+    EarlyAbortThresholds(
+        double maxErrorPercentage,
+        long maxFailedTransactionsPerMinute,
+        long maxAvgResponseTimeMillis,
+        Duration sustainedDuration,
+        Duration checkPeriod) {
+            this.maxErrorPercentage = maxErrorPercentage;
+            this.maxFailedTransactionsPerMinute = maxFailedTransactionsPerMinute;
+            this.maxAvgResponseTimeMillis = maxAvgResponseTimeMillis;
+            this.sustainedDuration = sustainedDuration;
+            this.checkPeriod = checkPeriod;
+    }
+
+    public boolean isEnabled() {
+        return maxErrorPercentage > 0 || maxFailedTransactionsPerMinute > 0 || maxAvgResponseTimeMillis > 0;
+    }
+
+    public double getMaxErrorPercentage() {
+        return maxErrorPercentage;
+    }
+
+    public long getMaxFailedTransactionsPerMinute() {
+        return maxFailedTransactionsPerMinute;
+    }
+
+    public long getMaxAvgResponseTimeMillis() {
+        return maxAvgResponseTimeMillis;
+    }
+
+    public Duration getSustainedDuration() {
+        return sustainedDuration;
+    }
+
+    public Duration getCheckPeriod() {
+        return checkPeriod;
+    }
+
+    @Override
+    public String toString() {
+        return "EarlyAbortThresholds{" +
+            "maxErrorPercentage=" + maxErrorPercentage +
+            ", maxFailedTransactionsPerMinute=" + maxFailedTransactionsPerMinute +
+            ", maxAvgResponseTimeMillis=" + maxAvgResponseTimeMillis +
+            ", sustainedDuration=" + sustainedDuration +
+            ", checkPeriod=" + checkPeriod +
+            '}';
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.LoadRunnerCloudBaselineStore.RunStats;
+import io.perfana.event.loadrunner.LoadRunnerCloudBaselineStore.TransactionStats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Compares the statistics of a run with the baseline of the stored earlier runs of the same load test.
+ *
+ * The baseline of each metric is the median over the earlier runs, so one odd run does not move it.
+ * Changes of throughput and response times are relative, the change of the error percentage is in
+ * percentage points. The response times are the average and the percentile LoadRunner Cloud reports.
+ * Metrics without a baseline value are not compared.
+ */
+class LoadRunnerCloudBaselineComparison {
+
+    static final double NOT_COMPARED = Double.NaN;
+
+    final int baselineRuns;
+    final List<Delta> transactions;
+    final Delta total;
+
+    /**
+     * Changes of one transaction compared with the baseline.
+     */
+    static class Delta {
+        final String name;
+        final double throughputChangePercentage;
+        final double avgChangePercentage;
+        final double percentileChangePercentage;
+        final double errorPercentageChange;
+        final List<String> regressions;
+
+        Delta(String name, double throughputChangePercentage, double avgChangePercentage, double percentileChangePercentage,
+              double errorPercentageChange, List<String> regressions) {
+            this.name = name;
+            this.throughputChangePercentage = throughputChangePercentage;
+            this.avgChangePercentage = avgChangePercentage;
+            this.percentileChangePercentage = percentileChangePercentage;
+            this.errorPercentageChange = errorPercentageChange;
+            this.regressions = regressions;
+        }
+
+        boolean isRegression() {
+            return !regressions.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: throughput %s, avg %s, percentile %s, errors %s%s", name,
+                percentage(throughputChangePercentage), percentage(avgChangePercentage), percentage(percentileChangePercentage),
+                Double.isNaN(errorPercentageChange) ? "n/a" : String.format(Locale.US, "%+.2f pp", errorPercentageChange),
+                regressions.isEmpty() ? "" : " REGRESSION " + regressions);
+        }
+
+        private static String percentage(double change) {
+            return Double.isNaN(change) ? "n/a" : String.format(Locale.US, "%+.1f%%", change);
+        }
+    }
+
+    private LoadRunnerCloudBaselineComparison(int baselineRuns, List<Delta> transactions, Delta total) {
+        this.baselineRuns = baselineRuns;
+        this.transactions = transactions;
+        this.total = total;
+    }
+
+    List<Delta> regressions() {
+        List<Delta> regressions = new ArrayList<>();
+        transactions.stream().filter(Delta::isRegression).forEach(regressions::add);
+        if (total.isRegression()) {
+            regressions.add(total);
+        }
+        return regressions;
+    }
+
+    static LoadRunnerCloudBaselineComparison compare(RunStats current, List<RunStats> baseline, BaselineSettings settings) {
+        List<Delta> deltas = new ArrayList<>(current.getTransactions().size());
+        for (TransactionStats transaction : current.getTransactions()) {
+            List<TransactionStats> earlier = new ArrayList<>();
+            for (RunStats run : baseline) {
+                run.getTransactions().stream()
+                    .filter(t -> Objects.equals(t.getName(), transaction.getName()))
+                    .findFirst()
+                    .ifPresent(earlier::add);
+            }
+            deltas.add(delta(transaction, earlier, settings));
+        }
+        List<TransactionStats> earlierTotals = new ArrayList<>();
+        baseline.forEach(run -> earlierTotals.add(run.getTotal()));
+        return new LoadRunnerCloudBaselineComparison(baseline.size(), deltas, delta(current.getTotal(), earlierTotals, settings));
+    }
+
+    private static Delta delta(TransactionStats current, List<TransactionStats> earlier, BaselineSettings settings) {
+        double throughput = relativeChange(current.getThroughputPerSecond(), median(earlier, TransactionStats::getThroughputPerSecond));
+        double avg = relativeChange(current.getAvgMillis(), median(earlier, t -> responseTime(t.getAvgMillis())));
+        double percentile = relativeChange(current.getPercentileMillis(), median(earlier, t -> responseTime(t.getPercentileMillis())));
+        double errors = earlier.isEmpty() ? NOT_COMPARED : current.getErrorPercentage() - median(earlier, TransactionStats::getErrorPercentage);
+
+        List<String> regressions = new ArrayList<>();
+        if (-throughput > settings.getMaxThroughputDecreasePercentage()) regressions.add("throughput");
+        if (avg > settings.getMaxAvgIncreasePercentage()) regressions.add("avg");
+        if (percentile > settings.getMaxPercentileIncreasePercentage()) regressions.add("percentile");
+        if (errors > settings.getMaxErrorPercentageIncrease()) regressions.add("errors");
+        return new Delta(current.getName(), throughput, avg, percentile, errors, regressions);
+    }
+
+    /**
+     * @return change in percent, NOT_COMPARED when there is no baseline or a value is unknown;
+     * a current value of zero is a change of -100%, for instance no throughput at all
+     */
+    private static double relativeChange(double current, double baseline) {
+        if (Double.isNaN(baseline) || baseline <= 0 || Double.isNaN(current)) {
+            return NOT_COMPARED;
+        }
+        return (current - baseline) * 100 / baseline;
+    }
+
+    /**
+     * @return the response time, NaN when not known: baselines stored by older versions have no value
+     */
+    private static double responseTime(double millis) {
+        return millis > 0 ? millis : NOT_COMPARED;
+    }
+
+    /**
+     * @return median of the known values, NOT_COMPARED when there are none
+     */
+    static double median(List<TransactionStats> stats, ToDoubleFunction<TransactionStats> metric) {
+        double[] values = stats.stream().mapToDouble(metric).filter(value -> !Double.isNaN(value)).toArray();
+        if (values.length == 0) {
+            return NOT_COMPARED;
+        }
+        Arrays.sort(values);
+        int middle = values.length / 2;
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.perfana.eventscheduler.api.EventLogger;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Local store of compact per-transaction statistics of the recent runs of each load test.
+ *
+ * One json file per load test holds the newest runs, newest last. Files are replaced atomically,
+ * changes are serialized with the file lock of the run journal.
+ */
+class LoadRunnerCloudBaselineStore {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path directory;
+    private final int maxRuns;
+    private final EventLogger logger;
+
+    @Value
+    @Builder
+    @NoArgsConstructor(force = true, access = AccessLevel.PRIVATE)
+    @AllArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class TransactionStats {
+        String name;
+        long passed;
+        long failed;
+        double throughputPerSecond;
+        double avgMillis;
+        /** the percentile configured in LoadRunner Cloud, NaN when not reported */
+        double percentileMillis;
+        double errorPercentage;
+    }
+
+    @Value
+    @Builder
+    @NoArgsConstructor(force = true, access = AccessLevel.PRIVATE)
+    @AllArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class RunStats {
+        int runId;
+        long timestamp;
+        String runStatus;
+        List<TransactionStats> transactions;
+        TransactionStats total;
+    }
+
+    @Value
+    @NoArgsConstructor(force = true, access = AccessLevel.PRIVATE)
+    @AllArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class Runs {
+        List<RunStats> runs;
+    }
+
+    LoadRunnerCloudBaselineStore(Path directory, int maxRuns, EventLogger logger) {
+        this.directory = directory;
+        this.maxRuns = maxRuns;
+        this.logger = logger;
+    }
+
+    /**
+     * @return the stored runs of the load test, oldest first, empty when none
+     */
+    List<RunStats> load(String tenantId, String projectId, String loadTestId) {
+        Path file = file(tenantId, projectId, loadTestId);
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        try {
+            Runs runs = MAPPER.readValue(file.toFile(), Runs.class);
+            return runs.getRuns() == null ? Collections.emptyList() : runs.getRuns();
+        } catch (IOException e) {
+            logger.warn("cannot read baseline " + file + ", no baseline: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Add a run and drop the oldest runs above the max.
+     */
+    void add(String tenantId, String projectId, String loadTestId, RunStats run) {
+        Path file = file(tenantId, projectId, loadTestId);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            LoadRunnerCloudRunJournal.withFileLock(file, () -> {
+                List<RunStats> runs = new ArrayList<>(load(tenantId, projectId, loadTestId));
+                runs.removeIf(r -> r.getRunId() == run.getRunId());
+                runs.add(run);
+                if (runs.size() > maxRuns) {
+                    runs = new ArrayList<>(runs.subList(runs.size() - maxRuns, runs.size()));
+                }
+                MAPPER.writeValue(tmp.toFile(), new Runs(runs));
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            });
+        } catch (IOException e) {
+            logger.warn("cannot write baseline " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Path file(String tenantId, String projectId, String loadTestId) {
+        return directory.resolve(safe(tenantId) + "-" + safe(projectId) + "-" + safe(loadTestId) + ".json");
+    }
+
+    private static String safe(String id) {
+        return String.valueOf(id).replaceAll("[^A-Za-z0-9_.]", "_");
+    }
+
+    static RunStats stats(LoadRunnerCloudTransactionCollector.Summary summary, long timestamp) {
+        return RunStats.builder()
+            .runId(summary.runId)
+            .timestamp(timestamp)
+            .runStatus(summary.runStatus)
+            .transactions(summary.transactions.stream().map(t -> stats(summary, t)).collect(Collectors.toList()))
+            .total(stats(summary, summary.total))
+            .build();
+    }
+
+    private static TransactionStats stats(LoadRunnerCloudTransactionCollector.Summary summary,
+                                          LoadRunnerCloudTransactionCollector.TransactionSummary transaction) {
+        return TransactionStats.builder()
+            .name(transaction.name)
+            .passed(transaction.passed)
+            .failed(transaction.failed)
+            .throughputPerSecond(summary.throughputPerSecond(transaction))
+            .avgMillis(transaction.avgMillis)
+            .percentileMillis(transaction.percentileMillis)
+            .errorPercentage(transaction.errorPercentage())
+            .build();
+    }
+}
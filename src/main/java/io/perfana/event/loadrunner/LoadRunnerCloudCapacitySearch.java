@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.RampUp;
+import io.perfana.event.loadrunner.api.RunReply;
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Searches the maximum sustainable throughput of a load test with successive short runs,
+ * each with more vusers, until throughput stops growing or response times degrade (the knee).
+ *
+ * LoadRunner Cloud cannot change the vusers of an active run via the public api, so each
+ * step is a separate run. The vusers of the active scripts are divided over the step, the ramp-up
+ * is shortened to a part of the step, so it has ended when the measurement starts. The scripts
+ * are restored afterwards.
+ */
+class LoadRunnerCloudCapacitySearch implements Closeable {
+
+    static final String THREAD_NAME = "LrcCapacitySearch";
+
+    /** Part of a step for the ramp-up, ends before the measurement starts after a third of the step. */
+    static final int RAMP_UP_STEP_DIVISOR = 4;
+
+    private final LoadRunnerCloudClient client;
+    private final EventLogger logger;
+    private final String projectId;
+    private final String loadTestId;
+    private final CapacitySearchSettings settings;
+    private final Duration pollingPeriod;
+    private final Duration pollingMaxDuration;
+    private final Duration stopConfirmMaxDuration;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(this::newThread);
+
+    private volatile boolean closed = false;
+    private volatile Thread thread;
+    private volatile LoadRunnerCloudRunHandle currentRun;
+
+    /**
+     * Throughput and response time measured in one step.
+     */
+    static class StepResult {
+        final int vusers;
+        final int runId;
+        final double throughputPerSecond;
+        final double avgResponseTimeMillis;
+        final double errorPercentage;
+
+        StepResult(int vusers, int runId, double throughputPerSecond, double avgResponseTimeMillis, double errorPercentage) {
+            this.vusers = vusers;
+            this.runId = runId;
+            this.throughputPerSecond = throughputPerSecond;
+            this.avgResponseTimeMillis = avgResponseTimeMillis;
+            this.errorPercentage = errorPercentage;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("StepResult{vusers=%d, runId=%d, throughputPerSecond=%.2f, avgResponseTimeMillis=%.0f, errorPercentage=%.1f}",
+                vusers, runId, throughputPerSecond, avgResponseTimeMillis, errorPercentage);
+        }
+    }
+
+    LoadRunnerCloudCapacitySearch(LoadRunnerCloudClient client, EventLogger logger, String projectId, String loadTestId,
+                                  CapacitySearchSettings settings, Duration pollingPeriod, Duration pollingMaxDuration, Duration stopConfirmMaxDuration) {
+        this.client = client;
+        this.logger = logger;
+        this.projectId = projectId;
+        this.loadTestId = loadTestId;
+        this.settings = settings;
+        this.pollingPeriod = pollingPeriod;
+        this.pollingMaxDuration = pollingMaxDuration;
+        this.stopConfirmMaxDuration = stopConfirmMaxDuration;
+    }
+
+    /**
+     * Start the search in the background.
+     *
+     * @param runningHandler called with the runId when a step run is RUNNING
+     * @param resultHandler called at the end with the best step, or null when no step succeeded or the
+     *                      search failed before the first step; not called when the search is closed,
+     *                      then the best step so far is logged
+     */
+    void start(IntConsumer runningHandler, Consumer<StepResult> resultHandler) {
+        executor.execute(() -> {
+            StepResult best = search(runningHandler);
+            if (closed) {
+                logger.warn("Capacity search closed before it ended, incomplete result: "
+                    + (best == null ? "no step succeeded." : "best step so far " + best));
+            }
+            else {
+                resultHandler.accept(best);
+            }
+        });
+    }
+
+    /**
+     * @return the best step, also when a later step failed
+     */
+    private StepResult search(IntConsumer runningHandler) {
+        logger.info("Start capacity search with " + settings);
+        List<ScriptConfig> originalScripts = null;
+        StepResult best = null;
+        try {
+            originalScripts = client.scriptsForTestRun(projectId, loadTestId);
+            for (int vusers = settings.getStartVusers(); vusers <= settings.getMaxVusers() && !closed; vusers += settings.getStepVusers()) {
+                StepResult result = runStep(originalScripts, vusers, runningHandler);
+                if (result == null) {
+                    break;
+                }
+                logger.info("Capacity search step: " + result);
+                if (best != null && isKnee(best, result, settings)) {
+                    logger.info("Capacity search found knee at " + vusers + " vusers, max sustainable: " + best);
+                    break;
+                }
+                best = result;
+                if (settings.getStepVusers() <= 0) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            if (!closed) {
+                logger.error("Capacity search failed, " + (best == null ? "no step succeeded." : "best step so far: " + best), e);
+            }
+            LoadRunnerCloudRunHandle run = currentRun;
+            if (run != null && !closed) {
+                stopStep(run);
+            }
+        } finally {
+            if (originalScripts != null) {
+                restoreScripts(originalScripts);
+            }
+        }
+        return best;
+    }
+
+    private StepResult runStep(List<ScriptConfig> originalScripts, int vusers, IntConsumer runningHandler) {
+        List<ScriptConfig> stepScripts = distributeVusers(originalScripts, vusers);
+        // the run is stopped after measuring, the duration only needs to be long enough
+        long runDurationSeconds = settings.getStepDuration().getSeconds() * 2;
+        RampUp rampUp = RampUp.builder().duration(settings.getStepDuration().getSeconds() / RAMP_UP_STEP_DIVISOR).build();
+        for (ScriptConfig script : stepScripts) {
+            client.updateScriptConfig(projectId, loadTestId, script.toBuilder().duration(runDurationSeconds).rampUp(rampUp).build());
+        }
+
+        RunReply runReply = client.startRun(projectId, loadTestId);
+        int runId = runReply.getRunId();
+        LoadRunnerCloudRunHandle handle = new LoadRunnerCloudRunHandle(projectId);
+        handle.started(runId);
+        currentRun = handle;
+
+        LoadRunnerCloudRunPoller poller = new LoadRunnerCloudRunPoller(client, logger, pollingPeriod, pollingMaxDuration);
+        try {
+            LoadRunnerCloudRunPoller.Outcome outcome = poller.pollForTestRunning(projectId, runId);
+            if (outcome == LoadRunnerCloudRunPoller.Outcome.INTERRUPTED || closed) {
+                // run is stopped on close
+                return null;
+            }
+            if (outcome != LoadRunnerCloudRunPoller.Outcome.RUNNING) {
+                logger.warn("Capacity search step with " + vusers + " vusers did not reach RUNNING: " + outcome);
+                stopStep(handle);
+                return null;
+            }
+        } finally {
+            poller.close();
+        }
+        runningHandler.accept(runId);
+
+        long stepMillis = settings.getStepDuration().toMillis();
+        long settleMillis = stepMillis / 3;
+        TransactionIntervalTracker tracker = new TransactionIntervalTracker();
+        TransactionIntervalTracker.IntervalStats stats;
+        try {
+            LoadRunnerCloudClock clock = client.clock();
+            clock.sleep(settleMillis);
+            tracker.nextInterval(client.testRunTransactions(runId), clock.currentTimeMillis());
+            clock.sleep(stepMillis - settleMillis);
+            stats = tracker.nextInterval(client.testRunTransactions(runId), clock.currentTimeMillis());
+        } catch (InterruptedException e) {
+            // run is stopped on close
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        stopStep(handle);
+
+        if (stats == null) {
+            logger.warn("Capacity search step with " + vusers + " vusers has no transaction results.");
+            return null;
+        }
+        return new StepResult(vusers, runId, stats.passedPerSecond(), stats.avgResponseTimeMillis, stats.errorPercentage());
+    }
+
+    private void stopStep(LoadRunnerCloudRunHandle handle) {
+        handle.stopAndConfirm(client, logger, pollingPeriod, stopConfirmMaxDuration);
+        currentRun = null;
+    }
+
+    private void restoreScripts(List<ScriptConfig> originalScripts) {
+        for (ScriptConfig script : originalScripts) {
+            try {
+                client.updateScriptConfig(projectId, loadTestId, script);
+            } catch (RuntimeException e) {
+                logger.warn("Cannot restore script config " + script.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The knee is reached when more vusers hardly add throughput, or response time grows too much.
+     */
+    static boolean isKnee(StepResult previous, StepResult current, CapacitySearchSettings settings) {
+        if (previous.throughputPerSecond <= 0) {
+            return current.throughputPerSecond <= 0;
+        }
+        double throughputGainPercentage = (current.throughputPerSecond - previous.throughputPerSecond) * 100 / previous.throughputPerSecond;
+        if (throughputGainPercentage < settings.getMinThroughputGainPercentage()) {
+            return true;
+        }
+        if (previous.avgResponseTimeMillis > 0) {
+            double responseTimeIncreasePercentage = (current.avgResponseTimeMillis - previous.avgResponseTimeMillis) * 100 / previous.avgResponseTimeMillis;
+            return responseTimeIncreasePercentage > settings.getMaxResponseTimeIncreasePercentage();
+        }
+        return false;
+    }
+
+    /**
+     * Divide the vusers over the active scripts in proportion to their current vusers.
+     *
+     * @return the active scripts with their vusers for the step
+     */
+    static List<ScriptConfig> distributeVusers(List<ScriptConfig> allScripts, int totalVusers) {
+        List<ScriptConfig> scripts = allScripts.stream()
+            .filter(script -> !Boolean.FALSE.equals(script.getIsActive()))
+            .collect(Collectors.toList());
+        if (scripts.isEmpty()) {
+            throw new LoadRunnerCloudEventException("load test has no active scripts for the capacity search");
+        }
+        long currentTotal = scripts.stream().mapToLong(ScriptConfig::getVusersNum).sum();
+        int count = scripts.size();
+
+        int[] vusers = new int[count];
+        double[] remainders = new double[count];
+        int assigned = 0;
+        for (int i = 0; i < count; i++) {
+            double share = currentTotal == 0
+                ? (double) totalVusers / count
+                : (double) totalVusers * scripts.get(i).getVusersNum() / currentTotal;
+            vusers[i] = (int) share;
+            remainders[i] = share - vusers[i];
+            assigned += vusers[i];
+        }
+        // largest remainder first
+        for (int left = totalVusers - assigned; left > 0; left--) {
+            int max = 0;
+            for (int i = 1; i < count; i++) {
+                if (remainders[i] > remainders[max]) max = i;
+            }
+            vusers[max]++;
+            remainders[max] = -1;
+        }
+
+        List<ScriptConfig> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(scripts.get(i).toBuilder().vusersNum(vusers[i]).build());
+        }
+        return result;
+    }
+
+    private Thread newThread(Runnable runnable) {
+        thread = LoadRunnerCloudThreads.newThread(THREAD_NAME, runnable);
+        return thread;
+    }
+
+    /**
+     * Cancels the search, stops the active step run and waits for the scripts to be restored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (Thread.currentThread() == thread) {
+            executor.shutdown();
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(stopConfirmMaxDuration.getSeconds() + 5, TimeUnit.SECONDS)) {
+                logger.warn("Capacity search thread did not stop in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LoadRunnerCloudRunHandle run = currentRun;
+        if (run != null) {
+            run.stopAndConfirm(client, logger, pollingPeriod, stopConfirmMaxDuration);
+        }
+    }
+}
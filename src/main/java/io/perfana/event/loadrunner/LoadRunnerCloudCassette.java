@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.perfana.eventscheduler.api.EventLogger;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves recorded LoadRunner Cloud exchanges instead of calling LoadRunner Cloud.
+ *
+ * A cassette is a traffic capture file, recorded with cassette mode record. Requests are matched on method,
+ * path and query, regardless of the base url. Recorded responses of the same request are served in the
+ * recorded order, the last one is repeated, so a replayed run can poll more often than the recorded one.
+ * The recorded response time is waited, divided by the time compression.
+ */
+class LoadRunnerCloudCassette {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String[] API_ROOTS = { "/auth", "/projects/", "/test-runs" };
+
+    private final Map<String, Deque<Recorded>> recordings;
+    private final int timeCompression;
+    private final EventLogger logger;
+
+    private static class Recorded {
+        final int status;
+        final String statusText;
+        final String mimeType;
+        final String body;
+        final String error;
+        final long timeMillis;
+
+        Recorded(int status, String statusText, String mimeType, String body, String error, long timeMillis) {
+            this.status = status;
+            this.statusText = statusText;
+            this.mimeType = mimeType;
+            this.body = body;
+            this.error = error;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    private LoadRunnerCloudCassette(Map<String, Deque<Recorded>> recordings, int timeCompression, EventLogger logger) {
+        this.recordings = recordings;
+        this.timeCompression = Math.max(1, timeCompression);
+        this.logger = logger;
+    }
+
+    /**
+     * Read a cassette file.
+     */
+    static LoadRunnerCloudCassette load(CassetteSettings settings, EventLogger logger) {
+        Path file = Paths.get(settings.getFile());
+        Map<String, Deque<Recorded>> recordings = new HashMap<>();
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JsonNode entry = MAPPER.readTree(line);
+                String key = key(entry.at("/request/method").asText(), URI.create(entry.at("/request/url").asText()));
+                JsonNode response = entry.path("response");
+                Recorded recorded = new Recorded(
+                    response.path("status").asInt(),
+                    textOrEmpty(response.path("statusText")),
+                    textOrEmpty(response.at("/content/mimeType")),
+                    response.at("/content/text").isMissingNode() ? null : response.at("/content/text").asText(),
+                    entry.has("comment") ? entry.get("comment").asText() : null,
+                    (long) entry.path("time").asDouble());
+                recordings.computeIfAbsent(key, k -> new ArrayDeque<>()).add(recorded);
+                count++;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new LoadRunnerCloudClientException("cannot read cassette " + file.toAbsolutePath(), e);
+        }
+        logger.info("replay " + count + " LoadRunner Cloud exchanges from " + file.toAbsolutePath()
+            + " with time compression " + settings.getTimeCompression());
+        return new LoadRunnerCloudCassette(recordings, settings.getTimeCompression(), logger);
+    }
+
+    /**
+     * @return the next recorded response for this request
+     * @throws IOException when the recorded exchange failed
+     */
+    HttpResponse replay(HttpRequestBase request) throws IOException {
+        String key = key(request.getMethod(), request.getURI());
+        Recorded recorded = next(key);
+        if (recorded == null) {
+            throw new LoadRunnerCloudClientException("no recorded exchange in cassette for " + key);
+        }
+        logger.debug("replay " + key + " -> " + recorded.status);
+
+        long delayMillis = recorded.timeMillis / timeCompression;
+        if (delayMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("replay of " + key + " interrupted");
+            }
+        }
+
+        if (recorded.error != null) {
+            throw new IOException("recorded: " + recorded.error);
+        }
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, recorded.status, recorded.statusText);
+        response.setEntity(new StringEntity(recorded.body == null ? "" : recorded.body, contentType(recorded.mimeType)));
+        return response;
+    }
+
+    private Recorded next(String key) {
+        synchronized (recordings) {
+            Deque<Recorded> responses = recordings.get(key);
+            if (responses == null || responses.isEmpty()) {
+                return null;
+            }
+            return responses.size() == 1 ? responses.peekFirst() : responses.pollFirst();
+        }
+    }
+
+    /**
+     * @return the text of the node, empty for a missing or null node
+     */
+    private static String textOrEmpty(JsonNode node) {
+        return node.isMissingNode() || node.isNull() ? "" : node.asText();
+    }
+
+    private static ContentType contentType(String mimeType) {
+        try {
+            return mimeType.isEmpty() ? ContentType.APPLICATION_JSON : ContentType.parse(mimeType);
+        } catch (RuntimeException e) {
+            return ContentType.APPLICATION_JSON;
+        }
+    }
+
+    /**
+     * Method, path and query with sorted parameters, without scheme, host and the path of the base url.
+     */
+    static String key(String method, URI uri) {
+        String path = uri.getRawPath();
+        // base urls such as https://host/v1 differ per endpoint, the api paths do not
+        int api = indexOfApiPath(path);
+        String query = uri.getRawQuery();
+        String sortedQuery = "";
+        if (query != null && !query.isEmpty()) {
+            String[] parameters = query.split("&");
+            Arrays.sort(parameters);
+            sortedQuery = "?" + String.join("&", parameters);
+        }
+        // the tenant id is redacted in the cassette
+        return LoadRunnerCloudTrafficCapture.redactUrl(method.toUpperCase(Locale.ROOT) + " " + path.substring(api) + sortedQuery);
+    }
+
+    private static int indexOfApiPath(String path) {
+        int first = path.length();
+        for (String root : API_ROOTS) {
+            int index = path.indexOf(root);
+            if (index >= 0 && index < first) {
+                first = index;
+            }
+        }
+        return first == path.length() ? 0 : first;
+    }
+}
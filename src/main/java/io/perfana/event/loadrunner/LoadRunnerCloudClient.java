@@ -15,25 +15,28 @@
  */
 package io.perfana.event.loadrunner;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.ObjectWriter;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import io.perfana.event.loadrunner.api.*;
+import io.perfana.event.loadrunner.codec.LoadRunnerCloudCodec;
 import io.perfana.eventscheduler.api.EventLogger;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.client.LaxRedirectStrategy;
@@ -41,58 +44,130 @@ import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
 import org.apache.http.impl.cookie.BasicClientCookie;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.ConnectException;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-
-class LoadRunnerCloudClient {
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+class LoadRunnerCloudClient implements Closeable {
     
     public static final String PARAM_TENANTID = "TENANTID";
     private static final String PARAM_RUN_ACTION = "action";
-
-    private final ObjectMapper objectMapper = new ObjectMapper()
-        .registerModule(new JavaTimeModule())
-        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-
-    private final ObjectReader tokenReader = objectMapper.readerFor(Token.class);
-    private final ObjectReader scheduleReplyReader = objectMapper.readerFor(ScheduleReply.class);
-    private final ObjectReader runReplyReader = objectMapper.readerFor(RunReply.class);
-    private final ObjectReader scriptConfigArrayReader = objectMapper.readerFor(ScriptConfig[].class);
-    private final ObjectReader runtimeAdditionalAttributeArrayReader = objectMapper.readerFor(RuntimeAdditionalAttribute[].class);
-    private final ObjectReader testRunsActiveArrayReader = objectMapper.readerFor(TestRunActive[].class);
-    private final ObjectWriter authWriter = objectMapper.writerFor(Auth.class);
-
-    private final HttpClient httpClient;
-    private final String baseUrl;
+    private static final String PARAM_LIMIT = "limit";
+    private static final String PARAM_OFFSET = "offset";
+    /** Scripts per call when reading the scripts of a load test. */
+    static final int SCRIPTS_PAGE_SIZE = 100;
+    /** Socket timeouts in a row on the current base url before calls go to the next one. */
+    static final int SOCKET_TIMEOUTS_BEFORE_FAILOVER = 3;
+    private static final Pattern NUMERIC_PATH_SEGMENT = Pattern.compile("/\\d+(?=/|$)");
+    private static final Pattern TEST_RUN_PATH = Pattern.compile("/test-runs/(\\d+)(?:/|$)");
+
+    private final LoadRunnerCloudCodec codec;
+    private final CloseableHttpClient httpClient;
+    private final List<String> baseUrls;
     private final EventLogger logger;
 
     private final BasicCookieStore cookieStore = new BasicCookieStore();
-    private final String host;
-    private final int proxyPort;
+    private final NetworkProfile networkProfile;
+    private final RequestConfig defaultRequestConfig;
+    private final Runnable failoverHandler;
+    private volatile String baseUrl;
+    private volatile String host;
+    private volatile int baseUrlIndex = 0;
+    private final AtomicInteger socketTimeoutsInARow = new AtomicInteger();
     private volatile boolean isCookiePresent = false;
+    private volatile String user;
+    private volatile String password;
     private volatile String tenantId;
+    private volatile LoadRunnerCloudStatusBatch.Registration statusBatch;
+    private volatile LoadRunnerCloudTrafficCapture trafficCapture;
+    private volatile LoadRunnerCloudCassette cassette;
+    private volatile LoadRunnerCloudClock clock = LoadRunnerCloudClock.SYSTEM;
+    private volatile LoadRunnerCloudTracer tracer;
 
     public LoadRunnerCloudClient(String baseUrl, EventLogger logger) {
-        this(baseUrl, logger, false, 8888);
+        this(baseUrl, logger, NetworkProfile.defaults());
     }
 
     public LoadRunnerCloudClient(String baseUrl, EventLogger logger, boolean useProxy, int proxyPort) {
+        this(baseUrl, logger, NetworkProfile.builder().useProxy(useProxy).proxyPort(proxyPort).build());
+    }
+
+    public LoadRunnerCloudClient(String baseUrl, EventLogger logger, NetworkProfile networkProfile) {
+        this(Collections.singletonList(baseUrl), logger, networkProfile, () -> {});
+    }
+
+    /**
+     * Client that fails over to the next base url when the current one cannot be reached or times out
+     * {@link #SOCKET_TIMEOUTS_BEFORE_FAILOVER} times in a row.
+     *
+     * @param baseUrls base urls in order of preference
+     * @param logger the logger
+     * @param networkProfile timeouts, proxy and connection settings
+     * @param failoverHandler called when the client switches to the next base url
+     */
+    public LoadRunnerCloudClient(List<String> baseUrls, EventLogger logger, NetworkProfile networkProfile, Runnable failoverHandler) {
+        this(baseUrls, logger, networkProfile, failoverHandler, LoadRunnerCloudCodec.load());
+    }
+
+    /**
+     * @param codec converts the api model from and to json
+     */
+    public LoadRunnerCloudClient(List<String> baseUrls, EventLogger logger, NetworkProfile networkProfile, Runnable failoverHandler, LoadRunnerCloudCodec codec) {
+        if (baseUrls.isEmpty()) {
+            throw new LoadRunnerCloudClientException("No base url provided");
+        }
+        List<String> urls = new ArrayList<>(baseUrls.size());
+        for (String url : baseUrls) {
+            hostOf(url);
+            urls.add(removeLastSlashIfPresent(url));
+        }
+        this.baseUrls = Collections.unmodifiableList(urls);
+        this.baseUrl = this.baseUrls.get(0);
+        this.host = hostOf(this.baseUrl);
+        this.logger = logger;
+        this.networkProfile = networkProfile;
+        this.failoverHandler = failoverHandler;
+        this.codec = codec;
+        this.defaultRequestConfig = RequestConfig.custom()
+            .setConnectionRequestTimeout(networkProfile.getConnectionRequestTimeoutMillis())
+            .setConnectTimeout(networkProfile.getConnectTimeoutMillis())
+            .setSocketTimeout(networkProfile.getSocketTimeoutMillis()).build();
+        this.httpClient = createHttpClient();
+    }
+
+    private static String hostOf(String baseUrl) {
         try {
-            URL url = new URL(baseUrl);
-            this.host = url.getHost();
+            return new URL(baseUrl).getHost();
         } catch (MalformedURLException e) {
             throw new LoadRunnerCloudClientException("Invalid base url provided: " + baseUrl, e);
         }
-        this.baseUrl = removeLastSlashIfPresent(baseUrl);
-        this.logger = logger;
-        this.httpClient = createHttpClient(useProxy);
-        this.proxyPort = proxyPort;
+    }
+
+    String getBaseUrl() {
+        return baseUrl;
     }
 
     private String removeLastSlashIfPresent(String url) {
@@ -112,6 +187,8 @@ class LoadRunnerCloudClient {
         notEmpty(tenantId, "tenantId");
 
         String apiKey = fetchApiKey(baseUrl, user, password, tenantId);
+        this.user = user;
+        this.password = password;
         this.tenantId = tenantId;
 
         BasicClientCookie cookie = new BasicClientCookie("LWSSO_COOKIE_KEY", apiKey);
@@ -136,18 +213,18 @@ class LoadRunnerCloudClient {
             HttpPost httpPost = new HttpPost(uriBuilder.build());
 
             Auth auth = Auth.builder().user(user).password(password).build();
-            String json = authWriter.writeValueAsString(auth);
+            String json = codec.write(auth);
 
             StringEntity data = new StringEntity(json, ContentType.APPLICATION_JSON);
 
             httpPost.setEntity(data);
 
-            HttpResponse response = executeRequest(httpPost);
+            HttpResponse response = executeRequest(httpPost, NetworkProfile.Endpoint.AUTH);
 
             String result = responseToString(response);
             logger.debug(result);
 
-            Token token = tokenReader.readValue(result);
+            Token token = codec.read(result, Token.class);
             return token.getToken();
         } catch (URISyntaxException | IOException e) {
             throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
@@ -158,22 +235,32 @@ class LoadRunnerCloudClient {
         if (!isCookiePresent) throw new LoadRunnerCloudClientException("No LoadRunner cloud client api key present. First call initApiKey with credentials.");
     }
 
-    private HttpClient createHttpClient(boolean useProxy) {
-
-        RequestConfig requestConfig = RequestConfig.custom()
-            .setConnectionRequestTimeout(1_000)
-            .setConnectTimeout(4_000)
-            .setSocketTimeout(10_000).build();
+    private CloseableHttpClient createHttpClient() {
 
         HttpClientBuilder httpClientBuilder = HttpClients.custom()
             .setDefaultCookieStore(cookieStore)
             .setRedirectStrategy(new LaxRedirectStrategy())
-            .setDefaultRequestConfig(requestConfig);
+            .setDefaultRequestConfig(defaultRequestConfig)
+            // connections are kept alive and reused, also for parallel calls
+            .setMaxConnPerRoute(networkProfile.getMaxConnectionsPerRoute())
+            .setMaxConnTotal(networkProfile.getMaxConnectionsPerRoute() * 2);
+
+        if (!networkProfile.isCompressionEnabled()) {
+            httpClientBuilder.disableContentCompression();
+        }
 
-        if (useProxy) {
-            HttpHost httpProxy = new HttpHost("localhost", proxyPort);
+        if (networkProfile.isUseProxy()) {
+            HttpHost httpProxy = new HttpHost(networkProfile.getProxyHost(), networkProfile.getProxyPort());
             DefaultProxyRoutePlanner routePlanner = new DefaultProxyRoutePlanner(httpProxy);
             httpClientBuilder.setRoutePlanner(routePlanner);
+
+            if (networkProfile.hasProxyCredentials()) {
+                BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+                credentialsProvider.setCredentials(
+                    new AuthScope(networkProfile.getProxyHost(), networkProfile.getProxyPort()),
+                    new UsernamePasswordCredentials(networkProfile.getProxyUser(), networkProfile.getProxyPassword()));
+                httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+            }
         }
 
         return httpClientBuilder.build();
@@ -192,9 +279,75 @@ class LoadRunnerCloudClient {
         return result.toString();
     }
 
-    private HttpResponse executeRequest(HttpUriRequest request) throws IOException {
-        HttpResponse response = httpClient.execute(request);
+    private HttpResponse executeRequest(HttpRequestBase request, NetworkProfile.Endpoint endpoint) throws IOException {
+        LoadRunnerCloudTracer activeTracer = tracer;
+        if (activeTracer == null) {
+            return executeRequest(request, endpoint, null);
+        }
+        String path = apiPath(request);
+        LoadRunnerCloudTracer.ActiveSpan span = activeTracer.start(request.getMethod() + " " + NUMERIC_PATH_SEGMENT.matcher(path).replaceAll("/{id}"))
+            .attribute("http.request.method", request.getMethod())
+            .attribute("url.path", path)
+            .attribute("lrc.endpoint", endpoint.name())
+            .attribute("lrc.retry_count", 0);
+        Matcher runIdMatcher = TEST_RUN_PATH.matcher(path);
+        if (runIdMatcher.find()) {
+            span.attribute(LoadRunnerCloudTracer.ATTRIBUTE_RUN_ID, Integer.parseInt(runIdMatcher.group(1)));
+        }
+        try {
+            return executeRequest(request, endpoint, span);
+        } catch (IOException | RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    private HttpResponse executeRequest(HttpRequestBase request, NetworkProfile.Endpoint endpoint,
+                                        LoadRunnerCloudTracer.ActiveSpan span) throws IOException {
+        String requestBaseUrl = baseUrl;
+        try {
+            return execute(request, endpoint, span);
+        } catch (ConnectException | ConnectTimeoutException | UnknownHostException e) {
+            // the request did not reach the endpoint, so it is safe to retry on the next one
+            if (!failover(requestBaseUrl, endpoint, e)) {
+                throw e;
+            }
+            request.setURI(URI.create(baseUrl + request.getURI().toString().substring(requestBaseUrl.length())));
+            if (span != null) {
+                span.attribute("lrc.retry_count", 1).attribute("lrc.failed_over_from", requestBaseUrl);
+            }
+            return execute(request, endpoint, span);
+        } catch (SocketTimeoutException e) {
+            // the request might have been processed: no retry. One slow call, for instance a large result,
+            // does not make the endpoint degraded: only after a few timeouts in a row next calls go to the next endpoint
+            if (requestBaseUrl.equals(baseUrl) && socketTimeoutsInARow.incrementAndGet() >= SOCKET_TIMEOUTS_BEFORE_FAILOVER) {
+                failover(requestBaseUrl, endpoint, e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return path of the request without the path of the base url, e.g. /test-runs/12
+     */
+    private String apiPath(HttpRequestBase request) {
+        String path = request.getURI().getPath();
+        String basePath = URI.create(baseUrl).getPath();
+        return basePath != null && !basePath.isEmpty() && path.startsWith(basePath) ? path.substring(basePath.length()) : path;
+    }
+
+    private HttpResponse execute(HttpRequestBase request, NetworkProfile.Endpoint endpoint, LoadRunnerCloudTracer.ActiveSpan span) throws IOException {
+        request.setConfig(RequestConfig.copy(defaultRequestConfig)
+            .setSocketTimeout(networkProfile.socketTimeoutMillis(endpoint)).build());
+        HttpResponse response = send(request, endpoint);
+        // the endpoint answers
+        socketTimeoutsInARow.set(0);
         int statusCode = response.getStatusLine().getStatusCode();
+        if (span != null) {
+            span.attribute("http.response.status_code", statusCode);
+        }
         if (statusCode < 200 || statusCode > 299) {
             String result = responseToString(response);
             throw new LoadRunnerCloudClientException(String.format("Unexpected status code: %d for request: %s. Contents: %s", statusCode, request, result));
@@ -202,6 +355,60 @@ class LoadRunnerCloudClient {
         return response;
     }
 
+    private HttpResponse send(HttpRequestBase request, NetworkProfile.Endpoint endpoint) throws IOException {
+        LoadRunnerCloudCassette replay = cassette;
+        if (replay != null) {
+            return replay.replay(request);
+        }
+        LoadRunnerCloudTrafficCapture capture = trafficCapture;
+        if (capture != null) {
+            return executeCaptured(request, endpoint, capture);
+        }
+        return httpClient.execute(request);
+    }
+
+    private HttpResponse executeCaptured(HttpRequestBase request, NetworkProfile.Endpoint endpoint, LoadRunnerCloudTrafficCapture capture) throws IOException {
+        long startedMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        HttpResponse response;
+        try {
+            response = httpClient.execute(request);
+        } catch (IOException e) {
+            capture.failed(request, endpoint, startedMillis, System.nanoTime() - startNanos, e);
+            throw e;
+        }
+        capture.captured(request, endpoint, startedMillis, System.nanoTime() - startNanos, response);
+        return response;
+    }
+
+    /**
+     * Switch to the next base url, unless there is none or another call already switched.
+     *
+     * @return true when calls should now go to another base url
+     */
+    private boolean failover(String failedBaseUrl, NetworkProfile.Endpoint endpoint, IOException cause) {
+        if (baseUrls.size() == 1) {
+            return false;
+        }
+        synchronized (baseUrls) {
+            if (!baseUrl.equals(failedBaseUrl)) {
+                return true;
+            }
+            baseUrlIndex = (baseUrlIndex + 1) % baseUrls.size();
+            baseUrl = baseUrls.get(baseUrlIndex);
+            host = hostOf(baseUrl);
+            socketTimeoutsInARow.set(0);
+        }
+        logger.warn("LoadRunner Cloud endpoint " + failedBaseUrl + " degraded (" + cause + "), fail over to " + baseUrl);
+        failoverHandler.run();
+
+        if (isCookiePresent && endpoint != NetworkProfile.Endpoint.AUTH) {
+            // the api key cookie is bound to the host of the endpoint
+            initApiKey(user, password, tenantId);
+        }
+        return true;
+    }
+
     /**
      * Schedules a run one minute from now.
      *
@@ -220,19 +427,19 @@ class LoadRunnerCloudClient {
             HttpPost httpPost = new HttpPost(uriBuilder.build());
 
             // need to provide UTC time
-            ZonedDateTime startTime = ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1);
+            ZonedDateTime startTime = ZonedDateTime.ofInstant(clock.instant(), ZoneOffset.UTC).plusMinutes(1);
             Schedule schedule = Schedule.builder().timestamp(startTime).build();
 
-            String json = objectMapper.writeValueAsString(schedule);
+            String json = codec.write(schedule);
             StringEntity data = new StringEntity(json, ContentType.APPLICATION_JSON);
 
             httpPost.setEntity(data);
 
-            HttpResponse response = executeRequest(httpPost);
+            HttpResponse response = executeRequest(httpPost, NetworkProfile.Endpoint.RUN_CONTROL);
             String result = responseToString(response);
             logger.debug(result);
 
-            return scheduleReplyReader.readValue(result);
+            return codec.read(result, ScheduleReply.class);
 
         } catch (URISyntaxException | IOException e) {
             throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
@@ -256,11 +463,11 @@ class LoadRunnerCloudClient {
 
             HttpPost httpPost = new HttpPost(uriBuilder.build());
 
-            HttpResponse response = executeRequest(httpPost);
+            HttpResponse response = executeRequest(httpPost, NetworkProfile.Endpoint.RUN_CONTROL);
             String result = responseToString(response);
             logger.debug(result);
 
-            return runReplyReader.readValue(result);
+            return codec.read(result, RunReply.class);
 
         } catch (URISyntaxException | IOException e) {
             throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
@@ -283,11 +490,11 @@ class LoadRunnerCloudClient {
 
             HttpPut httpPut = new HttpPut(uriBuilder.build());
 
-            HttpResponse response = executeRequest(httpPut);
+            HttpResponse response = executeRequest(httpPut, NetworkProfile.Endpoint.RUN_CONTROL);
             String result = responseToString(response);
             logger.debug(result);
 
-            return runReplyReader.readValue(result);
+            return codec.read(result, RunReply.class);
 
         } catch (URISyntaxException | IOException e) {
             throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
@@ -295,27 +502,231 @@ class LoadRunnerCloudClient {
     }
 
     /**
-     * Get script info for test run.
+     * Get script info for test run, read page by page.
      *
      * @param projectId number of the project
      * @param loadTestId number of the loadTest
      */
     public List<ScriptConfig> scriptsForTestRun(String projectId, String loadTestId) {
+        List<ScriptConfig> scriptConfigs = new ArrayList<>();
+        try (PagedIterator<ScriptConfig> scripts = scriptsForTestRunPaged(projectId, loadTestId, SCRIPTS_PAGE_SIZE)) {
+            scripts.forEachRemaining(scriptConfigs::add);
+        }
+        return scriptConfigs;
+    }
+
+    /**
+     * Get a project.
+     *
+     * @param projectId number of the project
+     */
+    public Project project(String projectId) {
+        return fetch(String.format("%s/projects/%s", baseUrl, projectId), Project.class, NetworkProfile.Endpoint.SCRIPTS);
+    }
+
+    /**
+     * Get a load test of a project.
+     *
+     * @param projectId number of the project
+     * @param loadTestId number of the loadTest
+     */
+    public LoadTest loadTest(String projectId, String loadTestId) {
+        return fetch(String.format("%s/projects/%s/load-tests/%s", baseUrl, projectId, loadTestId), LoadTest.class, NetworkProfile.Endpoint.SCRIPTS);
+    }
+
+    /**
+     * Get the load generator locations of a load test, with the percentage of vusers of each location.
+     *
+     * @param projectId number of the project
+     * @param loadTestId number of the loadTest
+     */
+    public List<LoadTestLocation> loadTestLocations(String projectId, String loadTestId) {
+        return Arrays.asList(fetch(String.format("%s/projects/%s/load-tests/%s/locations", baseUrl, projectId, loadTestId),
+            LoadTestLocation[].class, NetworkProfile.Endpoint.SCRIPTS));
+    }
+
+    /**
+     * Update the percentage of vusers of a load generator location of a load test.
+     *
+     * @param projectId number of the project
+     * @param loadTestId number of the loadTest
+     * @param location the location with the new percentage
+     */
+    public void updateLoadTestLocation(String projectId, String loadTestId, LoadTestLocation location) {
+        checkApiKey();
+
+        String uri = String.format("%s/projects/%s/load-tests/%s/locations/%d", baseUrl, projectId, loadTestId, location.getId());
+
+        try {
+            URIBuilder uriBuilder = new URIBuilder(uri);
+            uriBuilder.addParameter(PARAM_TENANTID, tenantId);
+
+            HttpPut httpPut = new HttpPut(uriBuilder.build());
+
+            String json = codec.write(location);
+            httpPut.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+
+            HttpResponse response = executeRequest(httpPut, NetworkProfile.Endpoint.SCRIPTS);
+            String result = responseToString(response);
+            logger.debug(result);
+
+        } catch (URISyntaxException | IOException e) {
+            throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
+        }
+    }
+
+    private <T> T fetch(String uri, Class<T> type, NetworkProfile.Endpoint endpoint) {
         checkApiKey();
 
-        String uri = String.format("%s/projects/%s/load-tests/%s/scripts", baseUrl, projectId, loadTestId);
+        try {
+            URIBuilder uriBuilder = new URIBuilder(uri);
+            uriBuilder.addParameter(PARAM_TENANTID, tenantId);
+
+            HttpGet httpGet = new HttpGet(uriBuilder.build());
+
+            HttpResponse response = executeRequest(httpGet, endpoint);
+            String result = responseToString(response);
+            logger.debug(result);
+
+            return codec.read(result, type);
+
+        } catch (URISyntaxException | IOException e) {
+            throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
+        }
+    }
+
+    /**
+     * Get script info for test run, page by page with prefetch of the next page.
+     *
+     * @param projectId number of the project
+     * @param loadTestId number of the loadTest
+     * @param pageSize number of scripts per call
+     */
+    public PagedIterator<ScriptConfig> scriptsForTestRunPaged(String projectId, String loadTestId, int pageSize) {
+        return scriptsForTestRunPaged(projectId, loadTestId, pageSize, LoadRunnerCloudThreads.prefetchExecutor());
+    }
+
+    /**
+     * @param prefetchExecutor executor of the prefetch, a direct executor reads the pages on the calling thread
+     */
+    PagedIterator<ScriptConfig> scriptsForTestRunPaged(String projectId, String loadTestId, int pageSize, Executor prefetchExecutor) {
+        // uri per page: the base url can change on failover
+        return new PagedIterator<>((offset, limit) -> fetchPage(
+                String.format("%s/projects/%s/load-tests/%s/scripts", baseUrl, projectId, loadTestId),
+                offset, limit, ScriptConfig[].class, NetworkProfile.Endpoint.SCRIPTS),
+            pageSize, prefetchExecutor);
+    }
+
+    /**
+     * Get the load tests of a project, page by page with prefetch of the next page.
+     *
+     * @param projectId number of the project
+     * @param pageSize number of load tests per call
+     */
+    public PagedIterator<LoadTest> loadTestsPaged(String projectId, int pageSize) {
+        return new PagedIterator<>((offset, limit) -> fetchPage(
+                String.format("%s/projects/%s/load-tests", baseUrl, projectId),
+                offset, limit, LoadTest[].class, NetworkProfile.Endpoint.SCRIPTS),
+            pageSize, LoadRunnerCloudThreads.prefetchExecutor());
+    }
+
+    private <T> List<T> fetchPage(String uri, int offset, int limit, Class<T[]> type, NetworkProfile.Endpoint endpoint) {
+        checkApiKey();
 
         try {
             URIBuilder uriBuilder = new URIBuilder(uri);
             uriBuilder.addParameter(PARAM_TENANTID, tenantId);
+            uriBuilder.addParameter(PARAM_LIMIT, String.valueOf(limit));
+            uriBuilder.addParameter(PARAM_OFFSET, String.valueOf(offset));
 
             HttpGet httpGet = new HttpGet(uriBuilder.build());
 
-            HttpResponse response = executeRequest(httpGet);
+            HttpResponse response = executeRequest(httpGet, endpoint);
             String result = responseToString(response);
             logger.debug(result);
 
-            return Arrays.asList(scriptConfigArrayReader.readValue(result));
+            return Arrays.asList(codec.read(result, type));
+
+        } catch (URISyntaxException | IOException e) {
+            throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
+        }
+    }
+
+    /**
+     * Update the configuration of a script of a load test, such as vusers and schedule.
+     *
+     * @param projectId number of the project
+     * @param loadTestId number of the loadTest
+     * @param scriptConfig the new script configuration, the id selects the script to update
+     * @return the updated script configuration
+     */
+    public ScriptConfig updateScriptConfig(String projectId, String loadTestId, ScriptConfig scriptConfig) {
+        checkApiKey();
+
+        String uri = String.format("%s/projects/%s/load-tests/%s/scripts/%d", baseUrl, projectId, loadTestId, scriptConfig.getId());
+
+        try {
+            URIBuilder uriBuilder = new URIBuilder(uri);
+            uriBuilder.addParameter(PARAM_TENANTID, tenantId);
+
+            HttpPut httpPut = new HttpPut(uriBuilder.build());
+
+            String json = codec.write(scriptConfig);
+            StringEntity data = new StringEntity(json, ContentType.APPLICATION_JSON);
+
+            httpPut.setEntity(data);
+
+            HttpResponse response = executeRequest(httpPut, NetworkProfile.Endpoint.SCRIPTS);
+            String result = responseToString(response);
+            logger.debug(result);
+
+            return result.isEmpty() ? scriptConfig : codec.read(result, ScriptConfig.class);
+
+        } catch (URISyntaxException | IOException e) {
+            throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
+        }
+    }
+
+    /**
+     * Replace the content of a script with a local script zip. The zip is streamed from disk.
+     *
+     * @param projectId number of the project
+     * @param scriptId number of the script in the project
+     * @param zip the script zip
+     */
+    public void uploadScript(String projectId, int scriptId, Path zip) {
+        upload(String.format("%s/projects/%s/scripts/%d", baseUrl, projectId, scriptId), zip);
+    }
+
+    /**
+     * Replace the content of a data file, such as a parameter file. The file is streamed from disk.
+     *
+     * @param projectId number of the project
+     * @param fileId number of the file in the project
+     * @param file the local file
+     */
+    public void uploadFile(String projectId, int fileId, Path file) {
+        upload(String.format("%s/projects/%s/files/%d", baseUrl, projectId, fileId), file);
+    }
+
+    private void upload(String uri, Path path) {
+        checkApiKey();
+
+        try {
+            URIBuilder uriBuilder = new URIBuilder(uri);
+            uriBuilder.addParameter(PARAM_TENANTID, tenantId);
+
+            HttpPut httpPut = new HttpPut(uriBuilder.build());
+
+            // a file body is written in chunks while sending, and can be sent again on failover
+            HttpEntity data = MultipartEntityBuilder.create()
+                .addPart("file", new FileBody(path.toFile(), ContentType.APPLICATION_OCTET_STREAM, path.getFileName().toString()))
+                .build();
+            httpPut.setEntity(data);
+
+            HttpResponse response = executeRequest(httpPut, NetworkProfile.Endpoint.SCRIPTS);
+            String result = responseToString(response);
+            logger.debug(result);
 
         } catch (URISyntaxException | IOException e) {
             throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
@@ -344,16 +755,16 @@ class LoadRunnerCloudClient {
 
             HttpPut httpPut = new HttpPut(uriBuilder.build());
 
-            String json = objectMapper.writeValueAsString(attributes);
+            String json = codec.write(attributes);
             StringEntity data = new StringEntity(json, ContentType.APPLICATION_JSON);
 
             httpPut.setEntity(data);
 
-            HttpResponse response = executeRequest(httpPut);
+            HttpResponse response = executeRequest(httpPut, NetworkProfile.Endpoint.SCRIPTS);
             String result = responseToString(response);
             logger.debug(result);
 
-            return Arrays.asList(runtimeAdditionalAttributeArrayReader.readValue(result));
+            return Arrays.asList(codec.read(result, RuntimeAdditionalAttribute[].class));
 
         } catch (URISyntaxException | IOException e) {
             throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
@@ -371,13 +782,39 @@ class LoadRunnerCloudClient {
         String projectId, String loadTestId, List<RuntimeAdditionalAttribute> attributes) {
 
         List<ScriptConfig> scriptConfigs = scriptsForTestRun(projectId, loadTestId);
+        addAdditionalRuntimeSettingsAttributesForScripts(projectId, loadTestId, scriptConfigs, attributes);
+    }
+
+    /**
+     * Update or add test script's additional attributes in local RTS, for the given scripts.
+     *
+     * @param projectId number of the project
+     * @param loadTestId number of the loadTest
+     * @param scriptConfigs the scripts of the load test to update
+     * @param attributes list of runtime settings attributes to set
+     */
+    public void addAdditionalRuntimeSettingsAttributesForScripts(
+        String projectId, String loadTestId, List<ScriptConfig> scriptConfigs, List<RuntimeAdditionalAttribute> attributes) {
 
         int scriptCount = scriptConfigs.size();
         logger.info("Updating " + scriptCount + " " + (scriptCount == 1 ? "script" : "scripts") + " with local runtime settings attributes: " + attributes);
 
-        scriptConfigs.stream()
+        // one call per script, concurrently
+        List<CompletableFuture<List<RuntimeAdditionalAttribute>>> updates = scriptConfigs.stream()
             .map(ScriptConfig::getId)
-            .forEach(scriptId -> addAdditionalRuntimeSettingsAttributes(projectId, loadTestId, scriptId, attributes));
+            .map(scriptId -> CompletableFuture.supplyAsync(
+                () -> addAdditionalRuntimeSettingsAttributes(projectId, loadTestId, scriptId, attributes),
+                LoadRunnerCloudThreads.fanOutExecutor()))
+            .collect(Collectors.toList());
+
+        try {
+            CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof LoadRunnerCloudClientException) {
+                throw (LoadRunnerCloudClientException) e.getCause();
+            }
+            throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e.getCause());
+        }
     }
 
     /**
@@ -385,10 +822,27 @@ class LoadRunnerCloudClient {
      *
      * The statuses returned: RUNNING, INITIALIZING, CHECKING_STATUS, STOPPING, PAUSED
      *
+     * When the client joined a status batch, the call is combined with the calls for the
+     * other projects of the batch.
+     *
      * @param projectId number of the project
      * @return list of active test runs
      */
     public List<TestRunActive> testRunsActive(String projectId) {
+        LoadRunnerCloudStatusBatch.Registration batch = statusBatch;
+        if (batch != null) {
+            return batch.testRunsActive(projectId);
+        }
+        return testRunsActive(Collections.singleton(projectId));
+    }
+
+    /**
+     * Return results of all active load tests run of the given projects, in one call.
+     *
+     * @param projectIds numbers of the projects
+     * @return list of active test runs
+     */
+    public List<TestRunActive> testRunsActive(Collection<String> projectIds) {
         checkApiKey();
 
         String uri = String.format("%s/test-runs/active", baseUrl);
@@ -396,15 +850,15 @@ class LoadRunnerCloudClient {
         try {
             URIBuilder uriBuilder = new URIBuilder(uri);
             uriBuilder.addParameter(PARAM_TENANTID, tenantId);
-            uriBuilder.addParameter("projectIds", projectId);
+            uriBuilder.addParameter("projectIds", String.join(",", projectIds));
 
             HttpGet httpGet = new HttpGet(uriBuilder.build());
 
-            HttpResponse response = executeRequest(httpGet);
+            HttpResponse response = executeRequest(httpGet, NetworkProfile.Endpoint.STATUS);
             String result = responseToString(response);
             logger.debug(result);
 
-            return Arrays.asList(testRunsActiveArrayReader.readValue(result));
+            return Arrays.asList(codec.read(result, TestRunActive[].class));
 
         } catch (URISyntaxException | IOException e) {
             throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
@@ -412,4 +866,126 @@ class LoadRunnerCloudClient {
 
     }
 
+    /**
+     * Combine the active test runs calls of this client with those of other clients in this jvm
+     * for the same base url, tenant and user. Call after initApiKey. Left on close.
+     *
+     * @param projectId number of the project watched via this client
+     * @param maxAge max age of a result of another client that can be reused
+     */
+    public void joinStatusBatch(String projectId, Duration maxAge) {
+        checkApiKey();
+        String key = String.join("|", baseUrl, tenantId, user);
+        statusBatch = LoadRunnerCloudStatusBatch.register(key, maxAge, projectId, this);
+    }
+
+    /**
+     * Get the status of a test run, also after the run has ended.
+     *
+     * @param runId number of the run
+     */
+    public TestRun testRun(int runId) {
+        return fetch(String.format("%s/test-runs/%d", baseUrl, runId), TestRun.class, NetworkProfile.Endpoint.STATUS);
+    }
+
+    /**
+     * Return the transaction summaries of a test run, cumulative since the start of the run.
+     * Can be called while the run is active.
+     *
+     * @param runId number of the run
+     * @return list of transaction summaries
+     */
+    public List<TestRunTransaction> testRunTransactions(int runId) {
+        checkApiKey();
+
+        String uri = String.format("%s/test-runs/%d/transactions", baseUrl, runId);
+
+        try {
+            URIBuilder uriBuilder = new URIBuilder(uri);
+            uriBuilder.addParameter(PARAM_TENANTID, tenantId);
+
+            HttpGet httpGet = new HttpGet(uriBuilder.build());
+
+            HttpResponse response = executeRequest(httpGet, NetworkProfile.Endpoint.RESULTS);
+            String result = responseToString(response);
+            logger.debug(result);
+
+            return Arrays.asList(codec.read(result, TestRunTransaction[].class));
+
+        } catch (URISyntaxException | IOException e) {
+            throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e);
+        }
+    }
+
+    /**
+     * Capture all requests and responses from now on. The capture is closed with this client.
+     */
+    void captureTraffic(LoadRunnerCloudTrafficCapture capture) {
+        this.trafficCapture = capture;
+    }
+
+    /**
+     * Use another clock for the schedules of this client and the polling and timeouts of its users.
+     */
+    void useClock(LoadRunnerCloudClock clock) {
+        this.clock = clock;
+    }
+
+    LoadRunnerCloudClock clock() {
+        return clock;
+    }
+
+    /**
+     * Serve all calls from a cassette from now on, LoadRunner Cloud is not called.
+     */
+    void replayFrom(LoadRunnerCloudCassette cassette) {
+        this.cassette = cassette;
+    }
+
+    /**
+     * Create a span for each call from now on. The tracer is closed with this client.
+     */
+    void trace(LoadRunnerCloudTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Add the run id to the spans of all following calls, when tracing.
+     */
+    void traceRunId(int runId) {
+        LoadRunnerCloudTracer activeTracer = tracer;
+        if (activeTracer != null) {
+            activeTracer.runId(runId);
+        }
+    }
+
+    /**
+     * Releases the connections of the underlying http client.
+     * The client cannot be used after close.
+     */
+    @Override
+    public void close() {
+        LoadRunnerCloudStatusBatch.Registration batch = statusBatch;
+        if (batch != null) {
+            statusBatch = null;
+            batch.close();
+        }
+        isCookiePresent = false;
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close http client: " + e.getMessage());
+        }
+        LoadRunnerCloudTrafficCapture capture = trafficCapture;
+        if (capture != null) {
+            trafficCapture = null;
+            capture.close();
+        }
+        LoadRunnerCloudTracer activeTracer = tracer;
+        if (activeTracer != null) {
+            tracer = null;
+            activeTracer.close();
+        }
+    }
+
 }
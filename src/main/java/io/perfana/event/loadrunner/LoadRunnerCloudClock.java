@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.time.Instant;
+
+/**
+ * Time and waiting for polling, watching and timeouts.
+ *
+ * All waits go through the clock of the client, so a test can run hours of polling in virtual time.
+ */
+interface LoadRunnerCloudClock {
+
+    LoadRunnerCloudClock SYSTEM = new LoadRunnerCloudClock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+    };
+
+    /**
+     * @return milliseconds since the epoch
+     */
+    long currentTimeMillis();
+
+    /**
+     * Wait for the given milliseconds, or until interrupted.
+     */
+    void sleep(long millis) throws InterruptedException;
+
+    default Instant instant() {
+        return Instant.ofEpochMilli(currentTimeMillis());
+    }
+}
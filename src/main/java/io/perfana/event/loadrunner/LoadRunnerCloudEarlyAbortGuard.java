@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Stops a run early when error percentage, failed transactions or average response time
+ * stay above a threshold for a sustained duration.
+ *
+ * The transaction summaries of LoadRunner Cloud are cumulative, so each check only keeps the
+ * totals of the previous check and compares the difference: memory use does not grow with the run.
+ *
+ * @see TransactionIntervalTracker
+ */
+class LoadRunnerCloudEarlyAbortGuard implements Closeable {
+
+    static final String THREAD_NAME = "LrcEarlyAbortGuard";
+
+    private final LoadRunnerCloudClient client;
+    private final EventLogger logger;
+    private final int runId;
+    private final EarlyAbortThresholds thresholds;
+    private final LoadRunnerCloudRunHandle runHandle;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(this::newThread);
+
+    private volatile boolean closed = false;
+    private volatile boolean failed = false;
+    private volatile Thread thread;
+
+    private final TransactionIntervalTracker intervalTracker = new TransactionIntervalTracker();
+
+    private long breachStartTimestamp = -1;
+
+    LoadRunnerCloudEarlyAbortGuard(LoadRunnerCloudClient client, EventLogger logger, int runId, EarlyAbortThresholds thresholds) {
+        this(client, logger, runId, thresholds, null);
+    }
+
+    /**
+     * @param runHandle is told before the stop that the run ends on purpose, or null
+     */
+    LoadRunnerCloudEarlyAbortGuard(LoadRunnerCloudClient client, EventLogger logger, int runId, EarlyAbortThresholds thresholds,
+                                   LoadRunnerCloudRunHandle runHandle) {
+        this.client = client;
+        this.logger = logger;
+        this.runId = runId;
+        this.thresholds = thresholds;
+        this.runHandle = runHandle;
+    }
+
+    /**
+     * Start checking. When a threshold is breached for the sustained duration, the run is
+     * stopped and the handler is called once with the reason.
+     *
+     * @param abortHandler called with the reason of the early abort
+     */
+    void start(Consumer<String> abortHandler) {
+        logger.info("Start early abort guard for run [" + runId + "] with " + thresholds);
+        LoadRunnerCloudClock clock = client.clock();
+        executor.execute(() -> guard(clock, abortHandler));
+    }
+
+    private void guard(LoadRunnerCloudClock clock, Consumer<String> abortHandler) {
+        try {
+            // fixed delay between checks
+            while (!closed) {
+                clock.sleep(thresholds.getCheckPeriod().toMillis());
+                if (!checkRun(clock, abortHandler)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // for instance a failing abort handler: do not end silently
+            failed = true;
+            logger.error("Early abort guard for run [" + runId + "] failed, will stop checking now.", e);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return true when the guard stopped checking because of an unexpected error
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return true to continue checking
+     */
+    private boolean checkRun(LoadRunnerCloudClock clock, Consumer<String> abortHandler) {
+        if (closed) return false;
+
+        String reason;
+        try {
+            reason = check(client.testRunTransactions(runId), clock.currentTimeMillis());
+        } catch (LoadRunnerCloudClientException e) {
+            if (!closed) logger.warn("Early abort guard cannot fetch transactions, will retry: " + e.getMessage());
+            return true;
+        }
+
+        if (reason != null && !closed) {
+            logger.warn("Early abort of run [" + runId + "]: " + reason);
+            executor.shutdown();
+            if (runHandle != null) {
+                runHandle.expectStop();
+            }
+            try {
+                client.stopRun(runId);
+            } catch (LoadRunnerCloudClientException e) {
+                logger.warn("Early abort guard cannot stop run [" + runId + "]: " + e.getMessage());
+            }
+            abortHandler.accept(reason);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check the latest cumulative transaction summaries.
+     *
+     * @return the reason to abort, or null when no threshold is breached long enough
+     */
+    String check(List<TestRunTransaction> transactions, long nowMillis) {
+        TransactionIntervalTracker.IntervalStats stats = intervalTracker.nextInterval(transactions, nowMillis);
+        if (stats == null) {
+            return null;
+        }
+
+        String breach = breachedThreshold(stats);
+        if (breach == null) {
+            breachStartTimestamp = -1;
+            return null;
+        }
+
+        if (breachStartTimestamp < 0) {
+            breachStartTimestamp = nowMillis - stats.intervalMillis;
+        }
+        long breachMillis = nowMillis - breachStartTimestamp;
+        logger.info("Early abort guard: " + breach + " for " + breachMillis + " ms");
+
+        return breachMillis >= thresholds.getSustainedDuration().toMillis()
+            ? breach + " for at least " + thresholds.getSustainedDuration()
+            : null;
+    }
+
+    private String breachedThreshold(TransactionIntervalTracker.IntervalStats stats) {
+        if (thresholds.getMaxErrorPercentage() > 0 && stats.errorPercentage() > thresholds.getMaxErrorPercentage()) {
+            return String.format(Locale.ROOT, "error percentage %.1f%% above %.1f%%", stats.errorPercentage(), thresholds.getMaxErrorPercentage());
+        }
+        if (thresholds.getMaxFailedTransactionsPerMinute() > 0 && stats.failedPerMinute() > thresholds.getMaxFailedTransactionsPerMinute()) {
+            return String.format(Locale.ROOT, "failed transactions %.0f per minute above %d", stats.failedPerMinute(), thresholds.getMaxFailedTransactionsPerMinute());
+        }
+        if (thresholds.getMaxAvgResponseTimeMillis() > 0 && stats.avgResponseTimeMillis > thresholds.getMaxAvgResponseTimeMillis()) {
+            return String.format(Locale.ROOT, "average response time %.0f ms above %d ms", stats.avgResponseTimeMillis, thresholds.getMaxAvgResponseTimeMillis());
+        }
+        return null;
+    }
+
+    private Thread newThread(Runnable runnable) {
+        thread = LoadRunnerCloudThreads.newThread(THREAD_NAME, runnable);
+        return thread;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (Thread.currentThread() == thread) {
+            // closed from a handler on our own thread: do not interrupt or wait for ourselves
+            executor.shutdown();
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Early abort guard thread did not stop within 5 seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
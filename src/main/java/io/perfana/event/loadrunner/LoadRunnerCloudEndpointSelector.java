@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.eventscheduler.api.EventLogger;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Orders candidate LoadRunner Cloud base urls: fastest healthy endpoint first.
+ *
+ * Each candidate is probed with a tcp connect and, for https, a TLS handshake. Candidates that
+ * fail the probe are kept at the end in configured order, as last resort for failover.
+ * The order is cached per list of candidates, so consecutive test runs do not probe again.
+ * Probes run concurrently on the shared fan-out threads, a probe without result within the probe timeout fails.
+ */
+class LoadRunnerCloudEndpointSelector {
+
+    static final long PROBE_FAILED = -1;
+
+    private static final Duration DEFAULT_PROBE_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final Map<List<String>, Selection> SELECTIONS = new ConcurrentHashMap<>();
+
+    private final List<String> candidates;
+    private final Duration cacheDuration;
+    private final EventLogger logger;
+    private final ToLongFunction<String> probe;
+    private final Duration probeTimeout;
+
+    private volatile LoadRunnerCloudClock clock = LoadRunnerCloudClock.SYSTEM;
+
+    private static class Selection {
+        final List<String> orderedBaseUrls;
+        final long expiresTimestamp;
+
+        Selection(List<String> orderedBaseUrls, long expiresTimestamp) {
+            this.orderedBaseUrls = orderedBaseUrls;
+            this.expiresTimestamp = expiresTimestamp;
+        }
+    }
+
+    LoadRunnerCloudEndpointSelector(List<String> candidates, Duration cacheDuration, int connectTimeoutMillis, EventLogger logger) {
+        // the tcp connect and the TLS handshake each get the connect timeout
+        this(candidates, cacheDuration, logger, baseUrl -> probe(baseUrl, connectTimeoutMillis), Duration.ofMillis(2L * connectTimeoutMillis));
+    }
+
+    LoadRunnerCloudEndpointSelector(List<String> candidates, Duration cacheDuration, EventLogger logger, ToLongFunction<String> probe) {
+        this(candidates, cacheDuration, logger, probe, DEFAULT_PROBE_TIMEOUT);
+    }
+
+    LoadRunnerCloudEndpointSelector(List<String> candidates, Duration cacheDuration, EventLogger logger, ToLongFunction<String> probe,
+                                    Duration probeTimeout) {
+        if (candidates.isEmpty()) {
+            throw new LoadRunnerCloudClientException("No LoadRunner Cloud base urls configured.");
+        }
+        this.candidates = Collections.unmodifiableList(new ArrayList<>(candidates));
+        this.cacheDuration = cacheDuration;
+        this.logger = logger;
+        this.probe = probe;
+        this.probeTimeout = probeTimeout;
+    }
+
+    /**
+     * Split a comma separated list of base urls.
+     */
+    static List<String> parseBaseUrls(String baseUrls) {
+        if (baseUrls == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(baseUrls.split(","))
+            .map(String::trim)
+            .filter(s -> !s.isEmpty())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Use another clock for the expiry of the cached order. The probe timeout stays in real time:
+     * it bounds the wait for the probes on other threads.
+     */
+    void useClock(LoadRunnerCloudClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return the candidates, fastest healthy first, from cache when not expired
+     */
+    List<String> select() {
+        if (candidates.size() == 1) {
+            return candidates;
+        }
+        long now = clock.currentTimeMillis();
+        Selection selection = SELECTIONS.get(candidates);
+        if (selection != null && selection.expiresTimestamp > now) {
+            return selection.orderedBaseUrls;
+        }
+        List<String> ordered = probeAll();
+        SELECTIONS.put(candidates, new Selection(ordered, now + cacheDuration.toMillis()));
+        return ordered;
+    }
+
+    /**
+     * Use the candidates in configured order, without probing. For instance when a proxy is used,
+     * a direct probe says nothing about the route of the requests.
+     */
+    List<String> configuredOrder() {
+        return candidates;
+    }
+
+    /**
+     * Forget the cached order, so the next selection probes again. Called when an endpoint degrades.
+     */
+    void invalidate() {
+        SELECTIONS.remove(candidates);
+    }
+
+    private List<String> probeAll() {
+        Map<String, CompletableFuture<Long>> probes = new LinkedHashMap<>();
+        for (String baseUrl : candidates) {
+            probes.put(baseUrl, CompletableFuture.supplyAsync(() -> probe.applyAsLong(baseUrl), LoadRunnerCloudThreads.fanOutExecutor()));
+        }
+        long deadline = System.nanoTime() + probeTimeout.toNanos();
+        Map<String, Long> latencies = new HashMap<>();
+        probes.forEach((baseUrl, future) -> latencies.put(baseUrl, await(future, deadline)));
+
+        List<String> healthy = candidates.stream()
+            .filter(baseUrl -> latencies.get(baseUrl) != PROBE_FAILED)
+            .sorted(Comparator.comparingLong(latencies::get))
+            .collect(Collectors.toList());
+        List<String> ordered = new ArrayList<>(healthy);
+        candidates.stream()
+            .filter(baseUrl -> !healthy.contains(baseUrl))
+            .forEach(ordered::add);
+
+        logger.info("LoadRunner Cloud endpoint probe: " + candidates.stream()
+            .map(baseUrl -> baseUrl + "=" + (latencies.get(baseUrl) == PROBE_FAILED ? "failed" : latencies.get(baseUrl) / 1_000_000 + " ms"))
+            .collect(Collectors.joining(", ")) + ", selected: " + ordered.get(0));
+
+        return Collections.unmodifiableList(ordered);
+    }
+
+    private static long await(CompletableFuture<Long> probe, long deadline) {
+        try {
+            return probe.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            probe.cancel(true);
+            return PROBE_FAILED;
+        } catch (ExecutionException e) {
+            return PROBE_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PROBE_FAILED;
+        }
+    }
+
+    /**
+     * Measure the time to connect, and for https also the TLS handshake, to the host of the base url.
+     *
+     * @return latency in nanoseconds, or PROBE_FAILED
+     */
+    static long probe(String baseUrl, int connectTimeoutMillis) {
+        URI uri = URI.create(baseUrl);
+        boolean https = "https".equalsIgnoreCase(uri.getScheme());
+        String host = uri.getHost();
+        int port = uri.getPort() != -1 ? uri.getPort() : (https ? 443 : 80);
+
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            if (https) {
+                socket.setSoTimeout(connectTimeoutMillis);
+                try (SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(socket, host, port, true)) {
+                    sslSocket.startHandshake();
+                }
+            }
+            return System.nanoTime() - start;
+        } catch (IOException | IllegalArgumentException e) {
+            return PROBE_FAILED;
+        }
+    }
+}
@@ -17,39 +17,68 @@ package io.perfana.event.loadrunner;
 
 import io.perfana.event.loadrunner.api.RunReply;
 import io.perfana.event.loadrunner.api.RuntimeAdditionalAttribute;
-import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.event.loadrunner.tracing.SpanExporter;
 import io.perfana.eventscheduler.api.EventAdapter;
+import io.perfana.eventscheduler.api.EventCheck;
 import io.perfana.eventscheduler.api.EventLogger;
 import io.perfana.eventscheduler.api.config.TestContext;
 import io.perfana.eventscheduler.api.message.EventMessage;
 import io.perfana.eventscheduler.api.message.EventMessageBus;
 
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 public class LoadRunnerCloudEvent extends EventAdapter<LoadRunnerCloudEventContext> {
 
-    private static final String LOADRUNNER_CLOUD_BASE_URL = "https://loadrunner-cloud.saas.microfocus.com/v1";
     public static final String PERFANA_LRC_PREFIX = "perfana-lrc-";
     public static final String PLUGIN_NAME = LoadRunnerCloudEvent.class.getSimpleName();
     public static final String TRACING_HEADER_NAME = "perfanaTestRunId";
 
     private final AtomicReference<LoadRunnerCloudClient> client = new AtomicReference<>();
+    private final AtomicReference<LoadRunnerCloudRunPoller> poller = new AtomicReference<>();
+    private final AtomicReference<LoadRunnerCloudRunWatchdog> watchdog = new AtomicReference<>();
+    private final AtomicReference<LoadRunnerCloudEarlyAbortGuard> earlyAbortGuard = new AtomicReference<>();
+    private final AtomicReference<LoadRunnerCloudCapacitySearch> capacitySearch = new AtomicReference<>();
+    private final AtomicReference<LoadRunnerCloudTransactionCollector> transactionCollector = new AtomicReference<>();
+    private final AtomicReference<LoadRunnerCloudRunHandle> runHandle = new AtomicReference<>();
+    private final AtomicReference<LoadRunnerCloudRunStateTracker> runStateTracker = new AtomicReference<>();
+    private final AtomicReference<LoadRunnerCloudResultCheck> resultCheck = new AtomicReference<>();
+    private final Object pollerLock = new Object();
+
+    private final LoadRunnerCloudClock clock;
+
+    private volatile LoadRunnerCloudRunJournal runJournal;
 
     private volatile int runId;
 
     public LoadRunnerCloudEvent(LoadRunnerCloudEventContext context, TestContext testContext, EventMessageBus messageBus, EventLogger logger) {
+        this(context, testContext, messageBus, logger, LoadRunnerCloudClock.SYSTEM);
+    }
+
+    /**
+     * @param clock time and waits of polling, watching and timeouts, e.g. a virtual clock in tests
+     */
+    LoadRunnerCloudEvent(LoadRunnerCloudEventContext context, TestContext testContext, EventMessageBus messageBus, EventLogger logger,
+                         LoadRunnerCloudClock clock) {
         super(context, testContext, messageBus, logger);
+        this.clock = clock;
     }
 
     @Override
     public void beforeTest() {
         logger.info("before test [" + testContext.getTestRunId() + "]");
+        logger.debug("using " + LoadRunnerCloudThreads.MODE + " threads");
 
         String user = eventContext.getLoadRunnerUser();
         String password = eventContext.getLoadRunnerPassword();
@@ -57,102 +86,510 @@ public class LoadRunnerCloudEvent extends EventAdapter<LoadRunnerCloudEventConte
         String projectId = eventContext.getLoadRunnerProjectId();
         String loadTestId = eventContext.getLoadRunnerLoadTestId();
 
-        boolean useProxy = eventContext.isUseProxy();
-
-        client.set(new LoadRunnerCloudClient(LOADRUNNER_CLOUD_BASE_URL, logger, useProxy, eventContext.getProxyPort()));
-
-        client.get().initApiKey(user, password, tenantId);
+        // release leftovers of a previous test run that did not reach afterTest or abortTest
+        releaseResources();
+        runStateTracker.set(null);
+        resultCheck.set(null);
+        LoadRunnerCloudRunHandle handle = new LoadRunnerCloudRunHandle(projectId);
+        runHandle.set(handle);
+        PhaseTimer phases = new PhaseTimer();
+        client.set(phases.time("EndpointSelection", this::createClient));
+
+        if (eventContext.isPreflightEnabled()) {
+            preflight(user, password, tenantId, projectId, loadTestId, phases);
+        }
+        else {
+            phases.time("Authentication", () -> client.get().initApiKey(user, password, tenantId));
+        }
+        if (eventContext.isStatusBatchEnabled()) {
+            client.get().joinStatusBatch(projectId, eventContext.getStatusBatchMaxAge());
+        }
+        if (eventContext.isRunJournalEnabled() && !eventContext.getCassetteSettings().isReplay()) {
+            reconcileOrphanedRuns(tenantId, phases);
+        }
+        if (eventContext.getUploadSettings().isEnabled()) {
+            upload(tenantId, projectId, loadTestId, phases);
+        }
+        Map<String, String> locationVariables = eventContext.getLocationPlanSettings().isEnabled()
+            ? planLocations(projectId, loadTestId, phases)
+            : Collections.emptyMap();
+        if (eventContext.isScheduleSyncEnabled()) {
+            LoadRunnerCloudScheduleSync scheduleSync = new LoadRunnerCloudScheduleSync(client.get(), logger, projectId, loadTestId);
+            phases.time("ScheduleSync", () -> scheduleSync.sync(testContext.getRampupTime(), testContext.getConstantLoadTime()));
+        }
 
         if (eventContext.isLoadRunnerUseTracingHeader()) {
-            sendTracingHeader(projectId, loadTestId);
+            sendTracingHeader(projectId, loadTestId, phases);
         }
         else {
             logger.info("send tracing header is disabled");
         }
 
-        RunReply myRunId = client.get().startRun(projectId, loadTestId);
+        if (eventContext.getCapacitySearchSettings().isEnabled()) {
+            startCapacitySearch(tenantId, projectId, loadTestId);
+            return;
+        }
+
+        LoadRunnerCloudClient lrcClient;
+        synchronized (pollerLock) {
+            // abortTest requests the abort under the same lock, after this check the run is stopped once started
+            if (handle.isAbortRequested()) {
+                logger.info("abort requested before start run, run is not started.");
+                handle.startFailed(new LoadRunnerCloudClientException("abort requested before start run"));
+                return;
+            }
+            lrcClient = client.get();
+        }
+
+        RunReply myRunId;
+        Instant startTimestamp = clock.instant();
+        try {
+            myRunId = phases.time("StartRun", () -> lrcClient.startRun(projectId, loadTestId));
+        } catch (RuntimeException e) {
+            handle.startFailed(e);
+            throw e;
+        }
 
         this.runId = myRunId.getRunId();
+        LoadRunnerCloudRunStateTracker tracker = new LoadRunnerCloudRunStateTracker(projectId, this.runId, startTimestamp, this::handleRunStateTransition);
+        runStateTracker.set(tracker);
+        handle.trackRunState(tracker);
+        handle.started(this.runId);
+        lrcClient.traceRunId(this.runId);
+        LoadRunnerCloudRunJournal journal = runJournal;
+        if (journal != null) {
+            synchronized (pollerLock) {
+                // abortTest forgets the run after the abort request, a run added after that would stay in the journal
+                if (!handle.isAbortRequested()) {
+                    journal.add(LoadRunnerCloudRunJournal.ownEntry(this.runId, tenantId, projectId, testContext.getTestRunId(), clock.currentTimeMillis()));
+                }
+            }
+        }
 
         EventMessage message = EventMessage.builder()
             .pluginName(pluginName())
             .variable(PERFANA_LRC_PREFIX + "tenantId", tenantId)
             .variable(PERFANA_LRC_PREFIX + "projectId", projectId)
             .variable(PERFANA_LRC_PREFIX + "runId", String.valueOf(this.runId))
+            .variables(phases.variables(PERFANA_LRC_PREFIX + "phase"))
+            .variables(locationVariables)
             .build();
         eventMessageBus.send(message);
 
         logger.info(String.format("started polling if running for projectId: %s loadTestId: %s at %s with runId: %s",
-            projectId, loadTestId, Instant.now(), this.runId));
+            projectId, loadTestId, clock.instant(), this.runId));
 
-        Runnable pollForTestRunning = () -> {
+        synchronized (pollerLock) {
+            if (handle.isAbortRequested()) {
+                logger.info("abort requested while starting run [" + this.runId + "], will not poll for status RUNNING.");
+                return;
+            }
+            LoadRunnerCloudRunPoller runPoller = new LoadRunnerCloudRunPoller(client.get(), logger,
+                eventContext.getPollingPeriod(), eventContext.getPollingMaxDuration(), tracker);
+            poller.set(runPoller);
+            int startedRunId = this.runId;
+            // waiting for LoadRunner Cloud, so measured with the clock that the poller waits with
+            long waitStartMillis = clock.currentTimeMillis();
+            runPoller.start(projectId, startedRunId, outcome -> {
+                phases.add("WaitForRunning", clock.currentTimeMillis() - waitStartMillis);
+                handlePollingOutcome(outcome, projectId, startedRunId, phases);
+            });
+        }
 
-            long sleepInMillis = eventContext.getPollingPeriod().toMillis();
-            long maxPollingTimestamp = System.currentTimeMillis() + eventContext.getPollingMaxDuration().toMillis();
+        logger.info(String.format("started run with projectId: %s loadTestId: %s at %s with runId: %s. Waiting for status RUNNING.",
+            projectId, loadTestId, clock.instant(), myRunId.getRunId()));
+    }
 
-            boolean continuePolling = true;
+    private LoadRunnerCloudClient createClient() {
+        NetworkProfile networkProfile = eventContext.getNetworkProfile();
+        LoadRunnerCloudEndpointSelector selector = new LoadRunnerCloudEndpointSelector(eventContext.getLoadRunnerBaseUrls(),
+            eventContext.getEndpointSelectionCacheDuration(), networkProfile.getConnectTimeoutMillis(), logger);
+        selector.useClock(clock);
+        CassetteSettings cassetteSettings = eventContext.getCassetteSettings();
+        // with a proxy a direct probe says nothing about the actual route, a replay does not need the network
+        List<String> baseUrls = networkProfile.isUseProxy() || cassetteSettings.isReplay() ? selector.configuredOrder() : selector.select();
+        LoadRunnerCloudClient lrcClient = new LoadRunnerCloudClient(baseUrls, logger, networkProfile, selector::invalidate);
+        lrcClient.useClock(clock);
+        if (cassetteSettings.isReplay()) {
+            lrcClient.replayFrom(LoadRunnerCloudCassette.load(cassetteSettings, logger));
+        }
+        else if (cassetteSettings.isRecord()) {
+            if (eventContext.getTrafficCaptureSettings().isEnabled()) {
+                logger.warn("cassette is recorded, traffic capture is disabled");
+            }
+            lrcClient.captureTraffic(LoadRunnerCloudTrafficCapture.recordCassette(cassetteSettings, logger));
+        }
+        else if (eventContext.getTrafficCaptureSettings().isEnabled()) {
+            lrcClient.captureTraffic(new LoadRunnerCloudTrafficCapture(eventContext.getTrafficCaptureSettings(), logger));
+        }
+        if (eventContext.isTracingEnabled()) {
+            SpanExporter exporter = SpanExporter.load(Paths.get(eventContext.getTracingFile()));
+            lrcClient.trace(new LoadRunnerCloudTracer(exporter, testContext.getTestRunId(), Duration.ofSeconds(1), logger));
+        }
+        return lrcClient;
+    }
 
-            while (continuePolling) {
+    private void preflight(String user, String password, String tenantId, String projectId, String loadTestId, PhaseTimer phases) {
+        LoadRunnerCloudPreflight preflight = new LoadRunnerCloudPreflight(client.get(), logger,
+            eventContext.getNetworkProfile(), eventContext.getPreflightMaxDuration());
+        LoadRunnerCloudPreflight.Report report = phases.time("Preflight", () -> preflight.run(user, password, tenantId, projectId, loadTestId));
+        if (!report.isOk()) {
+            throw new LoadRunnerCloudClientException("LoadRunner Cloud " + report);
+        }
+    }
 
-                // now start polling if load test is running, then send Go! message
-                try {
-                    List<TestRunActive> testRunActives = client.get().testRunsActive(projectId);
+    private void reconcileOrphanedRuns(String tenantId, PhaseTimer phases) {
+        LoadRunnerCloudRunJournal journal = new LoadRunnerCloudRunJournal(Paths.get(eventContext.getRunJournalFile()), logger);
+        runJournal = journal;
+        try {
+            List<Integer> stopped = phases.time("Reconcile", () -> journal.reconcile(client.get(), tenantId));
+            if (!stopped.isEmpty()) {
+                logger.warn("stopped orphaned LoadRunner Cloud runs " + stopped);
+            }
+        } catch (LoadRunnerCloudClientException e) {
+            // orphans are tried again at the next start, no reason to fail this test
+            logger.warn("Cannot reconcile orphaned runs: " + e.getMessage());
+        }
+    }
 
-                    Optional<TestRunActive> testRunActive = testRunActives.stream()
-                        .filter(t -> t.getRunId() == this.runId)
-                        .findFirst();
+    /**
+     * The run is ended by its owner, it is no orphan when this jvm is gone.
+     */
+    private void forgetRun() {
+        LoadRunnerCloudRunJournal journal = runJournal;
+        if (journal != null) {
+            // under the lock that beforeTest adds the run with
+            synchronized (pollerLock) {
+                if (runId > 0) {
+                    journal.remove(runId);
+                }
+            }
+        }
+    }
 
-                    if (testRunActive.isPresent()) {
-                        TestRunActive testRun = testRunActive.get();
-                        logger.info(String.format("Status for test id %s (%s) is now: %s", testRun.getTestId(), testRun.getTestName(), testRun.getStatus()));
-                        if (testRun.getStatus() == TestRunActive.Status.RUNNING) {
-                            continuePolling = false;
-                        }
-                    }
-                    } catch (LoadRunnerCloudClientException e) {
-                        logger.warn("Cannot call test runs active, will retry: " + e.getMessage());
-                    }
+    private void upload(String tenantId, String projectId, String loadTestId, PhaseTimer phases) {
+        UploadSettings settings = eventContext.getUploadSettings();
+        List<LoadRunnerCloudUploader.Upload> uploads = new ArrayList<>();
+        uploads.addAll(LoadRunnerCloudUploader.parse(LoadRunnerCloudUploader.Kind.SCRIPT, settings.getScriptUploads()));
+        uploads.addAll(LoadRunnerCloudUploader.parse(LoadRunnerCloudUploader.Kind.FILE, settings.getFileUploads()));
+        LoadRunnerCloudUploader uploader = new LoadRunnerCloudUploader(client.get(), logger, Paths.get(settings.getManifestFile()));
+        LoadRunnerCloudUploader.Report report = phases.time("Upload",
+            () -> uploader.upload(tenantId, projectId, uploads, client.get().scriptsForTestRun(projectId, loadTestId)));
+        if (!report.isOk()) {
+            throw new LoadRunnerCloudClientException("LoadRunner Cloud upload failed, " + report);
+        }
+    }
 
-                try {
-                    Thread.sleep(sleepInMillis);
-                } catch (InterruptedException e) {
-                    logger.warn("Interrupt received, will stop polling now.");
-                    continuePolling = false;
-                    EventMessage stopMessage = EventMessage.builder()
-                        .pluginName(pluginName())
-                        .message("Stop!")
-                        .build();
-                    eventMessageBus.send(stopMessage);
-                    Thread.currentThread().interrupt();
-                }
+    private Map<String, String> planLocations(String projectId, String loadTestId, PhaseTimer phases) {
+        LocationPlanSettings settings = eventContext.getLocationPlanSettings();
+        Map<String, Integer> capacities = LoadRunnerCloudLocationPlanner.parseCapacities(settings.getCapacities());
+        LoadRunnerCloudLocationPlanner planner = new LoadRunnerCloudLocationPlanner(client.get(), logger, projectId, loadTestId);
+        LoadRunnerCloudLocationPlanner.Plan plan = phases.time("LocationPlan",
+            () -> planner.apply(targetVusers(settings, projectId, loadTestId), capacities));
+
+        Map<String, String> variables = new HashMap<>();
+        for (LoadRunnerCloudLocationPlanner.Allocation allocation : plan.allocations) {
+            String prefix = PERFANA_LRC_PREFIX + "location-" + allocation.location.getLocation() + "-";
+            variables.put(prefix + "Percent", String.valueOf(allocation.percent));
+            variables.put(prefix + "Vusers", String.valueOf(allocation.expectedVusers));
+        }
+        return variables;
+    }
 
-                if (System.currentTimeMillis() > maxPollingTimestamp) {
-                    logger.warn("Max polling period reached (" + eventContext.getPollingMaxDuration() + " seconds), will stop polling now.");
-                    continuePolling = false;
-                    EventMessage stopMessage = EventMessage.builder()
-                        .pluginName(pluginName())
-                        .message("Stop!")
-                        .build();
-                    eventMessageBus.send(stopMessage);
-                }
+    private int targetVusers(LocationPlanSettings settings, String projectId, String loadTestId) {
+        if (settings.getTargetVusers() > 0) {
+            return settings.getTargetVusers();
+        }
+        if (eventContext.getCapacitySearchSettings().isEnabled()) {
+            return eventContext.getCapacitySearchSettings().getMaxVusers();
+        }
+        try (Stream<ScriptConfig> scripts = client.get()
+                .scriptsForTestRunPaged(projectId, loadTestId, LoadRunnerCloudClient.SCRIPTS_PAGE_SIZE).stream()) {
+            return scripts
+                .filter(script -> !Boolean.FALSE.equals(script.getIsActive()))
+                .mapToInt(ScriptConfig::getVusersNum)
+                .sum();
+        }
+    }
+
+    private void handlePollingOutcome(LoadRunnerCloudRunPoller.Outcome outcome, String projectId, int runId, PhaseTimer phases) {
+        if (outcome != LoadRunnerCloudRunPoller.Outcome.RUNNING) {
+            sendStopMessage();
+        }
+        else {
+            if (eventContext.isWatchdogEnabled()) {
+                startWatchdog(projectId, runId);
+            }
+            if (eventContext.getEarlyAbortThresholds().isEnabled()) {
+                startEarlyAbortGuard(runId);
+            }
+            if (eventContext.isTransactionSummaryEnabled()) {
+                startTransactionCollector(runId);
+            }
+        }
+
+        logger.info("before test phases: " + phases.summary());
+
+        EventMessage goMessage = EventMessage.builder()
+            .pluginName(pluginName())
+            .message("Go!")
+            .variables(phases.variables(PERFANA_LRC_PREFIX + "phase"))
+            .variable(PERFANA_LRC_PREFIX + "phaseTotalMillis", String.valueOf(phases.totalMillis()))
+            .build();
+
+        eventMessageBus.send(goMessage);
+    }
+
+    private void handleRunStateTransition(RunStateTransition transition) {
+        logger.info(String.format("run [%d] state %s -> %s after %d ms in %s",
+            transition.getRunId(), transition.getFrom(), transition.getTo(), transition.getFromDuration().toMillis(), transition.getFrom()));
+
+        EventMessage message = EventMessage.builder()
+            .pluginName(pluginName())
+            .message("LoadRunner Cloud run state " + transition.getFrom() + " -> " + transition.getTo())
+            .variable(PERFANA_LRC_PREFIX + "runState", transition.getTo().name())
+            .variable(PERFANA_LRC_PREFIX + "state" + transition.getTo().camelCase() + "At", transition.getTimestamp().toString())
+            .variable(PERFANA_LRC_PREFIX + "state" + transition.getFrom().camelCase() + "Millis", String.valueOf(transition.getFromDuration().toMillis()))
+            .variable(PERFANA_LRC_PREFIX + "runStateElapsedMillis", String.valueOf(transition.getElapsed().toMillis()))
+            .build();
+        eventMessageBus.send(message);
+
+        for (RunStateListener listener : RunStateListener.Registry.LISTENERS) {
+            try {
+                listener.onTransition(transition);
+            } catch (RuntimeException e) {
+                logger.warn("Run state listener failed: " + e.getMessage());
             }
+        }
+    }
 
-            EventMessage goMessage = EventMessage.builder()
-                .pluginName(pluginName())
-                .message("Go!")
-                .build();
+    private void sendStopMessage() {
+        EventMessage stopMessage = EventMessage.builder()
+            .pluginName(pluginName())
+            .message("Stop!")
+            .build();
+        eventMessageBus.send(stopMessage);
+    }
 
-            eventMessageBus.send(goMessage);
-        };
+    private void startWatchdog(String projectId, int runId) {
+        Duration plannedDuration = testContext.getRampupTime().plus(testContext.getConstantLoadTime());
+        Duration period = LoadRunnerCloudRunWatchdog.watchdogPeriod(plannedDuration,
+            eventContext.getPollingPeriod(), eventContext.getWatchdogMaxPeriod());
 
-        Executor executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "LrcPollForTestRunning"));
-        executor.execute(pollForTestRunning);
+        synchronized (pollerLock) {
+            LoadRunnerCloudRunHandle handle = runHandle.get();
+            if (client.get() == null || (handle != null && handle.isAbortRequested())) {
+                return;
+            }
+            LoadRunnerCloudRunWatchdog runWatchdog = new LoadRunnerCloudRunWatchdog(client.get(), logger, projectId, runId, period, plannedDuration,
+                runStateTracker.get(), handle);
+            watchdog.set(runWatchdog);
+            runWatchdog.start(unexpectedState -> sendStopMessage());
+        }
+    }
 
-        logger.info(String.format("started run with projectId: %s loadTestId: %s at %s with runId: %s. Waiting for status RUNNING.",
-            projectId, loadTestId, Instant.now(), myRunId.getRunId()));
+    private void startEarlyAbortGuard(int runId) {
+        synchronized (pollerLock) {
+            LoadRunnerCloudRunHandle handle = runHandle.get();
+            if (client.get() == null || handle == null || handle.isAbortRequested()) {
+                return;
+            }
+            LoadRunnerCloudEarlyAbortGuard guard = new LoadRunnerCloudEarlyAbortGuard(client.get(), logger, runId, eventContext.getEarlyAbortThresholds(), handle);
+            earlyAbortGuard.set(guard);
+            guard.start(reason -> {
+                handle.markStopSent();
+                sendStopMessage();
+            });
+        }
+    }
+
+    private void startTransactionCollector(int runId) {
+        synchronized (pollerLock) {
+            LoadRunnerCloudRunHandle handle = runHandle.get();
+            if (client.get() == null || handle == null || handle.isAbortRequested()) {
+                return;
+            }
+            LoadRunnerCloudTransactionCollector collector = new LoadRunnerCloudTransactionCollector(client.get(), logger, runId,
+                eventContext.getTransactionSummarySamplePeriod());
+            transactionCollector.set(collector);
+            collector.start();
+        }
+    }
+
+    /**
+     * @return the results of the run, null when there is no run
+     */
+    private LoadRunnerCloudTransactionCollector.Summary collectResults() {
+        LoadRunnerCloudClient lrcClient = client.get();
+        LoadRunnerCloudTransactionCollector collector = transactionCollector.getAndSet(null);
+        if (lrcClient == null || runId <= 0) {
+            if (collector != null) collector.close();
+            return null;
+        }
+        if (collector == null) {
+            // the run was not seen RUNNING or no summary: only the final results
+            collector = new LoadRunnerCloudTransactionCollector(lrcClient, logger, runId, eventContext.getTransactionSummarySamplePeriod());
+        }
+
+        // the final results are fetched in parallel, wait at most one results call, or the short check deadline
+        Duration maxDuration = Duration.ofMillis(eventContext.getNetworkProfile().socketTimeoutMillis(NetworkProfile.Endpoint.RESULTS));
+        ResultCheckSettings checkSettings = eventContext.getResultCheckSettings();
+        if (checkSettings.isEnabled() && checkSettings.getMaxDuration().compareTo(maxDuration) < 0) {
+            maxDuration = checkSettings.getMaxDuration();
+        }
+        // opt-in: a stopped run can take a while to get its final status, only worth waiting for to check it
+        Duration runEndMaxDuration = checkSettings.isEnabled() ? eventContext.getRunEndMaxDuration() : Duration.ZERO;
+        return collector.collect(maxDuration, runEndMaxDuration, eventContext.getPollingPeriod());
+    }
+
+    private void sendTransactionSummary(LoadRunnerCloudTransactionCollector.Summary summary) {
+        StringBuilder text = new StringBuilder("LoadRunner Cloud transaction summary of run [" + summary.runId + "] " + summary.runStatus);
+        EventMessage.EventMessageBuilder message = EventMessage.builder().pluginName(pluginName());
+        for (LoadRunnerCloudTransactionCollector.TransactionSummary transaction : summary.transactions) {
+            text.append('\n').append(transaction);
+            addTransactionVariables(message, "tx-" + transaction.name + "-", transaction);
+        }
+        text.append('\n').append(summary.total);
+        addTransactionVariables(message, "tx", summary.total);
+        message.variable(PERFANA_LRC_PREFIX + "runStatus", summary.runStatus);
+
+        logger.info(text.toString());
+        eventMessageBus.send(message.message(text.toString()).build());
+    }
+
+    private void compareWithBaseline(LoadRunnerCloudTransactionCollector.Summary summary) {
+        BaselineSettings settings = eventContext.getBaselineSettings();
+        String tenantId = eventContext.getLoadRunnerTenantId();
+        String projectId = eventContext.getLoadRunnerProjectId();
+        String loadTestId = eventContext.getLoadRunnerLoadTestId();
+
+        if (!LoadRunnerCloudResultCheck.isEnded(summary.runStatus)) {
+            logger.info("run [" + summary.runId + "] with status " + summary.runStatus + " has not ended, no baseline comparison");
+            return;
+        }
+        LoadRunnerCloudBaselineStore.RunStats current = LoadRunnerCloudBaselineStore.stats(summary, clock.currentTimeMillis());
+        if (current.getTotal().getPassed() + current.getTotal().getFailed() == 0) {
+            logger.info("no transaction results in run [" + summary.runId + "], no baseline comparison");
+            return;
+        }
+        LoadRunnerCloudBaselineStore store = new LoadRunnerCloudBaselineStore(Paths.get(settings.getDirectory()), settings.getMaxRuns(), logger);
+        List<LoadRunnerCloudBaselineStore.RunStats> baseline = store.load(tenantId, projectId, loadTestId);
+
+        if (baseline.isEmpty()) {
+            logger.info("no baseline yet for load test " + loadTestId + ", run [" + summary.runId + "] starts the baseline");
+        }
+        else {
+            LoadRunnerCloudBaselineComparison comparison = LoadRunnerCloudBaselineComparison.compare(current, baseline, settings);
+            StringBuilder text = new StringBuilder("LoadRunner Cloud run [" + summary.runId + "] compared with baseline of "
+                + comparison.baselineRuns + " runs, regressions: " + comparison.regressions().size());
+            EventMessage.EventMessageBuilder message = EventMessage.builder().pluginName(pluginName());
+            for (LoadRunnerCloudBaselineComparison.Delta delta : comparison.transactions) {
+                text.append('\n').append(delta);
+                addBaselineVariables(message, "baseline-" + delta.name + "-", delta);
+            }
+            text.append('\n').append(comparison.total);
+            addBaselineVariables(message, "baseline", comparison.total);
+            message.variable(PERFANA_LRC_PREFIX + "baselineRuns", String.valueOf(comparison.baselineRuns));
+            message.variable(PERFANA_LRC_PREFIX + "baselineRegressions", String.valueOf(comparison.regressions().size()));
+
+            logger.info(text.toString());
+            eventMessageBus.send(message.message(text.toString()).build());
+        }
+
+        if (LoadRunnerCloudResultCheck.hasUsableResults(summary.runStatus)) {
+            store.add(tenantId, projectId, loadTestId, current);
+        }
+        else {
+            logger.info("run [" + summary.runId + "] with status " + summary.runStatus + " is not added to the baseline");
+        }
+    }
+
+    private static void addBaselineVariables(EventMessage.EventMessageBuilder message, String prefix,
+                                             LoadRunnerCloudBaselineComparison.Delta delta) {
+        String name = PERFANA_LRC_PREFIX + prefix;
+        addChangeVariable(message, name + "ThroughputChangePercentage", delta.throughputChangePercentage);
+        addChangeVariable(message, name + "AvgChangePercentage", delta.avgChangePercentage);
+        addChangeVariable(message, name + "PercentileChangePercentage", delta.percentileChangePercentage);
+        addChangeVariable(message, name + "ErrorPercentageChange", delta.errorPercentageChange);
+        message.variable(name + "Regression", String.valueOf(delta.isRegression()));
+    }
+
+    private static void addChangeVariable(EventMessage.EventMessageBuilder message, String name, double change) {
+        if (!Double.isNaN(change)) {
+            message.variable(name, String.format(Locale.US, "%.2f", change));
+        }
+    }
+
+    private static void addTransactionVariables(EventMessage.EventMessageBuilder message, String prefix,
+                                                LoadRunnerCloudTransactionCollector.TransactionSummary transaction) {
+        String name = PERFANA_LRC_PREFIX + prefix;
+        message.variable(name + "Passed", String.valueOf(transaction.passed));
+        message.variable(name + "Failed", String.valueOf(transaction.failed));
+        message.variable(name + "ErrorPercentage", String.format(Locale.US, "%.2f", transaction.errorPercentage()));
+        message.variable(name + "AvgMillis", String.valueOf(Math.round(transaction.avgMillis)));
+        addMillisVariable(message, name + "PercentileMillis", transaction.percentileMillis);
+        addMillisVariable(message, name + "IntervalAvgP50Millis", transaction.intervalAvgP50Millis);
+        addMillisVariable(message, name + "IntervalAvgP90Millis", transaction.intervalAvgP90Millis);
+        addMillisVariable(message, name + "IntervalAvgP99Millis", transaction.intervalAvgP99Millis);
+    }
+
+    private static void addMillisVariable(EventMessage.EventMessageBuilder message, String name, double millis) {
+        if (!Double.isNaN(millis)) {
+            message.variable(name, String.valueOf(Math.round(millis)));
+        }
+    }
+
+    private void startCapacitySearch(String tenantId, String projectId, String loadTestId) {
+        synchronized (pollerLock) {
+            // the capacity search stops its own step runs
+            LoadRunnerCloudRunHandle handle = runHandle.getAndSet(null);
+            if (handle != null && handle.isAbortRequested()) {
+                logger.info("abort requested before capacity search started.");
+                return;
+            }
+            LoadRunnerCloudCapacitySearch search = new LoadRunnerCloudCapacitySearch(client.get(), logger, projectId, loadTestId,
+                eventContext.getCapacitySearchSettings(), eventContext.getPollingPeriod(),
+                eventContext.getPollingMaxDuration(), eventContext.getStopConfirmMaxDuration());
+            capacitySearch.set(search);
+
+            AtomicBoolean goSent = new AtomicBoolean(false);
+            search.start(
+                stepRunId -> {
+                    this.runId = stepRunId;
+                    EventMessage.EventMessageBuilder message = EventMessage.builder()
+                        .pluginName(pluginName())
+                        .variable(PERFANA_LRC_PREFIX + "tenantId", tenantId)
+                        .variable(PERFANA_LRC_PREFIX + "projectId", projectId)
+                        .variable(PERFANA_LRC_PREFIX + "runId", String.valueOf(stepRunId));
+                    if (!goSent.getAndSet(true)) {
+                        message.message("Go!");
+                    }
+                    eventMessageBus.send(message.build());
+                },
+                best -> {
+                    if (best != null) {
+                        EventMessage resultMessage = EventMessage.builder()
+                            .pluginName(pluginName())
+                            .variable(PERFANA_LRC_PREFIX + "capacityMaxThroughputPerSecond", String.format(Locale.US, "%.2f", best.throughputPerSecond))
+                            .variable(PERFANA_LRC_PREFIX + "capacityVusers", String.valueOf(best.vusers))
+                            .variable(PERFANA_LRC_PREFIX + "capacityAvgResponseTimeMillis", String.format(Locale.US, "%.0f", best.avgResponseTimeMillis))
+                            .variable(PERFANA_LRC_PREFIX + "capacityRunId", String.valueOf(best.runId))
+                            .build();
+                        eventMessageBus.send(resultMessage);
+                    }
+                    else {
+                        logger.warn("Capacity search did not find a sustainable throughput.");
+                    }
+                    sendStopMessage();
+                    if (!goSent.get()) {
+                        // release the scheduler that is still waiting for Go!
+                        eventMessageBus.send(EventMessage.builder().pluginName(pluginName()).message("Go!").build());
+                    }
+                });
+        }
     }
 
-    private void sendTracingHeader(String projectId, String loadTestId) {
+    private void sendTracingHeader(String projectId, String loadTestId, PhaseTimer phases) {
         String testRunId = testContext.getTestRunId();
         logger.info("send tracing header '" + TRACING_HEADER_NAME + ": " + testRunId + "'");
 
@@ -162,8 +599,10 @@ public class LoadRunnerCloudEvent extends EventAdapter<LoadRunnerCloudEventConte
             .description("Use in web_add_header(\"perfana-test-run-id\", lr_get_attrib_string(\"" + TRACING_HEADER_NAME + "\"))").build();
 
         List<RuntimeAdditionalAttribute> attributes = Collections.singletonList(attribute);
-        if (client.get() != null) {
-            client.get().addAdditionalRuntimeSettingsAttributesForAllScriptsOfTest(projectId, loadTestId, attributes);
+        LoadRunnerCloudClient lrcClient = client.get();
+        if (lrcClient != null) {
+            List<ScriptConfig> scriptConfigs = phases.time("ScriptListing", () -> lrcClient.scriptsForTestRun(projectId, loadTestId));
+            phases.time("RtsUpdate", () -> lrcClient.addAdditionalRuntimeSettingsAttributesForScripts(projectId, loadTestId, scriptConfigs, attributes));
         } else {
             logger.warn("Cannot add additional runtime settings attributes for all scripts of test, LoadRunnerCloudClient is null");
         }
@@ -173,14 +612,109 @@ public class LoadRunnerCloudEvent extends EventAdapter<LoadRunnerCloudEventConte
         return PLUGIN_NAME + "-" + eventContext.getName();
     }
 
+    @Override
+    public void afterTest() {
+        logger.info("after test [" + testContext.getTestRunId() + "] with runId [" + this.runId + "]");
+        boolean checkEnabled = eventContext.getResultCheckSettings().isEnabled();
+        try {
+            boolean baselineEnabled = eventContext.getBaselineSettings().isEnabled();
+            if (eventContext.isTransactionSummaryEnabled() || checkEnabled || baselineEnabled) {
+                LoadRunnerCloudTransactionCollector.Summary summary = collectResults();
+                if (summary == null) {
+                    resultCheck.set(LoadRunnerCloudResultCheck.unknown("no LoadRunner Cloud run to check"));
+                }
+                else {
+                    if (eventContext.isTransactionSummaryEnabled()) {
+                        sendTransactionSummary(summary);
+                    }
+                    if (checkEnabled) {
+                        LoadRunnerCloudResultCheck result = LoadRunnerCloudResultCheck.check(summary, eventContext.getResultCheckSettings());
+                        logger.info("result check: " + result);
+                        resultCheck.set(result);
+                    }
+                    if (baselineEnabled) {
+                        compareWithBaseline(summary);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Cannot collect results: " + e.getMessage());
+            resultCheck.set(LoadRunnerCloudResultCheck.unknown("cannot collect LoadRunner Cloud results: " + e.getMessage()));
+        } finally {
+            forgetRun();
+            releaseResources();
+        }
+    }
+
+    @Override
+    public EventCheck check() {
+        if (!eventContext.getResultCheckSettings().isEnabled()) {
+            return super.check();
+        }
+        LoadRunnerCloudResultCheck result = resultCheck.get();
+        if (result == null) {
+            result = LoadRunnerCloudResultCheck.unknown("no LoadRunner Cloud results, after test was not called");
+        }
+        return new EventCheck(eventContext.getName(), getClass().getSimpleName(), result.status, result.message);
+    }
+
     @Override
     public void abortTest() {
         logger.info("abort test [" + testContext.getTestRunId() + "] with runId [" + this.runId + "]");
-        if (client.get() != null) {
-            client.get().stopRun(runId);
-        } else {
-            logger.warn("Cannot call stop run, LoadRunnerCloudClient is null");
+
+        LoadRunnerCloudRunHandle handle = runHandle.get();
+        synchronized (pollerLock) {
+            if (handle != null) {
+                handle.requestAbort();
+            }
+            stopPolling();
+        }
+
+        try {
+            LoadRunnerCloudClient lrcClient = client.get();
+            if (lrcClient == null) {
+                logger.warn("Cannot call stop run, LoadRunnerCloudClient is null");
+            } else if (handle != null) {
+                handle.stopAndConfirm(lrcClient, logger, eventContext.getPollingPeriod(), eventContext.getStopConfirmMaxDuration());
+            }
+        } finally {
+            forgetRun();
+            releaseResources();
+        }
+    }
+
+    private void stopPolling() {
+        LoadRunnerCloudRunPoller runPoller = poller.getAndSet(null);
+        if (runPoller != null) {
+            runPoller.close();
+        }
+        LoadRunnerCloudRunWatchdog runWatchdog = watchdog.getAndSet(null);
+        if (runWatchdog != null) {
+            runWatchdog.close();
+        }
+        LoadRunnerCloudEarlyAbortGuard guard = earlyAbortGuard.getAndSet(null);
+        if (guard != null) {
+            guard.close();
+        }
+        LoadRunnerCloudCapacitySearch search = capacitySearch.getAndSet(null);
+        if (search != null) {
+            search.close();
+        }
+        LoadRunnerCloudTransactionCollector collector = transactionCollector.getAndSet(null);
+        if (collector != null) {
+            collector.close();
+        }
+    }
+
+    /**
+     * Stops polling and closes the client. Safe to call more than once.
+     */
+    private void releaseResources() {
+        stopPolling();
+        LoadRunnerCloudClient lrcClient = client.getAndSet(null);
+        if (lrcClient != null) {
+            lrcClient.close();
         }
     }
 
-}
\ No newline at end of file
+}
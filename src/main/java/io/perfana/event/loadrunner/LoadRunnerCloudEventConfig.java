@@ -21,16 +21,84 @@ import io.perfana.eventscheduler.api.config.EventContext;
 import java.time.Duration;
 
 public class LoadRunnerCloudEventConfig extends EventConfig {
+    static final String DEFAULT_LOADRUNNER_CLOUD_BASE_URL = "https://loadrunner-cloud.saas.microfocus.com/v1";
+
     private String loadRunnerUser;
     private String loadRunnerPassword;
     private String loadRunnerTenantId;
     private String loadRunnerProjectId;
     private String loadRunnerLoadTestId;
     private boolean loadRunnerUseTracingHeader = false;
+    private String loadRunnerBaseUrls = DEFAULT_LOADRUNNER_CLOUD_BASE_URL;
+    private int endpointSelectionCacheDurationInSeconds = 600;
+    private boolean statusBatchEnabled = false;
+    private int statusBatchMaxAgeInMillis = 5_000;
+    private boolean preflightEnabled = false;
+    private int preflightMaxDurationInSeconds = 30;
+    private boolean trafficCaptureEnabled = false;
+    private String trafficCaptureFile = "lrc-traffic.har.jsonl";
+    private int trafficCaptureMaxFileSizeInMb = 10;
+    private int trafficCaptureMaxFiles = 5;
+    private String cassetteMode = "off";
+    private boolean transactionSummaryEnabled = false;
+    private int transactionSummarySamplePeriodInSeconds = 30;
+    private String scriptUploads;
+    private String fileUploads;
+    private String uploadManifestFile = ".lrc-upload-manifest.properties";
+    private boolean locationPlanEnabled = false;
+    private int locationPlanTargetVusers = 0;
+    private String locationCapacities;
+    private boolean scheduleSyncEnabled = false;
+    private boolean resultCheckEnabled = false;
+    private int resultCheckMaxDurationInSeconds = 10;
+    private double resultCheckMaxErrorPercentage = 0;
+    private long resultCheckMaxPercentileInMillis = 0;
+    private boolean runJournalEnabled = false;
+    private String runJournalFile = ".lrc-run-journal.json";
+    private boolean baselineEnabled = false;
+    private String baselineDirectory = ".lrc-baselines";
+    private int baselineMaxRuns = 5;
+    private boolean tracingEnabled = false;
+    private String tracingFile = "lrc-spans.jsonl";
+    private double baselineMaxThroughputDecreasePercentage = 10;
+    private double baselineMaxAvgIncreasePercentage = 20;
+    private double baselineMaxPercentileIncreasePercentage = 30;
+    private double baselineMaxErrorPercentageIncrease = 1;
+    private String cassetteFile = "lrc-cassette.har.jsonl";
+    private int cassetteTimeCompression = 1;
     private int pollingPeriodInSeconds = 10;
     private int pollingMaxDurationInSeconds = 300;
+    private int stopConfirmMaxDurationInSeconds = 120;
+    private int runEndMaxDurationInSeconds = 0;
+    private boolean watchdogEnabled = false;
+    private int watchdogMaxPeriodInSeconds = 60;
+    private double earlyAbortMaxErrorPercentage = 0;
+    private int earlyAbortMaxFailedTransactionsPerMinute = 0;
+    private int earlyAbortMaxAvgResponseTimeMillis = 0;
+    private int earlyAbortSustainedDurationInSeconds = 60;
+    private int earlyAbortCheckPeriodInSeconds = 15;
+    private boolean capacitySearchEnabled = false;
+    private int capacitySearchStartVusers = 10;
+    private int capacitySearchStepVusers = 10;
+    private int capacitySearchMaxVusers = 100;
+    private int capacitySearchStepDurationInSeconds = 300;
+    private double capacitySearchMinThroughputGainPercentage = 5;
+    private double capacitySearchMaxResponseTimeIncreasePercentage = 100;
     private boolean useProxy = false;
+    private String proxyHost = "localhost";
     private int proxyPort = 8888;
+    private String proxyUser;
+    private String proxyPassword;
+    private int connectionRequestTimeoutInMillis = 1_000;
+    private int connectTimeoutInMillis = 4_000;
+    private int socketTimeoutInMillis = 10_000;
+    private int authSocketTimeoutInMillis = 0;
+    private int runControlSocketTimeoutInMillis = 30_000;
+    private int statusSocketTimeoutInMillis = 0;
+    private int scriptsSocketTimeoutInMillis = 0;
+    private int resultsSocketTimeoutInMillis = 30_000;
+    private boolean compressionEnabled = true;
+    private int maxConnectionsPerRoute = 10;
 
     public void setLoadRunnerUser(String loadRunnerUser) {
         this.loadRunnerUser = loadRunnerUser;
@@ -52,6 +120,154 @@ public class LoadRunnerCloudEventConfig extends EventConfig {
         this.loadRunnerLoadTestId = loadRunnerLoadTestId;
     }
 
+    public void setLoadRunnerBaseUrls(String loadRunnerBaseUrls) {
+        this.loadRunnerBaseUrls = loadRunnerBaseUrls;
+    }
+
+    public void setEndpointSelectionCacheDurationInSeconds(int endpointSelectionCacheDurationInSeconds) {
+        this.endpointSelectionCacheDurationInSeconds = endpointSelectionCacheDurationInSeconds;
+    }
+
+    public void setStatusBatchEnabled(boolean statusBatchEnabled) {
+        this.statusBatchEnabled = statusBatchEnabled;
+    }
+
+    public void setStatusBatchMaxAgeInMillis(int statusBatchMaxAgeInMillis) {
+        this.statusBatchMaxAgeInMillis = statusBatchMaxAgeInMillis;
+    }
+
+    public void setPreflightEnabled(boolean preflightEnabled) {
+        this.preflightEnabled = preflightEnabled;
+    }
+
+    public void setPreflightMaxDurationInSeconds(int preflightMaxDurationInSeconds) {
+        this.preflightMaxDurationInSeconds = preflightMaxDurationInSeconds;
+    }
+
+    public void setTrafficCaptureEnabled(boolean trafficCaptureEnabled) {
+        this.trafficCaptureEnabled = trafficCaptureEnabled;
+    }
+
+    public void setTrafficCaptureFile(String trafficCaptureFile) {
+        this.trafficCaptureFile = trafficCaptureFile;
+    }
+
+    public void setTrafficCaptureMaxFileSizeInMb(int trafficCaptureMaxFileSizeInMb) {
+        this.trafficCaptureMaxFileSizeInMb = trafficCaptureMaxFileSizeInMb;
+    }
+
+    public void setTrafficCaptureMaxFiles(int trafficCaptureMaxFiles) {
+        this.trafficCaptureMaxFiles = trafficCaptureMaxFiles;
+    }
+
+    public void setCassetteMode(String cassetteMode) {
+        this.cassetteMode = cassetteMode;
+    }
+
+    public void setCassetteFile(String cassetteFile) {
+        this.cassetteFile = cassetteFile;
+    }
+
+    public void setCassetteTimeCompression(int cassetteTimeCompression) {
+        this.cassetteTimeCompression = cassetteTimeCompression;
+    }
+
+    public void setTransactionSummaryEnabled(boolean transactionSummaryEnabled) {
+        this.transactionSummaryEnabled = transactionSummaryEnabled;
+    }
+
+    public void setTransactionSummarySamplePeriodInSeconds(int transactionSummarySamplePeriodInSeconds) {
+        this.transactionSummarySamplePeriodInSeconds = transactionSummarySamplePeriodInSeconds;
+    }
+
+    public void setScriptUploads(String scriptUploads) {
+        this.scriptUploads = scriptUploads;
+    }
+
+    public void setFileUploads(String fileUploads) {
+        this.fileUploads = fileUploads;
+    }
+
+    public void setUploadManifestFile(String uploadManifestFile) {
+        this.uploadManifestFile = uploadManifestFile;
+    }
+
+    public void setLocationPlanEnabled(boolean locationPlanEnabled) {
+        this.locationPlanEnabled = locationPlanEnabled;
+    }
+
+    public void setLocationPlanTargetVusers(int locationPlanTargetVusers) {
+        this.locationPlanTargetVusers = locationPlanTargetVusers;
+    }
+
+    public void setLocationCapacities(String locationCapacities) {
+        this.locationCapacities = locationCapacities;
+    }
+
+    public void setScheduleSyncEnabled(boolean scheduleSyncEnabled) {
+        this.scheduleSyncEnabled = scheduleSyncEnabled;
+    }
+
+    public void setResultCheckEnabled(boolean resultCheckEnabled) {
+        this.resultCheckEnabled = resultCheckEnabled;
+    }
+
+    public void setResultCheckMaxDurationInSeconds(int resultCheckMaxDurationInSeconds) {
+        this.resultCheckMaxDurationInSeconds = resultCheckMaxDurationInSeconds;
+    }
+
+    public void setResultCheckMaxErrorPercentage(double resultCheckMaxErrorPercentage) {
+        this.resultCheckMaxErrorPercentage = resultCheckMaxErrorPercentage;
+    }
+
+    public void setResultCheckMaxPercentileInMillis(long resultCheckMaxPercentileInMillis) {
+        this.resultCheckMaxPercentileInMillis = resultCheckMaxPercentileInMillis;
+    }
+
+    public void setRunJournalEnabled(boolean runJournalEnabled) {
+        this.runJournalEnabled = runJournalEnabled;
+    }
+
+    public void setRunJournalFile(String runJournalFile) {
+        this.runJournalFile = runJournalFile;
+    }
+
+    public void setTracingEnabled(boolean tracingEnabled) {
+        this.tracingEnabled = tracingEnabled;
+    }
+
+    public void setTracingFile(String tracingFile) {
+        this.tracingFile = tracingFile;
+    }
+
+    public void setBaselineEnabled(boolean baselineEnabled) {
+        this.baselineEnabled = baselineEnabled;
+    }
+
+    public void setBaselineDirectory(String baselineDirectory) {
+        this.baselineDirectory = baselineDirectory;
+    }
+
+    public void setBaselineMaxRuns(int baselineMaxRuns) {
+        this.baselineMaxRuns = baselineMaxRuns;
+    }
+
+    public void setBaselineMaxThroughputDecreasePercentage(double baselineMaxThroughputDecreasePercentage) {
+        this.baselineMaxThroughputDecreasePercentage = baselineMaxThroughputDecreasePercentage;
+    }
+
+    public void setBaselineMaxAvgIncreasePercentage(double baselineMaxAvgIncreasePercentage) {
+        this.baselineMaxAvgIncreasePercentage = baselineMaxAvgIncreasePercentage;
+    }
+
+    public void setBaselineMaxPercentileIncreasePercentage(double baselineMaxPercentileIncreasePercentage) {
+        this.baselineMaxPercentileIncreasePercentage = baselineMaxPercentileIncreasePercentage;
+    }
+
+    public void setBaselineMaxErrorPercentageIncrease(double baselineMaxErrorPercentageIncrease) {
+        this.baselineMaxErrorPercentageIncrease = baselineMaxErrorPercentageIncrease;
+    }
+
     public void setUseProxy(boolean useProxy) {
         this.useProxy = useProxy;
     }
@@ -64,6 +280,70 @@ public class LoadRunnerCloudEventConfig extends EventConfig {
         this.pollingMaxDurationInSeconds = pollingMaxDurationInSeconds;
     }
 
+    public void setStopConfirmMaxDurationInSeconds(int stopConfirmMaxDurationInSeconds) {
+        this.stopConfirmMaxDurationInSeconds = stopConfirmMaxDurationInSeconds;
+    }
+
+    public void setRunEndMaxDurationInSeconds(int runEndMaxDurationInSeconds) {
+        this.runEndMaxDurationInSeconds = runEndMaxDurationInSeconds;
+    }
+
+    public void setWatchdogEnabled(boolean watchdogEnabled) {
+        this.watchdogEnabled = watchdogEnabled;
+    }
+
+    public void setWatchdogMaxPeriodInSeconds(int watchdogMaxPeriodInSeconds) {
+        this.watchdogMaxPeriodInSeconds = watchdogMaxPeriodInSeconds;
+    }
+
+    public void setEarlyAbortMaxErrorPercentage(double earlyAbortMaxErrorPercentage) {
+        this.earlyAbortMaxErrorPercentage = earlyAbortMaxErrorPercentage;
+    }
+
+    public void setEarlyAbortMaxFailedTransactionsPerMinute(int earlyAbortMaxFailedTransactionsPerMinute) {
+        this.earlyAbortMaxFailedTransactionsPerMinute = earlyAbortMaxFailedTransactionsPerMinute;
+    }
+
+    public void setEarlyAbortMaxAvgResponseTimeMillis(int earlyAbortMaxAvgResponseTimeMillis) {
+        this.earlyAbortMaxAvgResponseTimeMillis = earlyAbortMaxAvgResponseTimeMillis;
+    }
+
+    public void setEarlyAbortSustainedDurationInSeconds(int earlyAbortSustainedDurationInSeconds) {
+        this.earlyAbortSustainedDurationInSeconds = earlyAbortSustainedDurationInSeconds;
+    }
+
+    public void setEarlyAbortCheckPeriodInSeconds(int earlyAbortCheckPeriodInSeconds) {
+        this.earlyAbortCheckPeriodInSeconds = earlyAbortCheckPeriodInSeconds;
+    }
+
+    public void setCapacitySearchEnabled(boolean capacitySearchEnabled) {
+        this.capacitySearchEnabled = capacitySearchEnabled;
+    }
+
+    public void setCapacitySearchStartVusers(int capacitySearchStartVusers) {
+        this.capacitySearchStartVusers = capacitySearchStartVusers;
+    }
+
+    public void setCapacitySearchStepVusers(int capacitySearchStepVusers) {
+        this.capacitySearchStepVusers = capacitySearchStepVusers;
+    }
+
+    public void setCapacitySearchMaxVusers(int capacitySearchMaxVusers) {
+        this.capacitySearchMaxVusers = capacitySearchMaxVusers;
+    }
+
+    public void setCapacitySearchStepDurationInSeconds(int capacitySearchStepDurationInSeconds) {
+        this.capacitySearchStepDurationInSeconds = capacitySearchStepDurationInSeconds;
+    }
+
+    public void setCapacitySearchMinThroughputGainPercentage(double capacitySearchMinThroughputGainPercentage) {
+        this.capacitySearchMinThroughputGainPercentage = capacitySearchMinThroughputGainPercentage;
+    }
+
+    public void setCapacitySearchMaxResponseTimeIncreasePercentage(double capacitySearchMaxResponseTimeIncreasePercentage) {
+        this.capacitySearchMaxResponseTimeIncreasePercentage = capacitySearchMaxResponseTimeIncreasePercentage;
+    }
+
     public void setLoadRunnerUseTracingHeader(boolean loadRunnerUseTracingHeader) {
         this.loadRunnerUseTracingHeader = loadRunnerUseTracingHeader;
     }
@@ -72,9 +352,128 @@ public class LoadRunnerCloudEventConfig extends EventConfig {
         this.proxyPort = proxyPort;
     }
 
+    public void setProxyHost(String proxyHost) {
+        this.proxyHost = proxyHost;
+    }
+
+    public void setProxyUser(String proxyUser) {
+        this.proxyUser = proxyUser;
+    }
+
+    public void setProxyPassword(String proxyPassword) {
+        this.proxyPassword = proxyPassword;
+    }
+
+    public void setConnectionRequestTimeoutInMillis(int connectionRequestTimeoutInMillis) {
+        this.connectionRequestTimeoutInMillis = connectionRequestTimeoutInMillis;
+    }
+
+    public void setConnectTimeoutInMillis(int connectTimeoutInMillis) {
+        this.connectTimeoutInMillis = connectTimeoutInMillis;
+    }
+
+    public void setSocketTimeoutInMillis(int socketTimeoutInMillis) {
+        this.socketTimeoutInMillis = socketTimeoutInMillis;
+    }
+
+    public void setAuthSocketTimeoutInMillis(int authSocketTimeoutInMillis) {
+        this.authSocketTimeoutInMillis = authSocketTimeoutInMillis;
+    }
+
+    public void setRunControlSocketTimeoutInMillis(int runControlSocketTimeoutInMillis) {
+        this.runControlSocketTimeoutInMillis = runControlSocketTimeoutInMillis;
+    }
+
+    public void setStatusSocketTimeoutInMillis(int statusSocketTimeoutInMillis) {
+        this.statusSocketTimeoutInMillis = statusSocketTimeoutInMillis;
+    }
+
+    public void setScriptsSocketTimeoutInMillis(int scriptsSocketTimeoutInMillis) {
+        this.scriptsSocketTimeoutInMillis = scriptsSocketTimeoutInMillis;
+    }
+
+    public void setResultsSocketTimeoutInMillis(int resultsSocketTimeoutInMillis) {
+        this.resultsSocketTimeoutInMillis = resultsSocketTimeoutInMillis;
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
     private LoadRunnerCloudEventContext createLoadRunnerCloudEventContext(EventContext context) {
-        Duration pollingPeriod = Duration.ofSeconds(this.pollingPeriodInSeconds);
-        Duration pollingMaxDuration = Duration.ofSeconds(this.pollingMaxDurationInSeconds);
+        CassetteSettings cassetteSettings = new CassetteSettings(
+            CassetteSettings.Mode.parse(cassetteMode),
+            cassetteFile,
+            cassetteTimeCompression);
+        // a replay polls as often as the recorded run, only faster
+        int compression = cassetteSettings.isReplay() ? cassetteSettings.getTimeCompression() : 1;
+        Duration pollingPeriod = compress(Duration.ofSeconds(this.pollingPeriodInSeconds), compression);
+        Duration pollingMaxDuration = compress(Duration.ofSeconds(this.pollingMaxDurationInSeconds), compression);
+        Duration stopConfirmMaxDuration = compress(Duration.ofSeconds(this.stopConfirmMaxDurationInSeconds), compression);
+        Duration runEndMaxDuration = compress(Duration.ofSeconds(this.runEndMaxDurationInSeconds), compression);
+        Duration watchdogMaxPeriod = compress(Duration.ofSeconds(this.watchdogMaxPeriodInSeconds), compression);
+        // in a replay a minute passes compression times faster, so do the failed transactions
+        EarlyAbortThresholds earlyAbortThresholds = new EarlyAbortThresholds(
+            earlyAbortMaxErrorPercentage,
+            earlyAbortMaxFailedTransactionsPerMinute * compression,
+            earlyAbortMaxAvgResponseTimeMillis,
+            compress(Duration.ofSeconds(earlyAbortSustainedDurationInSeconds), compression),
+            compress(Duration.ofSeconds(earlyAbortCheckPeriodInSeconds), compression));
+        CapacitySearchSettings capacitySearchSettings = new CapacitySearchSettings(
+            capacitySearchEnabled,
+            capacitySearchStartVusers,
+            capacitySearchStepVusers,
+            capacitySearchMaxVusers,
+            Duration.ofSeconds(capacitySearchStepDurationInSeconds),
+            capacitySearchMinThroughputGainPercentage,
+            capacitySearchMaxResponseTimeIncreasePercentage);
+        TrafficCaptureSettings trafficCaptureSettings = new TrafficCaptureSettings(
+            trafficCaptureEnabled,
+            trafficCaptureFile,
+            trafficCaptureMaxFileSizeInMb * 1024L * 1024L,
+            trafficCaptureMaxFiles);
+        UploadSettings uploadSettings = new UploadSettings(
+            scriptUploads,
+            fileUploads,
+            uploadManifestFile);
+        LocationPlanSettings locationPlanSettings = new LocationPlanSettings(
+            locationPlanEnabled,
+            locationPlanTargetVusers,
+            locationCapacities);
+        ResultCheckSettings resultCheckSettings = new ResultCheckSettings(
+            resultCheckEnabled,
+            Duration.ofSeconds(resultCheckMaxDurationInSeconds),
+            resultCheckMaxErrorPercentage,
+            resultCheckMaxPercentileInMillis);
+        BaselineSettings baselineSettings = new BaselineSettings(
+            baselineEnabled,
+            baselineDirectory,
+            baselineMaxRuns,
+            baselineMaxThroughputDecreasePercentage,
+            baselineMaxAvgIncreasePercentage,
+            baselineMaxPercentileIncreasePercentage,
+            baselineMaxErrorPercentageIncrease);
+        NetworkProfile networkProfile = NetworkProfile.builder()
+            .useProxy(useProxy)
+            .proxyHost(proxyHost)
+            .proxyPort(proxyPort)
+            .proxyUser(proxyUser)
+            .proxyPassword(proxyPassword)
+            .connectionRequestTimeoutMillis(connectionRequestTimeoutInMillis)
+            .connectTimeoutMillis(connectTimeoutInMillis)
+            .socketTimeoutMillis(socketTimeoutInMillis)
+            .authSocketTimeoutMillis(authSocketTimeoutInMillis)
+            .runControlSocketTimeoutMillis(runControlSocketTimeoutInMillis)
+            .statusSocketTimeoutMillis(statusSocketTimeoutInMillis)
+            .scriptsSocketTimeoutMillis(scriptsSocketTimeoutInMillis)
+            .resultsSocketTimeoutMillis(resultsSocketTimeoutInMillis)
+            .compressionEnabled(compressionEnabled)
+            .maxConnectionsPerRoute(maxConnectionsPerRoute)
+            .build();
         return new LoadRunnerCloudEventContext(context,
             loadRunnerUser,
             loadRunnerPassword,
@@ -84,8 +483,36 @@ public class LoadRunnerCloudEventConfig extends EventConfig {
             loadRunnerUseTracingHeader,
             pollingPeriod,
             pollingMaxDuration,
-            useProxy,
-            proxyPort);
+            stopConfirmMaxDuration,
+            runEndMaxDuration,
+            watchdogEnabled,
+            watchdogMaxPeriod,
+            earlyAbortThresholds,
+            capacitySearchSettings,
+            networkProfile,
+            LoadRunnerCloudEndpointSelector.parseBaseUrls(loadRunnerBaseUrls),
+            Duration.ofSeconds(endpointSelectionCacheDurationInSeconds),
+            statusBatchEnabled,
+            Duration.ofMillis(statusBatchMaxAgeInMillis),
+            preflightEnabled,
+            Duration.ofSeconds(preflightMaxDurationInSeconds),
+            trafficCaptureSettings,
+            cassetteSettings,
+            transactionSummaryEnabled,
+            compress(Duration.ofSeconds(transactionSummarySamplePeriodInSeconds), compression),
+            uploadSettings,
+            locationPlanSettings,
+            scheduleSyncEnabled,
+            resultCheckSettings,
+            baselineSettings,
+            runJournalEnabled,
+            runJournalFile,
+            tracingEnabled,
+            tracingFile);
+    }
+
+    private static Duration compress(Duration duration, int compression) {
+        return compression <= 1 ? duration : Duration.ofMillis(Math.max(1, duration.toMillis() / compression));
     }
 
     @Override
@@ -18,6 +18,7 @@ package io.perfana.event.loadrunner;
 import io.perfana.eventscheduler.api.config.EventContext;
 
 import java.time.Duration;
+import java.util.List;
 
 public class LoadRunnerCloudEventContext extends EventContext {
     private final String loadRunnerUser;
@@ -28,8 +29,32 @@ public class LoadRunnerCloudEventContext extends EventContext {
     private final boolean loadRunnerUseTracingHeader;
     private final Duration pollingPeriod;
     private final Duration pollingMaxDuration;
-    private final boolean useProxy;
-    private final int proxyPort;
+    private final Duration stopConfirmMaxDuration;
+    private final Duration runEndMaxDuration;
+    private final boolean watchdogEnabled;
+    private final Duration watchdogMaxPeriod;
+    private final EarlyAbortThresholds earlyAbortThresholds;
+    private final CapacitySearchSettings capacitySearchSettings;
+    private final NetworkProfile networkProfile;
+    private final List<String> loadRunnerBaseUrls;
+    private final Duration endpointSelectionCacheDuration;
+    private final boolean statusBatchEnabled;
+    private final Duration statusBatchMaxAge;
+    private final boolean preflightEnabled;
+    private final Duration preflightMaxDuration;
+    private final TrafficCaptureSettings trafficCaptureSettings;
+    private final CassetteSettings cassetteSettings;
+    private final boolean transactionSummaryEnabled;
+    private final Duration transactionSummarySamplePeriod;
+    private final UploadSettings uploadSettings;
+    private final LocationPlanSettings locationPlanSettings;
+    private final boolean scheduleSyncEnabled;
+    private final ResultCheckSettings resultCheckSettings;
+    private final BaselineSettings baselineSettings;
+    private final boolean runJournalEnabled;
+    private final String runJournalFile;
+    private final boolean tracingEnabled;
+    private final String tracingFile;
 
     LoadRunnerCloudEventContext(
         EventContext context,
@@ -41,8 +66,32 @@ public class LoadRunnerCloudEventContext extends EventContext {
         boolean loadRunnerUseTracingHeader,
         Duration pollingPeriod,
         Duration pollingMaxDuration,
-        boolean useProxy,
-        int proxyPort) {
+        Duration stopConfirmMaxDuration,
+        Duration runEndMaxDuration,
+        boolean watchdogEnabled,
+        Duration watchdogMaxPeriod,
+        EarlyAbortThresholds earlyAbortThresholds,
+        CapacitySearchSettings capacitySearchSettings,
+        NetworkProfile networkProfile,
+        List<String> loadRunnerBaseUrls,
+        Duration endpointSelectionCacheDuration,
+        boolean statusBatchEnabled,
+        Duration statusBatchMaxAge,
+        boolean preflightEnabled,
+        Duration preflightMaxDuration,
+        TrafficCaptureSettings trafficCaptureSettings,
+        CassetteSettings cassetteSettings,
+        boolean transactionSummaryEnabled,
+        Duration transactionSummarySamplePeriod,
+        UploadSettings uploadSettings,
+        LocationPlanSettings locationPlanSettings,
+        boolean scheduleSyncEnabled,
+        ResultCheckSettings resultCheckSettings,
+        BaselineSettings baselineSettings,
+        boolean runJournalEnabled,
+        String runJournalFile,
+        boolean tracingEnabled,
+        String tracingFile) {
             super(context, LoadRunnerCloudEventFactory.class.getName());
             this.loadRunnerUser = loadRunnerUser;
             this.loadRunnerPassword = loadRunnerPassword;
@@ -52,8 +101,32 @@ public class LoadRunnerCloudEventContext extends EventContext {
             this.loadRunnerUseTracingHeader = loadRunnerUseTracingHeader;
             this.pollingPeriod = pollingPeriod;
             this.pollingMaxDuration = pollingMaxDuration;
-            this.useProxy = useProxy;
-            this.proxyPort = proxyPort;
+            this.stopConfirmMaxDuration = stopConfirmMaxDuration;
+            this.runEndMaxDuration = runEndMaxDuration;
+            this.watchdogEnabled = watchdogEnabled;
+            this.watchdogMaxPeriod = watchdogMaxPeriod;
+            this.earlyAbortThresholds = earlyAbortThresholds;
+            this.capacitySearchSettings = capacitySearchSettings;
+            this.networkProfile = networkProfile;
+            this.loadRunnerBaseUrls = loadRunnerBaseUrls;
+            this.endpointSelectionCacheDuration = endpointSelectionCacheDuration;
+            this.statusBatchEnabled = statusBatchEnabled;
+            this.statusBatchMaxAge = statusBatchMaxAge;
+            this.preflightEnabled = preflightEnabled;
+            this.preflightMaxDuration = preflightMaxDuration;
+            this.trafficCaptureSettings = trafficCaptureSettings;
+            this.cassetteSettings = cassetteSettings;
+            this.transactionSummaryEnabled = transactionSummaryEnabled;
+            this.transactionSummarySamplePeriod = transactionSummarySamplePeriod;
+            this.uploadSettings = uploadSettings;
+            this.locationPlanSettings = locationPlanSettings;
+            this.scheduleSyncEnabled = scheduleSyncEnabled;
+            this.resultCheckSettings = resultCheckSettings;
+            this.baselineSettings = baselineSettings;
+            this.runJournalEnabled = runJournalEnabled;
+            this.runJournalFile = runJournalFile;
+            this.tracingEnabled = tracingEnabled;
+            this.tracingFile = tracingFile;
     }
 
     public String getLoadRunnerUser() {
@@ -84,12 +157,116 @@ public class LoadRunnerCloudEventContext extends EventContext {
         return pollingMaxDuration;
     }
 
+    public Duration getStopConfirmMaxDuration() {
+        return stopConfirmMaxDuration;
+    }
+
+    public Duration getRunEndMaxDuration() {
+        return runEndMaxDuration;
+    }
+
+    public boolean isWatchdogEnabled() {
+        return watchdogEnabled;
+    }
+
+    public Duration getWatchdogMaxPeriod() {
+        return watchdogMaxPeriod;
+    }
+
+    public EarlyAbortThresholds getEarlyAbortThresholds() {
+        return earlyAbortThresholds;
+    }
+
+    public CapacitySearchSettings getCapacitySearchSettings() {
+        return capacitySearchSettings;
+    }
+
     public boolean isUseProxy() {
-        return useProxy;
+        return networkProfile.isUseProxy();
     }
 
     public int getProxyPort() {
-        return proxyPort;
+        return networkProfile.getProxyPort();
+    }
+
+    public NetworkProfile getNetworkProfile() {
+        return networkProfile;
+    }
+
+    public List<String> getLoadRunnerBaseUrls() {
+        return loadRunnerBaseUrls;
+    }
+
+    public Duration getEndpointSelectionCacheDuration() {
+        return endpointSelectionCacheDuration;
+    }
+
+    public boolean isStatusBatchEnabled() {
+        return statusBatchEnabled;
+    }
+
+    public Duration getStatusBatchMaxAge() {
+        return statusBatchMaxAge;
+    }
+
+    public boolean isPreflightEnabled() {
+        return preflightEnabled;
+    }
+
+    public Duration getPreflightMaxDuration() {
+        return preflightMaxDuration;
+    }
+
+    public TrafficCaptureSettings getTrafficCaptureSettings() {
+        return trafficCaptureSettings;
+    }
+
+    public CassetteSettings getCassetteSettings() {
+        return cassetteSettings;
+    }
+
+    public boolean isTransactionSummaryEnabled() {
+        return transactionSummaryEnabled;
+    }
+
+    public Duration getTransactionSummarySamplePeriod() {
+        return transactionSummarySamplePeriod;
+    }
+
+    public UploadSettings getUploadSettings() {
+        return uploadSettings;
+    }
+
+    public LocationPlanSettings getLocationPlanSettings() {
+        return locationPlanSettings;
+    }
+
+    public boolean isScheduleSyncEnabled() {
+        return scheduleSyncEnabled;
+    }
+
+    public ResultCheckSettings getResultCheckSettings() {
+        return resultCheckSettings;
+    }
+
+    public BaselineSettings getBaselineSettings() {
+        return baselineSettings;
+    }
+
+    public boolean isRunJournalEnabled() {
+        return runJournalEnabled;
+    }
+
+    public String getRunJournalFile() {
+        return runJournalFile;
+    }
+
+    public boolean isTracingEnabled() {
+        return tracingEnabled;
+    }
+
+    public String getTracingFile() {
+        return tracingFile;
     }
 
     public boolean isLoadRunnerUseTracingHeader() {
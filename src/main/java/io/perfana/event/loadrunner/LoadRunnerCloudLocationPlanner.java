@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.LoadTestLocation;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Distributes the vusers of a load test over its load generator locations, so no location
+ * gets more vusers than it can handle.
+ *
+ * Each location gets a share in proportion to its capacity, so all locations run at about
+ * the same utilization. Locations without a configured capacity get no vusers. LoadRunner Cloud
+ * takes whole percentages, the rounding never puts a location over its capacity.
+ */
+class LoadRunnerCloudLocationPlanner {
+
+    private final LoadRunnerCloudClient client;
+    private final EventLogger logger;
+    private final String projectId;
+    private final String loadTestId;
+
+    /**
+     * Planned share of one location.
+     */
+    static class Allocation {
+        final LoadTestLocation location;
+        final int percent;
+        final int expectedVusers;
+        final int capacity;
+
+        Allocation(LoadTestLocation location, int percent, int expectedVusers, int capacity) {
+            this.location = location;
+            this.percent = percent;
+            this.expectedVusers = expectedVusers;
+            this.capacity = capacity;
+        }
+
+        double utilizationPercentage() {
+            return capacity == 0 ? 0 : expectedVusers * 100.0 / capacity;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d%% = %d/%d vusers (%.0f%%)",
+                location.getLocation(), percent, expectedVusers, capacity, utilizationPercentage());
+        }
+    }
+
+    /**
+     * Planned shares of all locations.
+     */
+    static class Plan {
+        final int targetVusers;
+        final List<Allocation> allocations;
+
+        Plan(int targetVusers, List<Allocation> allocations) {
+            this.targetVusers = targetVusers;
+            this.allocations = allocations;
+        }
+
+        @Override
+        public String toString() {
+            return "location plan for " + targetVusers + " vusers: " + allocations;
+        }
+    }
+
+    LoadRunnerCloudLocationPlanner(LoadRunnerCloudClient client, EventLogger logger, String projectId, String loadTestId) {
+        this.client = client;
+        this.logger = logger;
+        this.projectId = projectId;
+        this.loadTestId = loadTestId;
+    }
+
+    /**
+     * Parse a comma separated list of location=vusers, for instance "US East=500,EU West=1000".
+     */
+    static Map<String, Integer> parseCapacities(String capacities) {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        if (capacities == null) {
+            return result;
+        }
+        for (String capacity : capacities.split(",")) {
+            if (capacity.trim().isEmpty()) {
+                continue;
+            }
+            int separator = capacity.lastIndexOf('=');
+            try {
+                result.put(normalize(capacity.substring(0, separator)), Integer.parseInt(capacity.substring(separator + 1).trim()));
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                throw new LoadRunnerCloudClientException("invalid location capacity '" + capacity + "', use location=vusers");
+            }
+        }
+        return result;
+    }
+
+    private static String normalize(String location) {
+        return location == null ? "" : location.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Fetch the locations of the load test, plan the distribution and update the locations that change.
+     */
+    Plan apply(int targetVusers, Map<String, Integer> capacities) {
+        List<LoadTestLocation> locations = client.loadTestLocations(projectId, loadTestId);
+        List<String> known = locations.stream().map(l -> normalize(l.getLocation())).collect(Collectors.toList());
+        capacities.keySet().stream()
+            .filter(name -> !known.contains(name))
+            .forEach(name -> logger.warn("location '" + name + "' is not a location of load test " + loadTestId + ", it is ignored"));
+
+        Plan plan = plan(locations, targetVusers, capacities);
+        for (Allocation allocation : plan.allocations) {
+            if (allocation.percent != allocation.location.getVusersPercent()) {
+                client.updateLoadTestLocation(projectId, loadTestId, allocation.location.toBuilder().vusersPercent(allocation.percent).build());
+            }
+        }
+        logger.info("LoadRunner Cloud " + plan);
+        return plan;
+    }
+
+    static Plan plan(List<LoadTestLocation> locations, int targetVusers, Map<String, Integer> capacities) {
+        if (targetVusers <= 0) {
+            throw new LoadRunnerCloudClientException("no vusers to distribute over the locations");
+        }
+        int count = locations.size();
+        int[] capacity = new int[count];
+        long totalCapacity = 0;
+        for (int i = 0; i < count; i++) {
+            capacity[i] = Math.max(0, capacities.getOrDefault(normalize(locations.get(i).getLocation()), 0));
+            totalCapacity += capacity[i];
+        }
+        if (totalCapacity < targetVusers) {
+            throw new LoadRunnerCloudClientException("target of " + targetVusers + " vusers exceeds the total location capacity of " + totalCapacity);
+        }
+
+        int[] percent = new int[count];
+        int[] maxPercent = new int[count];
+        double[] remainders = new double[count];
+        int assigned = 0;
+        for (int i = 0; i < count; i++) {
+            maxPercent[i] = (int) Math.min(100, capacity[i] * 100L / targetVusers);
+            double share = 100.0 * capacity[i] / totalCapacity;
+            percent[i] = Math.min((int) share, maxPercent[i]);
+            remainders[i] = share - percent[i];
+            assigned += percent[i];
+        }
+        // largest remainder first, never above the capacity of a location
+        for (int left = 100 - assigned; left > 0; left--) {
+            int max = -1;
+            for (int i = 0; i < count; i++) {
+                if (percent[i] < maxPercent[i] && (max == -1 || remainders[i] > remainders[max])) max = i;
+            }
+            if (max == -1) {
+                throw new LoadRunnerCloudClientException("cannot distribute " + targetVusers + " vusers in whole percentages within the location capacities " + capacities);
+            }
+            percent[max]++;
+            remainders[max] -= 1;
+        }
+
+        List<Allocation> allocations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int expectedVusers = (int) Math.round(targetVusers * percent[i] / 100.0);
+            allocations.add(new Allocation(locations.get(i), percent[i], expectedVusers, capacity[i]));
+        }
+        return new Plan(targetVusers, Collections.unmodifiableList(allocations));
+    }
+}
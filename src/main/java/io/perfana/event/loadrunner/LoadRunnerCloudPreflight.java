@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.LoadTest;
+import io.perfana.event.loadrunner.api.Project;
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks the configuration before a run is started: proxy, credentials, project, load test and scripts.
+ *
+ * The checks run concurrently, only the checks that need the api key wait for the authentication.
+ * All results are collected in one report, so all mistakes show at once. A check without a result
+ * within the max duration fails, so a slow or blocked check can not hang the start of the test.
+ */
+class LoadRunnerCloudPreflight {
+
+    private final LoadRunnerCloudClient client;
+    private final EventLogger logger;
+    private final NetworkProfile networkProfile;
+    private final Duration maxDuration;
+    private final Executor executor;
+
+    /**
+     * Result of one check.
+     */
+    static class Check {
+        final String name;
+        final boolean ok;
+        final String message;
+        final long millis;
+
+        Check(String name, boolean ok, String message, long millis) {
+            this.name = name;
+            this.ok = ok;
+            this.message = message;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + (ok ? "ok" : "FAILED") + " (" + message + ", " + millis + " ms)";
+        }
+    }
+
+    /**
+     * Results of all checks.
+     */
+    static class Report {
+        final List<Check> checks;
+        final long millis;
+
+        Report(List<Check> checks, long millis) {
+            this.checks = Collections.unmodifiableList(checks);
+            this.millis = millis;
+        }
+
+        boolean isOk() {
+            return checks.stream().allMatch(c -> c.ok);
+        }
+
+        List<Check> failures() {
+            return checks.stream().filter(c -> !c.ok).collect(Collectors.toList());
+        }
+
+        @Override
+        public String toString() {
+            return (isOk() ? "preflight ok" : "preflight FAILED") + " in " + millis + " ms: "
+                + checks.stream().map(Check::toString).collect(Collectors.joining("; "));
+        }
+    }
+
+    LoadRunnerCloudPreflight(LoadRunnerCloudClient client, EventLogger logger, NetworkProfile networkProfile, Duration maxDuration) {
+        this(client, logger, networkProfile, maxDuration, LoadRunnerCloudThreads.fanOutExecutor());
+    }
+
+    LoadRunnerCloudPreflight(LoadRunnerCloudClient client, EventLogger logger, NetworkProfile networkProfile, Duration maxDuration, Executor executor) {
+        this.client = client;
+        this.logger = logger;
+        this.networkProfile = networkProfile;
+        this.maxDuration = maxDuration;
+        this.executor = executor;
+    }
+
+    /**
+     * Run all checks. On success the client has its api key.
+     */
+    Report run(String user, String password, String tenantId, String projectId, String loadTestId) {
+        long start = System.nanoTime();
+
+        Map<String, CompletableFuture<Check>> checks = new LinkedHashMap<>();
+        if (networkProfile.isUseProxy()) {
+            checks.put("proxy", check("proxy", this::checkProxy));
+        }
+
+        CompletableFuture<Check> authentication = check("authentication", () -> {
+            client.initApiKey(user, password, tenantId);
+            return "tenant " + tenantId + " as " + user;
+        });
+        checks.put("authentication", authentication);
+
+        checks.put("project", afterAuthentication(authentication, "project", () -> {
+            Project project = client.project(projectId);
+            return "project " + projectId + " is '" + project.getName() + "'";
+        }));
+        checks.put("load test", afterAuthentication(authentication, "load test", () -> {
+            LoadTest loadTest = client.loadTest(projectId, loadTestId);
+            return "load test " + loadTestId + " is '" + loadTest.getName() + "'";
+        }));
+        checks.put("scripts", afterAuthentication(authentication, "scripts", () -> {
+            // the pages are read on the thread of this check: no nested work on the executor of the checks
+            long count;
+            try (Stream<ScriptConfig> scripts = client.scriptsForTestRunPaged(
+                    projectId, loadTestId, LoadRunnerCloudClient.SCRIPTS_PAGE_SIZE, Runnable::run).stream()) {
+                count = scripts.count();
+            }
+            if (count == 0) {
+                throw new LoadRunnerCloudClientException("load test " + loadTestId + " has no scripts");
+            }
+            return count + (count == 1 ? " script" : " scripts");
+        }));
+
+        long deadline = System.nanoTime() + maxDuration.toNanos();
+        List<Check> results = new ArrayList<>();
+        checks.forEach((name, check) -> results.add(await(check, name, deadline)));
+
+        Report report = new Report(results, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        logger.info(report.toString());
+        return report;
+    }
+
+    private CompletableFuture<Check> afterAuthentication(CompletableFuture<Check> authentication, String name, Supplier<String> action) {
+        return authentication.thenApplyAsync(auth -> auth.ok
+            ? runCheck(name, action)
+            : new Check(name, false, "skipped, authentication failed", 0), executor);
+    }
+
+    private CompletableFuture<Check> check(String name, Supplier<String> action) {
+        return CompletableFuture.supplyAsync(() -> runCheck(name, action), executor);
+    }
+
+    private static Check runCheck(String name, Supplier<String> action) {
+        long start = System.nanoTime();
+        try {
+            String message = action.get();
+            return new Check(name, true, message, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            return new Check(name, false, e.getMessage(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private Check await(CompletableFuture<Check> check, String name, long deadline) {
+        try {
+            return check.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            check.cancel(true);
+            return new Check(name, false, "no result within " + maxDuration, maxDuration.toMillis());
+        } catch (ExecutionException e) {
+            return new Check(name, false, String.valueOf(e.getCause()), 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Check(name, false, "interrupted", 0);
+        }
+    }
+
+    private String checkProxy() {
+        String proxy = networkProfile.getProxyHost() + ":" + networkProfile.getProxyPort();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(networkProfile.getProxyHost(), networkProfile.getProxyPort()),
+                networkProfile.getConnectTimeoutMillis());
+            return "proxy " + proxy + " is reachable";
+        } catch (IOException e) {
+            throw new LoadRunnerCloudClientException("proxy " + proxy + " is not reachable: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.eventscheduler.api.EventStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns the SLA status and the transaction results of a run into a check result.
+ *
+ * LoadRunner Cloud ends a run with status PASSED when no SLA is broken and FAILED when an SLA is broken.
+ * A run that ended in error fails the check as well. Other statuses, for instance a run that is
+ * still running or stopping, are not final: then the results are not final either and the check is unknown.
+ */
+final class LoadRunnerCloudResultCheck {
+
+    static final String STATUS_PASSED = "PASSED";
+    static final List<String> FAILED_STATUSES = Arrays.asList("FAILED", "HALTED", "ABORTED", "SYSTEM_ERROR");
+    static final List<String> ENDED_STATUSES = Arrays.asList(STATUS_PASSED, "FAILED", "HALTED", "ABORTED", "SYSTEM_ERROR");
+
+    final EventStatus status;
+    final String message;
+
+    private LoadRunnerCloudResultCheck(EventStatus status, String message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    /**
+     * @return true when the run has a final status
+     */
+    static boolean isEnded(String runStatus) {
+        return runStatus != null && ENDED_STATUSES.contains(runStatus.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @return true only when the run ended with an SLA verdict, PASSED or FAILED: not for a run that
+     * has not ended, for instance a running or stopped run, or a run that ended in error
+     */
+    static boolean hasUsableResults(String runStatus) {
+        if (runStatus == null) {
+            return false;
+        }
+        String status = runStatus.toUpperCase(Locale.ROOT);
+        return STATUS_PASSED.equals(status) || "FAILED".equals(status);
+    }
+
+    static LoadRunnerCloudResultCheck unknown(String message) {
+        return new LoadRunnerCloudResultCheck(EventStatus.UNKNOWN, message);
+    }
+
+    static LoadRunnerCloudResultCheck check(LoadRunnerCloudTransactionCollector.Summary summary, ResultCheckSettings settings) {
+        List<String> failures = new ArrayList<>();
+        List<String> passes = new ArrayList<>();
+
+        String runStatus = summary.runStatus == null ? "unknown" : summary.runStatus.toUpperCase(Locale.ROOT);
+        String prefix = "LoadRunner Cloud run [" + summary.runId + "] " + runStatus + ": ";
+        if (!isEnded(runStatus)) {
+            return unknown(prefix + "run has not ended, results are not final");
+        }
+
+        if (STATUS_PASSED.equals(runStatus)) {
+            passes.add("SLA passed");
+        }
+        else {
+            failures.add("run status " + runStatus + ("FAILED".equals(runStatus) ? " (SLA broken)" : ""));
+        }
+
+        // without transaction results there is nothing to compare
+        boolean hasResults = summary.total.passed + summary.total.failed > 0;
+        if (settings.getMaxErrorPercentage() > 0 && hasResults) {
+            String text = String.format(Locale.US, "errors %.2f%% (max %.2f%%)", summary.total.errorPercentage(), settings.getMaxErrorPercentage());
+            (summary.total.errorPercentage() > settings.getMaxErrorPercentage() ? failures : passes).add(text);
+        }
+        // the percentile LoadRunner Cloud reports, not a value estimated from the interval averages
+        List<String> unchecked = new ArrayList<>();
+        if (settings.getMaxPercentileMillis() > 0 && hasResults) {
+            double percentileMillis = summary.total.percentileMillis;
+            if (Double.isNaN(percentileMillis)) {
+                unchecked.add("percentile not reported (max " + settings.getMaxPercentileMillis() + " ms)");
+            }
+            else {
+                String text = String.format(Locale.US, "percentile %.0f ms (max %d ms)", percentileMillis, settings.getMaxPercentileMillis());
+                (percentileMillis > settings.getMaxPercentileMillis() ? failures : passes).add(text);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            return new LoadRunnerCloudResultCheck(EventStatus.FAILURE, prefix + String.join(", ", failures));
+        }
+        if (!unchecked.isEmpty()) {
+            passes.addAll(unchecked);
+            return unknown(prefix + String.join(", ", passes));
+        }
+        return new LoadRunnerCloudResultCheck(EventStatus.SUCCESS, prefix + String.join(", ", passes));
+    }
+
+    @Override
+    public String toString() {
+        return status + " " + message;
+    }
+}
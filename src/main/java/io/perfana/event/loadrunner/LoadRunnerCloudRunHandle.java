@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle to a LoadRunner Cloud run that can be aborted at any moment, also while
+ * the run is still being started. The stop is then deferred until the runId is known.
+ */
+class LoadRunnerCloudRunHandle {
+
+    private final String projectId;
+    private final CompletableFuture<Integer> runIdFuture = new CompletableFuture<>();
+
+    private volatile boolean abortRequested = false;
+    private volatile boolean stopSent = false;
+    private volatile boolean stopExpected = false;
+    private volatile LoadRunnerCloudRunStateTracker runStateTracker;
+
+    LoadRunnerCloudRunHandle(String projectId) {
+        this.projectId = projectId;
+    }
+
+    void started(int runId) {
+        runIdFuture.complete(runId);
+    }
+
+    /**
+     * Report the observed statuses while waiting for the stop to the tracker.
+     */
+    void trackRunState(LoadRunnerCloudRunStateTracker runStateTracker) {
+        this.runStateTracker = runStateTracker;
+    }
+
+    void startFailed(Throwable cause) {
+        runIdFuture.completeExceptionally(cause);
+    }
+
+    void requestAbort() {
+        abortRequested = true;
+    }
+
+    boolean isAbortRequested() {
+        return abortRequested;
+    }
+
+    /**
+     * Mark that the run is about to be stopped on purpose, e.g. by the early abort guard,
+     * so the end of the run is not reported as unexpected.
+     */
+    void expectStop() {
+        stopExpected = true;
+    }
+
+    /**
+     * @return true when the run is stopped on purpose: abort requested, stop expected or stop sent
+     */
+    boolean isStopExpected() {
+        return stopExpected || abortRequested || stopSent;
+    }
+
+    /**
+     * Mark that the run is already stopped by another party, e.g. the early abort guard.
+     */
+    void markStopSent() {
+        stopSent = true;
+    }
+
+    /**
+     * Stops the run as soon as the runId is known and waits until the run is no longer active.
+     *
+     * @param client the client to call LoadRunner Cloud with
+     * @param logger the logger
+     * @param pollingPeriod time between checks if the run is still active
+     * @param deadline max time to wait for the runId and the stop confirmation
+     * @return true when the run is confirmed stopped, or was never started
+     */
+    boolean stopAndConfirm(LoadRunnerCloudClient client, EventLogger logger, Duration pollingPeriod, Duration deadline) {
+        LoadRunnerCloudClock clock = client.clock();
+        long deadlineTimestamp = clock.currentTimeMillis() + deadline.toMillis();
+
+        int runId;
+        try {
+            runId = runIdFuture.get(deadline.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            logger.info("Run was not started, nothing to stop: " + e.getCause().getMessage());
+            return true;
+        } catch (TimeoutException e) {
+            logger.warn("RunId not known within " + deadline + ", cannot stop run.");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupt received while waiting for runId, cannot stop run.");
+            return false;
+        }
+
+        if (!stopSent) {
+            try {
+                client.stopRun(runId);
+                stopSent = true;
+            } catch (LoadRunnerCloudClientException e) {
+                logger.warn("Cannot stop run [" + runId + "]: " + e.getMessage());
+                return false;
+            }
+        }
+
+        while (clock.currentTimeMillis() < deadlineTimestamp) {
+            try {
+                Optional<TestRunActive> testRun = client.testRunsActive(projectId).stream()
+                    .filter(t -> t.getRunId() == runId)
+                    .findFirst();
+                LoadRunnerCloudRunStateTracker tracker = runStateTracker;
+                if (tracker != null) {
+                    tracker.observe(testRun.orElse(null), clock.instant());
+                }
+                if (!testRun.isPresent()) {
+                    logger.info("Run [" + runId + "] is stopped.");
+                    return true;
+                }
+                logger.info("Run [" + runId + "] has status " + testRun.get().getStatus() + ", waiting for stop.");
+            } catch (LoadRunnerCloudClientException e) {
+                logger.warn("Cannot call test runs active, will retry: " + e.getMessage());
+            }
+
+            long remainingMillis = deadlineTimestamp - clock.currentTimeMillis();
+            try {
+                clock.sleep(Math.max(0, Math.min(pollingPeriod.toMillis(), remainingMillis)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupt received while waiting for stop of run [" + runId + "].");
+                return false;
+            }
+        }
+
+        logger.warn("Stop of run [" + runId + "] not confirmed within " + deadline + ".");
+        return false;
+    }
+}
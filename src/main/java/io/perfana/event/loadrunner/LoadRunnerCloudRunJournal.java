@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.eventscheduler.api.EventLogger;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Durable journal of started runs, so runs of a jvm that was killed can be stopped at the next start.
+ *
+ * Each change rewrites the journal in a temporary file that is synced to disk and then atomically
+ * moved over the journal. A lock file serializes the changes of jvms that share the journal, a lock
+ * per path the changes of journals in the same jvm.
+ * A run is orphaned when its owner, the jvm that started it on this host, is no longer alive.
+ */
+class LoadRunnerCloudRunJournal {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** a file lock is held by the whole jvm, threads of the jvm are serialized per lock file */
+    private static final ConcurrentMap<Path, Object> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final EventLogger logger;
+
+    @Value
+    @Builder(toBuilder = true)
+    @NoArgsConstructor(force = true, access = AccessLevel.PRIVATE)
+    @AllArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class Entry {
+        int runId;
+        String tenantId;
+        String projectId;
+        String host;
+        long pid;
+        /** start of the owner process in epoch millis, guards against reuse of the pid */
+        long ownerStartTime;
+        long startedTimestamp;
+        String testRunId;
+    }
+
+    @Value
+    @NoArgsConstructor(force = true, access = AccessLevel.PRIVATE)
+    @AllArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class Entries {
+        List<Entry> runs;
+    }
+
+    LoadRunnerCloudRunJournal(Path file, EventLogger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * @return an entry for a run started by this jvm
+     */
+    static Entry ownEntry(int runId, String tenantId, String projectId, String testRunId, long now) {
+        ProcessHandle self = ProcessHandle.current();
+        return Entry.builder()
+            .runId(runId)
+            .tenantId(tenantId)
+            .projectId(projectId)
+            .host(localHost())
+            .pid(self.pid())
+            .ownerStartTime(self.info().startInstant().map(Instant::toEpochMilli).orElse(0L))
+            .startedTimestamp(now)
+            .testRunId(testRunId)
+            .build();
+    }
+
+    void add(Entry entry) {
+        update(entries -> {
+            List<Entry> result = entries.stream().filter(e -> e.getRunId() != entry.getRunId()).collect(Collectors.toList());
+            result.add(entry);
+            return result;
+        });
+    }
+
+    void remove(int runId) {
+        update(entries -> entries.stream().filter(e -> e.getRunId() != runId).collect(Collectors.toList()));
+    }
+
+    List<Entry> entries() {
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        try {
+            Entries entries = MAPPER.readValue(file.toFile(), Entries.class);
+            return entries.getRuns() == null ? Collections.emptyList() : entries.getRuns();
+        } catch (IOException e) {
+            logger.warn("cannot read run journal " + file + ": " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Stop the orphaned runs of the tenant that are still active, and drop them from the journal.
+     * Makes one active test runs call for all projects, and none when there are no orphans.
+     *
+     * @return the stopped run ids
+     */
+    List<Integer> reconcile(LoadRunnerCloudClient client, String tenantId) {
+        List<Entry> orphans = entries().stream()
+            .filter(e -> Objects.equals(tenantId, e.getTenantId()))
+            .filter(LoadRunnerCloudRunJournal::isOrphan)
+            .collect(Collectors.toList());
+        if (orphans.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Set<String> projectIds = orphans.stream().map(Entry::getProjectId).collect(Collectors.toCollection(TreeSet::new));
+        Set<Integer> active = client.testRunsActive(projectIds).stream()
+            .map(TestRunActive::getRunId)
+            .collect(Collectors.toSet());
+
+        List<Integer> stopped = new ArrayList<>();
+        List<Integer> done = new ArrayList<>();
+        for (Entry orphan : orphans) {
+            if (active.contains(orphan.getRunId())) {
+                logger.warn("stop orphaned run [" + orphan.getRunId() + "] of test run " + orphan.getTestRunId()
+                    + ", started at " + Instant.ofEpochMilli(orphan.getStartedTimestamp()) + " by pid " + orphan.getPid() + " that is gone");
+                try {
+                    client.stopRun(orphan.getRunId());
+                    stopped.add(orphan.getRunId());
+                } catch (LoadRunnerCloudClientException e) {
+                    // keep it in the journal, try again next time
+                    logger.warn("cannot stop orphaned run [" + orphan.getRunId() + "]: " + e.getMessage());
+                    continue;
+                }
+            }
+            done.add(orphan.getRunId());
+        }
+        update(entries -> entries.stream().filter(e -> !done.contains(e.getRunId())).collect(Collectors.toList()));
+        return stopped;
+    }
+
+    /**
+     * An entry of another host can not be checked, it is never an orphan here.
+     */
+    static boolean isOrphan(Entry entry) {
+        if (!localHost().equals(entry.getHost())) {
+            return false;
+        }
+        return ProcessHandle.of(entry.getPid())
+            .filter(ProcessHandle::isAlive)
+            .map(p -> entry.getOwnerStartTime() != 0 && p.info().startInstant()
+                .map(start -> start.toEpochMilli() != entry.getOwnerStartTime()).orElse(false))
+            .orElse(true);
+    }
+
+    private static String localHost() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    interface LockedAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Run the action while holding the lock file next to the file, for the threads of this jvm and for other jvms.
+     *
+     * Locking the same file twice in one jvm throws an OverlappingFileLockException, so the threads of this jvm
+     * first take a lock per path and only then the file lock.
+     */
+    // the file lock is only held for the duration of the try block, it is not referenced in it
+    @SuppressWarnings("try")
+    static void withFileLock(Path file, LockedAction action) throws IOException {
+        Path lockFile = file.toAbsolutePath().normalize().resolveSibling(file.getFileName() + ".lock");
+        synchronized (JVM_LOCKS.computeIfAbsent(lockFile, key -> new Object())) {
+            try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                action.run();
+            } catch (OverlappingFileLockException e) {
+                throw new IOException("lock file " + lockFile + " is already locked in this jvm", e);
+            }
+        }
+    }
+
+    private void update(UnaryOperator<List<Entry>> change) {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            withFileLock(file, () -> write(change.apply(new ArrayList<>(entries())), parent));
+        } catch (IOException e) {
+            logger.warn("cannot write run journal " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void write(List<Entry> entries, Path parent) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        byte[] json = MAPPER.writeValueAsBytes(new Entries(entries));
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(json);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // make the rename durable, not possible on all platforms
+        try (FileChannel directory = FileChannel.open(parent, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            logger.debug("cannot sync directory " + parent + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Polls LoadRunner Cloud on a dedicated thread until a run reaches the RUNNING state.
+ *
+ * Close the poller to cancel polling and shut down its thread.
+ */
+class LoadRunnerCloudRunPoller implements Closeable {
+
+    static final String THREAD_NAME = "LrcPollForTestRunning";
+
+    enum Outcome {
+        RUNNING, MAX_DURATION_REACHED, INTERRUPTED, FAILED
+    }
+
+    private final LoadRunnerCloudClient client;
+    private final EventLogger logger;
+    private final Duration pollingPeriod;
+    private final Duration pollingMaxDuration;
+    private final LoadRunnerCloudRunStateTracker runStateTracker;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(this::newThread);
+
+    private volatile Future<?> pollingTask;
+    private volatile boolean closed = false;
+    private volatile Thread thread;
+
+    LoadRunnerCloudRunPoller(LoadRunnerCloudClient client, EventLogger logger, Duration pollingPeriod, Duration pollingMaxDuration) {
+        this(client, logger, pollingPeriod, pollingMaxDuration, null);
+    }
+
+    /**
+     * @param runStateTracker receives each observed status of the run, or null
+     */
+    LoadRunnerCloudRunPoller(LoadRunnerCloudClient client, EventLogger logger, Duration pollingPeriod, Duration pollingMaxDuration,
+                             LoadRunnerCloudRunStateTracker runStateTracker) {
+        this.client = client;
+        this.logger = logger;
+        this.pollingPeriod = pollingPeriod;
+        this.pollingMaxDuration = pollingMaxDuration;
+        this.runStateTracker = runStateTracker;
+    }
+
+    /**
+     * Start polling in the background. The outcome handler is not called when
+     * the poller is closed before the run reaches RUNNING.
+     *
+     * @param projectId number of the project
+     * @param runId number of the run
+     * @param outcomeHandler called once with the outcome of the polling
+     */
+    void start(String projectId, int runId, Consumer<Outcome> outcomeHandler) {
+        pollingTask = executor.submit(() -> {
+            Outcome outcome = pollForTestRunning(projectId, runId);
+            if (!closed) {
+                outcomeHandler.accept(outcome);
+            }
+        });
+    }
+
+    /**
+     * Poll on the calling thread until the run is RUNNING, max duration is reached or the thread is interrupted.
+     * Client errors are retried, other errors (such as an unreadable response) end polling with FAILED.
+     *
+     * @param projectId number of the project
+     * @param runId number of the run
+     * @return the outcome of the polling
+     */
+    Outcome pollForTestRunning(String projectId, int runId) {
+
+        LoadRunnerCloudClock clock = client.clock();
+        long sleepInMillis = pollingPeriod.toMillis();
+        long maxPollingTimestamp = clock.currentTimeMillis() + pollingMaxDuration.toMillis();
+
+        while (true) {
+
+            try {
+                List<TestRunActive> testRunActives = client.testRunsActive(projectId);
+
+                Optional<TestRunActive> testRunActive = testRunActives.stream()
+                    .filter(t -> t.getRunId() == runId)
+                    .findFirst();
+
+                if (runStateTracker != null) {
+                    runStateTracker.observe(testRunActive.orElse(null), clock.instant());
+                }
+
+                if (testRunActive.isPresent()) {
+                    TestRunActive testRun = testRunActive.get();
+                    logger.info(String.format("Status for test id %s (%s) is now: %s", testRun.getTestId(), testRun.getTestName(), testRun.getStatus()));
+                    if (testRun.getStatus() == TestRunActive.Status.RUNNING) {
+                        return Outcome.RUNNING;
+                    }
+                }
+            } catch (LoadRunnerCloudClientException e) {
+                if (closed) {
+                    return Outcome.INTERRUPTED;
+                }
+                logger.warn("Cannot call test runs active, will retry: " + e.getMessage());
+            } catch (RuntimeException e) {
+                logger.error("Polling for run " + runId + " failed, will stop polling now.", e);
+                return Outcome.FAILED;
+            }
+
+            try {
+                clock.sleep(sleepInMillis);
+            } catch (InterruptedException e) {
+                if (!closed) {
+                    logger.warn("Interrupt received, will stop polling now.");
+                }
+                Thread.currentThread().interrupt();
+                return Outcome.INTERRUPTED;
+            }
+
+            if (clock.currentTimeMillis() > maxPollingTimestamp) {
+                logger.warn("Max polling period reached (" + pollingMaxDuration + " seconds), will stop polling now.");
+                return Outcome.MAX_DURATION_REACHED;
+            }
+        }
+    }
+
+    private Thread newThread(Runnable runnable) {
+        thread = LoadRunnerCloudThreads.newThread(THREAD_NAME, runnable);
+        return thread;
+    }
+
+    /**
+     * Cancels active polling and waits shortly for the polling thread to end.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (Thread.currentThread() == thread) {
+            // closed from a handler on our own thread: do not interrupt or wait for ourselves
+            executor.shutdown();
+            return;
+        }
+        Future<?> task = pollingTask;
+        if (task != null) {
+            task.cancel(true);
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Polling thread did not stop within 5 seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
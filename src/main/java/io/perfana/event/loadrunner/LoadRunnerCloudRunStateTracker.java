@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunActive;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Follows the state of a run from the observations of the poller, watchdog and stop confirmation,
+ * and reports each change with its timestamp and durations.
+ */
+class LoadRunnerCloudRunStateTracker {
+
+    private final String projectId;
+    private final int runId;
+    private final Consumer<RunStateTransition> transitionHandler;
+    private final Instant startTimestamp;
+
+    private RunState state = RunState.STARTING;
+    private Instant stateTimestamp;
+
+    LoadRunnerCloudRunStateTracker(String projectId, int runId, Instant startTimestamp, Consumer<RunStateTransition> transitionHandler) {
+        this.projectId = projectId;
+        this.runId = runId;
+        this.startTimestamp = startTimestamp;
+        this.stateTimestamp = startTimestamp;
+        this.transitionHandler = transitionHandler;
+    }
+
+    /**
+     * @param testRun the active run, or null when the run is not in the active test runs
+     */
+    void observe(TestRunActive testRun) {
+        observe(testRun, Instant.now());
+    }
+
+    void observe(TestRunActive testRun, Instant now) {
+        RunStateTransition transition;
+        synchronized (this) {
+            RunState next = next(testRun);
+            if (next == state) {
+                return;
+            }
+            transition = RunStateTransition.builder()
+                .projectId(projectId)
+                .runId(runId)
+                .from(state)
+                .to(next)
+                .timestamp(now)
+                .fromDuration(Duration.between(stateTimestamp, now))
+                .elapsed(Duration.between(startTimestamp, now))
+                .build();
+            state = next;
+            stateTimestamp = now;
+        }
+        transitionHandler.accept(transition);
+    }
+
+    private RunState next(TestRunActive testRun) {
+        if (state == RunState.ENDED) {
+            return state;
+        }
+        if (testRun == null) {
+            // not yet active after start is still starting
+            return state == RunState.STARTING ? state : RunState.ENDED;
+        }
+        RunState observed = RunState.of(testRun.getStatus());
+        return observed == null ? state : observed;
+    }
+
+    synchronized RunState getState() {
+        return state;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a RUNNING LoadRunner Cloud run and reports when it stops running unexpectedly.
+ *
+ * Uses the active test runs call, the same cheap call that is used to wait for RUNNING.
+ */
+class LoadRunnerCloudRunWatchdog implements Closeable {
+
+    static final String THREAD_NAME = "LrcRunWatchdog";
+
+    /** Aim for about this many checks during the planned test duration. */
+    private static final int CHECKS_PER_TEST = 40;
+
+    private final LoadRunnerCloudClient client;
+    private final EventLogger logger;
+    private final String projectId;
+    private final int runId;
+    private final Duration period;
+    private final Duration watchDuration;
+    private final LoadRunnerCloudRunStateTracker runStateTracker;
+    private final LoadRunnerCloudRunHandle runHandle;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(this::newThread);
+
+    private volatile boolean closed = false;
+    private volatile boolean failed = false;
+    private volatile Thread thread;
+    private volatile long watchEndTimestamp;
+
+    /**
+     * @param period time between checks
+     * @param watchDuration how long to watch the run, zero to watch until closed
+     */
+    LoadRunnerCloudRunWatchdog(LoadRunnerCloudClient client, EventLogger logger, String projectId, int runId, Duration period, Duration watchDuration) {
+        this(client, logger, projectId, runId, period, watchDuration, null, null);
+    }
+
+    /**
+     * @param period time between checks
+     * @param watchDuration how long to watch the run, zero to watch until closed
+     * @param runStateTracker receives each observed status of the run, or null
+     * @param runHandle tells when the run is stopped on purpose, or null
+     */
+    LoadRunnerCloudRunWatchdog(LoadRunnerCloudClient client, EventLogger logger, String projectId, int runId, Duration period, Duration watchDuration,
+                               LoadRunnerCloudRunStateTracker runStateTracker, LoadRunnerCloudRunHandle runHandle) {
+        this.client = client;
+        this.logger = logger;
+        this.projectId = projectId;
+        this.runId = runId;
+        this.period = period;
+        this.watchDuration = watchDuration;
+        this.runStateTracker = runStateTracker;
+        this.runHandle = runHandle;
+    }
+
+    /**
+     * Choose the period between checks based on the planned test duration: longer tests are
+     * checked less often, but never less often than maxPeriod or more often than minPeriod.
+     */
+    static Duration watchdogPeriod(Duration plannedDuration, Duration minPeriod, Duration maxPeriod) {
+        if (plannedDuration == null || plannedDuration.isZero() || plannedDuration.isNegative()) {
+            return maxPeriod;
+        }
+        Duration period = plannedDuration.dividedBy(CHECKS_PER_TEST);
+        if (period.compareTo(minPeriod) < 0) return minPeriod;
+        if (period.compareTo(maxPeriod) > 0) return maxPeriod;
+        return period;
+    }
+
+    /**
+     * Start watching. The handler is called at most once, when the run is no longer RUNNING
+     * and the run handle does not expect a stop.
+     *
+     * @param unexpectedEndHandler called with a description of the unexpected state
+     */
+    void start(Consumer<String> unexpectedEndHandler) {
+        LoadRunnerCloudClock clock = client.clock();
+        watchEndTimestamp = watchDuration.isZero() ? Long.MAX_VALUE : clock.currentTimeMillis() + watchDuration.toMillis();
+        logger.info("Start watchdog for run [" + runId + "] with period " + period + " for " + (watchDuration.isZero() ? "the rest of the test" : watchDuration));
+        executor.execute(() -> watch(clock, unexpectedEndHandler));
+    }
+
+    private void watch(LoadRunnerCloudClock clock, Consumer<String> unexpectedEndHandler) {
+        try {
+            // fixed delay between checks
+            while (!closed) {
+                clock.sleep(period.toMillis());
+                if (!check(clock, unexpectedEndHandler)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // for instance an unreadable reply: do not end silently
+            failed = true;
+            logger.error("Watchdog for run [" + runId + "] failed, will stop watching now.", e);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return true when the watchdog stopped watching because of an unexpected error
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return true to continue watching
+     */
+    private boolean check(LoadRunnerCloudClock clock, Consumer<String> unexpectedEndHandler) {
+        if (closed) return false;
+
+        if (clock.currentTimeMillis() > watchEndTimestamp) {
+            logger.info("Watchdog for run [" + runId + "] reached end of planned test duration.");
+            executor.shutdown();
+            return false;
+        }
+
+        Optional<TestRunActive> testRun;
+        try {
+            testRun = client.testRunsActive(projectId).stream()
+                .filter(t -> t.getRunId() == runId)
+                .findFirst();
+        } catch (LoadRunnerCloudClientException e) {
+            if (!closed) logger.warn("Watchdog cannot call test runs active, will retry: " + e.getMessage());
+            return true;
+        }
+
+        if (runStateTracker != null) {
+            runStateTracker.observe(testRun.orElse(null), clock.instant());
+        }
+
+        String unexpectedState = null;
+        if (!testRun.isPresent()) {
+            unexpectedState = "run is no longer active";
+        } else if (testRun.get().getStatus() == TestRunActive.Status.STOPPING) {
+            unexpectedState = "run is stopping";
+        } else if (testRun.get().getStatus() != TestRunActive.Status.RUNNING) {
+            logger.info("Watchdog: run [" + runId + "] has status " + testRun.get().getStatus());
+        }
+
+        if (unexpectedState != null && runHandle != null && runHandle.isStopExpected()) {
+            logger.info("Watchdog: " + unexpectedState + " for run [" + runId + "] after requested stop, watchdog ends.");
+            executor.shutdown();
+            return false;
+        }
+
+        if (unexpectedState != null && !closed) {
+            logger.warn("Watchdog: " + unexpectedState + " for run [" + runId + "] before end of test.");
+            executor.shutdown();
+            unexpectedEndHandler.accept(unexpectedState);
+            return false;
+        }
+        return true;
+    }
+
+    private Thread newThread(Runnable runnable) {
+        thread = LoadRunnerCloudThreads.newThread(THREAD_NAME, runnable);
+        return thread;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (Thread.currentThread() == thread) {
+            // closed from a handler on our own thread: do not interrupt or wait for ourselves
+            executor.shutdown();
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Watchdog thread did not stop within 5 seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
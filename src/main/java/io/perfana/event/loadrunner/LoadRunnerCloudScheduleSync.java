@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.RampUp;
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Writes the ramp-up and constant load durations of the event-scheduler into the schedules of the
+ * scripts of a load test, so the LoadRunner Cloud run ends with the Perfana test window.
+ *
+ * The script duration includes the ramp-up, the tear down is not changed. Scripts that already
+ * have the durations are not updated, scripts scheduled by iterations are skipped.
+ */
+class LoadRunnerCloudScheduleSync {
+
+    static final String SCHEDULING_MODE_ITERATIONS = "iterations";
+
+    private final LoadRunnerCloudClient client;
+    private final EventLogger logger;
+    private final String projectId;
+    private final String loadTestId;
+
+    LoadRunnerCloudScheduleSync(LoadRunnerCloudClient client, EventLogger logger, String projectId, String loadTestId) {
+        this.client = client;
+        this.logger = logger;
+        this.projectId = projectId;
+        this.loadTestId = loadTestId;
+    }
+
+    /**
+     * Update the scripts that have other durations.
+     *
+     * @return the number of updated scripts
+     */
+    int sync(Duration rampUp, Duration constantLoad) {
+        List<ScriptConfig> scripts = client.scriptsForTestRun(projectId, loadTestId);
+        int updated = 0;
+        for (ScriptConfig script : scripts) {
+            if (SCHEDULING_MODE_ITERATIONS.equalsIgnoreCase(script.getSchedulingMode())) {
+                logger.info("script " + script.getId() + " runs by iterations, schedule is not synced");
+                continue;
+            }
+            ScriptConfig synced = synced(script, rampUp, constantLoad);
+            if (!synced.equals(script)) {
+                logger.info(String.format("sync schedule of script %d: ramp-up %d -> %d s, duration %d -> %d s",
+                    script.getId(), rampUpSeconds(script), rampUpSeconds(synced), script.getDuration(), synced.getDuration()));
+                client.updateScriptConfig(projectId, loadTestId, synced);
+                updated++;
+            }
+        }
+        logger.info("LoadRunner Cloud schedule sync updated " + updated + " of " + scripts.size() + " scripts");
+        return updated;
+    }
+
+    /**
+     * @return the script with the ramp-up and duration of the event-scheduler
+     */
+    static ScriptConfig synced(ScriptConfig script, Duration rampUp, Duration constantLoad) {
+        RampUp current = script.getRampUp();
+        RampUp syncedRampUp = RampUp.builder()
+            .duration(rampUp.getSeconds())
+            .interval(current == null ? null : current.getInterval())
+            .vusers(current == null ? null : current.getVusers())
+            .build();
+        return script.toBuilder()
+            .rampUp(syncedRampUp)
+            .duration(rampUp.plus(constantLoad).getSeconds())
+            .build();
+    }
+
+    private static long rampUpSeconds(ScriptConfig script) {
+        return script.getRampUp() == null ? 0 : script.getRampUp().getDuration();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunActive;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Combines the active test runs calls of all runs watched in this jvm for the same tenant and user
+ * into one call for all their projects: the api cost per tick does not grow with the number of projects.
+ *
+ * A tick is the max age: a caller gets the result of a call of another run when it is younger
+ * than the max age. Runs that poll at different rates share the smallest max age of the registered runs. A caller never gets the same result twice, so its own polling always sees new data.
+ * The call is made without holding the lock: callers that arrive during a call wait for its result
+ * instead of making their own. The age is measured with the clock of the caller's client.
+ */
+class LoadRunnerCloudStatusBatch {
+
+    private static final Map<String, LoadRunnerCloudStatusBatch> BATCHES = new ConcurrentHashMap<>();
+
+    private final String key;
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    private Snapshot snapshot;
+    private Call inFlight;
+
+    private static class Snapshot {
+        final long timestamp;
+        final Set<String> projectIds;
+        final List<TestRunActive> testRuns;
+
+        Snapshot(long timestamp, Set<String> projectIds, List<TestRunActive> testRuns) {
+            this.timestamp = timestamp;
+            this.projectIds = projectIds;
+            this.testRuns = testRuns;
+        }
+    }
+
+    /** A call in progress, its result is shared by all callers for its projects. */
+    private static class Call {
+        final Set<String> projectIds;
+        final CompletableFuture<Snapshot> result = new CompletableFuture<>();
+
+        Call(Set<String> projectIds) {
+            this.projectIds = projectIds;
+        }
+    }
+
+    /**
+     * A project watched via a client. Close to stop watching.
+     */
+    class Registration implements Closeable {
+        private final String projectId;
+        private final Duration maxAge;
+        private final LoadRunnerCloudClient client;
+        private Snapshot lastSeen;
+
+        private Registration(String projectId, Duration maxAge, LoadRunnerCloudClient client) {
+            this.projectId = projectId;
+            this.maxAge = maxAge;
+            this.client = client;
+        }
+
+        /**
+         * @return the active test runs of the project, from a call for all watched projects
+         */
+        List<TestRunActive> testRunsActive(String projectId) {
+            return LoadRunnerCloudStatusBatch.this.testRunsActive(this, projectId);
+        }
+
+        @Override
+        public void close() {
+            unregister(this);
+        }
+    }
+
+    private LoadRunnerCloudStatusBatch(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Watch a project in the batch of the same tenant and user, e.g. baseUrl + tenantId + user.
+     */
+    static Registration register(String key, Duration maxAge, String projectId, LoadRunnerCloudClient client) {
+        Registration[] registration = new Registration[1];
+        BATCHES.compute(key, (k, existing) -> {
+            LoadRunnerCloudStatusBatch batch = existing != null ? existing : new LoadRunnerCloudStatusBatch(k);
+            registration[0] = batch.new Registration(projectId, maxAge, client);
+            batch.registrations.add(registration[0]);
+            return batch;
+        });
+        return registration[0];
+    }
+
+    private void unregister(Registration registration) {
+        BATCHES.computeIfPresent(key, (k, batch) -> {
+            batch.registrations.remove(registration);
+            return batch.registrations.isEmpty() ? null : batch;
+        });
+    }
+
+    /**
+     * @return the smallest max age of the registered runs, so a run that polls more often than another still sees fresh data
+     */
+    private long maxAgeMillis() {
+        return registrations.stream().mapToLong(r -> r.maxAge.toMillis()).min().orElse(0);
+    }
+
+    static int batchCount() {
+        return BATCHES.size();
+    }
+
+    private List<TestRunActive> testRunsActive(Registration registration, String projectId) {
+        LoadRunnerCloudClock clock = registration.client.clock();
+        Call call;
+        boolean makeCall = false;
+        synchronized (this) {
+            Snapshot current = snapshot;
+            boolean fresh = current != null
+                && current != registration.lastSeen
+                && clock.currentTimeMillis() - current.timestamp <= maxAgeMillis()
+                && current.projectIds.contains(projectId);
+            if (fresh) {
+                registration.lastSeen = current;
+                return select(current, projectId);
+            }
+            call = inFlight;
+            if (call == null || !call.projectIds.contains(projectId)) {
+                Set<String> projectIds = registrations.stream()
+                    .map(r -> r.projectId)
+                    .collect(Collectors.toCollection(TreeSet::new));
+                projectIds.add(projectId);
+                call = new Call(Collections.unmodifiableSet(projectIds));
+                inFlight = call;
+                makeCall = true;
+            }
+        }
+
+        Snapshot result = makeCall ? makeCall(registration.client, clock, call) : await(call);
+
+        synchronized (this) {
+            registration.lastSeen = result;
+        }
+        return select(result, projectId);
+    }
+
+    /**
+     * The caller's own client makes the call outside the lock, other callers for the same projects wait for it.
+     */
+    private Snapshot makeCall(LoadRunnerCloudClient client, LoadRunnerCloudClock clock, Call call) {
+        try {
+            List<TestRunActive> testRuns = client.testRunsActive(call.projectIds);
+            Snapshot result = new Snapshot(clock.currentTimeMillis(), call.projectIds, testRuns);
+            synchronized (this) {
+                if (snapshot == null || snapshot.timestamp <= result.timestamp) {
+                    snapshot = result;
+                }
+                if (inFlight == call) {
+                    inFlight = null;
+                }
+            }
+            call.result.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (inFlight == call) {
+                    inFlight = null;
+                }
+            }
+            call.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static Snapshot await(Call call) {
+        try {
+            return call.result.get();
+        } catch (ExecutionException e) {
+            // the failure of the call is also the failure of the callers that waited for it
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoadRunnerCloudClientException("interrupted while waiting for active test runs", e);
+        }
+    }
+
+    private static List<TestRunActive> select(Snapshot snapshot, String projectId) {
+        if (snapshot.projectIds.size() == 1) {
+            return snapshot.testRuns;
+        }
+        return snapshot.testRuns.stream()
+            .filter(t -> projectId.equals(String.valueOf(t.getProjectId())))
+            .collect(Collectors.toList());
+    }
+}
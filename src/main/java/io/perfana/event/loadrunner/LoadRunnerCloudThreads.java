@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for polling, watching and fan-out calls to LoadRunner Cloud.
+ *
+ * This is the platform thread version. The jar is multi-release: on Java 21 and later the
+ * version in src/main/java21 is used, with virtual threads.
+ */
+final class LoadRunnerCloudThreads {
+
+    static final String MODE = "platform";
+
+    /** Bounded, so many concurrent runs do not create a thread per call. */
+    static final int FAN_OUT_MAX_THREADS = 8;
+
+    /** Prefetches only call LoadRunner Cloud, they never wait for other tasks. */
+    static final int PREFETCH_MAX_THREADS = 4;
+
+    private static final ExecutorService FAN_OUT_EXECUTOR = createExecutor(FAN_OUT_MAX_THREADS, "LrcFanOut-");
+
+    private static final ExecutorService PREFETCH_EXECUTOR = createExecutor(PREFETCH_MAX_THREADS, "LrcPrefetch-");
+
+    private LoadRunnerCloudThreads() {
+    }
+
+    /**
+     * Create an unstarted thread, for use in the thread factory of an executor.
+     */
+    static Thread newThread(String name, Runnable runnable) {
+        return new Thread(runnable, name);
+    }
+
+    /**
+     * Shared executor for short concurrent calls, such as updating all scripts of a load test.
+     * Idle threads end after a minute. Do not shut down.
+     */
+    static ExecutorService fanOutExecutor() {
+        return FAN_OUT_EXECUTOR;
+    }
+
+    /**
+     * Executor for the prefetch of the next page of a paged call. Paged calls are made from fan-out tasks:
+     * a prefetch on the fan-out executor could wait for a thread that is taken by a task waiting for it.
+     * Idle threads end after a minute. Do not shut down.
+     */
+    static ExecutorService prefetchExecutor() {
+        return PREFETCH_EXECUTOR;
+    }
+
+    private static ExecutorService createExecutor(int maxThreads, String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.tracing.Span;
+import io.perfana.event.loadrunner.tracing.SpanExporter;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates spans for the calls of a LoadRunner Cloud client and exports them in batches.
+ *
+ * All spans of a Perfana test run share a trace id derived from the test run id, so they can be
+ * found next to the traces of the system under test. Finished spans go to a bounded queue; one
+ * background thread exports a batch when it is full or a period after its first span. When the queue
+ * is full, spans are dropped and counted, calls are never slowed down by the exporter.
+ */
+class LoadRunnerCloudTracer implements Closeable {
+
+    static final String THREAD_NAME = "LrcSpanExporter";
+    static final int QUEUE_SIZE = 2048;
+    static final int MAX_BATCH_SIZE = 512;
+
+    static final String ATTRIBUTE_TEST_RUN_ID = "perfana.test_run_id";
+    static final String ATTRIBUTE_RUN_ID = "lrc.run_id";
+
+    private final SpanExporter exporter;
+    private final String testRunId;
+    private final String traceId;
+    private final Duration exportPeriod;
+    private final EventLogger logger;
+
+    private final BlockingQueue<Span> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong exportFailures = new AtomicLong();
+    private final ThreadLocal<ActiveSpan> current = new ThreadLocal<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> LoadRunnerCloudThreads.newThread(THREAD_NAME, runnable));
+
+    private volatile boolean closed = false;
+    private volatile int runId;
+
+    /**
+     * A span that has not ended yet. Not thread safe: used by the thread of the call.
+     */
+    static class ActiveSpan {
+        private final LoadRunnerCloudTracer tracer;
+        private final ActiveSpan parent;
+        private final String spanId;
+        private final String name;
+        private final long startEpochNanos;
+        private final long startNanos;
+        private final Map<String, Object> attributes = new LinkedHashMap<>();
+        private Span.Status status = Span.Status.OK;
+
+        private ActiveSpan(LoadRunnerCloudTracer tracer, ActiveSpan parent, String name) {
+            this.tracer = tracer;
+            this.parent = parent;
+            this.spanId = randomHex(8);
+            this.name = name;
+            this.startEpochNanos = System.currentTimeMillis() * 1_000_000;
+            this.startNanos = System.nanoTime();
+        }
+
+        ActiveSpan attribute(String key, Object value) {
+            if (value != null) {
+                attributes.put(key, value);
+            }
+            return this;
+        }
+
+        ActiveSpan error(Throwable error) {
+            status = Span.Status.ERROR;
+            attributes.put("error.type", error.getClass().getName());
+            attributes.put("error.message", String.valueOf(error.getMessage()));
+            return this;
+        }
+
+        void end() {
+            long endEpochNanos = startEpochNanos + (System.nanoTime() - startNanos);
+            tracer.end(this, new Span(tracer.traceId, spanId, parent == null ? null : parent.spanId, name,
+                startEpochNanos, endEpochNanos, status, attributes));
+        }
+    }
+
+    LoadRunnerCloudTracer(SpanExporter exporter, String testRunId, Duration exportPeriod, EventLogger logger) {
+        this.exporter = exporter;
+        this.testRunId = testRunId;
+        this.traceId = traceId(testRunId);
+        this.exportPeriod = exportPeriod;
+        this.logger = logger;
+        executor.execute(this::exportLoop);
+        logger.info("trace LoadRunner Cloud calls with trace id " + traceId + " to " + exporter.getClass().getSimpleName());
+    }
+
+    /**
+     * @return 32 hex characters derived from the test run id, random when there is none
+     */
+    static String traceId(String testRunId) {
+        if (testRunId == null || testRunId.isEmpty()) {
+            return randomHex(16);
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(testRunId.getBytes(StandardCharsets.UTF_8));
+            return hex(digest, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The run of the test, added to all spans from now on.
+     */
+    void runId(int runId) {
+        this.runId = runId;
+    }
+
+    /**
+     * Start a span as child of the active span of this thread, if any.
+     */
+    ActiveSpan start(String name) {
+        ActiveSpan span = new ActiveSpan(this, current.get(), name);
+        span.attribute(ATTRIBUTE_TEST_RUN_ID, testRunId);
+        if (runId > 0) {
+            span.attribute(ATTRIBUTE_RUN_ID, runId);
+        }
+        current.set(span);
+        return span;
+    }
+
+    private void end(ActiveSpan active, Span span) {
+        if (current.get() == active) {
+            if (active.parent == null) {
+                current.remove();
+            } else {
+                current.set(active.parent);
+            }
+        }
+        if (closed || !queue.offer(span)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    private void exportLoop() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Span first = queue.poll(exportPeriod.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<Span> batch = new ArrayList<>();
+                batch.add(first);
+                long deadline = System.nanoTime() + exportPeriod.toNanos();
+                while (batch.size() < MAX_BATCH_SIZE && !closed) {
+                    Span next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+                export(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void export(List<Span> batch) {
+        try {
+            exporter.export(batch);
+        } catch (IOException | RuntimeException e) {
+            if (exportFailures.getAndIncrement() == 0) {
+                logger.warn("Cannot export " + batch.size() + " spans, further failures are counted: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String randomHex(int bytes) {
+        byte[] random = new byte[bytes];
+        ThreadLocalRandom.current().nextBytes(random);
+        return hex(random, bytes);
+    }
+
+    private static String hex(byte[] bytes, int length) {
+        StringBuilder hex = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++) {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16)).append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Export the remaining spans and close the exporter.
+     */
+    @Override
+    public void close() {
+        if (closed && executor.isShutdown()) {
+            return;
+        }
+        closed = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("span exporter did not finish in time.");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            exporter.close();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot close span exporter: " + e.getMessage());
+        }
+        if (dropped.get() > 0 || exportFailures.get() > 0) {
+            logger.warn("tracing dropped " + dropped.get() + " spans, " + exportFailures.get() + " exports failed.");
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.perfana.eventscheduler.api.EventLogger;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.util.EntityUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Captures the requests and responses of the LoadRunner Cloud client to a rolling file, as an
+ * alternative for inspecting the traffic with a proxy such as mitmproxy.
+ *
+ * Each line of the file is a HAR entry. The calling thread only buffers the bodies and puts the
+ * exchange on a bounded queue; when the queue is full the exchange is dropped, so a slow disk never
+ * slows down the calls. A cassette recording waits for the queue instead, a cassette with gaps cannot
+ * be replayed. Redaction and writing is done by one background thread. Credentials, the user, the
+ * tenant id, the api key token and cookies are redacted.
+ */
+class LoadRunnerCloudTrafficCapture implements Closeable {
+
+    static final String THREAD_NAME = "LrcTrafficCapture";
+    static final String REDACTED = "***";
+
+    static final int QUEUE_SIZE = 1024;
+    static final int MAX_BODY_CHARS = 64 * 1024;
+
+    private static final Pattern SECRET_JSON_FIELDS = Pattern.compile(
+        "(\"(?:user|password|token|proxyPassword)\"\\s*:\\s*\")(?:[^\"\\\\]|\\\\.)*(\")", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SECRET_QUERY_PARAMETERS = Pattern.compile(
+        "([?&]" + LoadRunnerCloudClient.PARAM_TENANTID + "=)[^&#]*", Pattern.CASE_INSENSITIVE);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Path file;
+    private final long maxFileSizeBytes;
+    private final int maxFiles;
+    private final int maxBodyChars;
+    private final boolean waitWhenFull;
+    private final EventLogger logger;
+
+    private final BlockingQueue<Exchange> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong dropped = new AtomicLong();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> LoadRunnerCloudThreads.newThread(THREAD_NAME, runnable));
+
+    private volatile boolean closed = false;
+
+    private FileOutputStream fileOut;
+    private JsonGenerator generator;
+
+    /**
+     * One request with its response or failure.
+     */
+    static class Exchange {
+        final long startedMillis;
+        final long durationNanos;
+        final String endpoint;
+        final String method;
+        final String url;
+        final Header[] requestHeaders;
+        final String requestBody;
+        final String requestMimeType;
+        final int status;
+        final String statusText;
+        final Header[] responseHeaders;
+        final String responseBody;
+        final String responseMimeType;
+        final String error;
+
+        Exchange(long startedMillis, long durationNanos, String endpoint, String method, String url,
+                 Header[] requestHeaders, String requestBody, String requestMimeType,
+                 int status, String statusText, Header[] responseHeaders, String responseBody, String responseMimeType,
+                 String error) {
+            this.startedMillis = startedMillis;
+            this.durationNanos = durationNanos;
+            this.endpoint = endpoint;
+            this.method = method;
+            this.url = url;
+            this.requestHeaders = requestHeaders;
+            this.requestBody = requestBody;
+            this.requestMimeType = requestMimeType;
+            this.status = status;
+            this.statusText = statusText;
+            this.responseHeaders = responseHeaders;
+            this.responseBody = responseBody;
+            this.responseMimeType = responseMimeType;
+            this.error = error;
+        }
+    }
+
+    LoadRunnerCloudTrafficCapture(TrafficCaptureSettings settings, EventLogger logger) {
+        this(settings, MAX_BODY_CHARS, logger);
+    }
+
+    /**
+     * @param maxBodyChars longer bodies are truncated
+     */
+    LoadRunnerCloudTrafficCapture(TrafficCaptureSettings settings, int maxBodyChars, EventLogger logger) {
+        this(settings, maxBodyChars, false, logger);
+    }
+
+    /**
+     * @param maxBodyChars longer bodies are truncated
+     * @param waitWhenFull wait for room in the queue instead of dropping the exchange
+     */
+    LoadRunnerCloudTrafficCapture(TrafficCaptureSettings settings, int maxBodyChars, boolean waitWhenFull, EventLogger logger) {
+        this.file = Paths.get(settings.getFile()).toAbsolutePath();
+        this.maxFileSizeBytes = settings.getMaxFileSizeBytes();
+        this.maxFiles = Math.max(1, settings.getMaxFiles());
+        this.maxBodyChars = maxBodyChars;
+        this.waitWhenFull = waitWhenFull;
+        this.logger = logger;
+        executor.execute(this::writeLoop);
+        logger.info("capture LoadRunner Cloud traffic to " + file);
+    }
+
+    /**
+     * Capture to a new cassette: an existing cassette is replaced, one file, no truncated bodies,
+     * no dropped exchanges.
+     */
+    static LoadRunnerCloudTrafficCapture recordCassette(CassetteSettings settings, EventLogger logger) {
+        try {
+            Files.deleteIfExists(Paths.get(settings.getFile()));
+        } catch (IOException e) {
+            throw new LoadRunnerCloudClientException("cannot replace cassette " + settings.getFile(), e);
+        }
+        TrafficCaptureSettings captureSettings = new TrafficCaptureSettings(true, settings.getFile(), Long.MAX_VALUE, 1);
+        return new LoadRunnerCloudTrafficCapture(captureSettings, Integer.MAX_VALUE, true, logger);
+    }
+
+    /**
+     * Record a response. The response entity is replaced by a buffered copy, so the caller can still read it.
+     */
+    void captured(HttpRequestBase request, NetworkProfile.Endpoint endpoint, long startedMillis, long durationNanos, HttpResponse response) {
+        if (closed) {
+            return;
+        }
+        String responseBody = null;
+        String responseMimeType = null;
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            try {
+                HttpEntity buffered = new BufferedHttpEntity(entity);
+                response.setEntity(buffered);
+                responseMimeType = mimeType(buffered);
+                responseBody = body(buffered);
+            } catch (IOException e) {
+                responseBody = "<body not captured: " + e + ">";
+            }
+        }
+        offer(new Exchange(startedMillis, durationNanos, endpoint.name(), request.getMethod(), request.getURI().toString(),
+            request.getAllHeaders(), requestBody(request), requestMimeType(request),
+            response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), response.getAllHeaders(),
+            responseBody, responseMimeType, null));
+    }
+
+    /**
+     * Record a request without response.
+     */
+    void failed(HttpRequestBase request, NetworkProfile.Endpoint endpoint, long startedMillis, long durationNanos, IOException error) {
+        if (closed) {
+            return;
+        }
+        offer(new Exchange(startedMillis, durationNanos, endpoint.name(), request.getMethod(), request.getURI().toString(),
+            request.getAllHeaders(), requestBody(request), requestMimeType(request),
+            0, "", new Header[0], null, null, error.toString()));
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    private void offer(Exchange exchange) {
+        if (waitWhenFull) {
+            put(exchange);
+        }
+        else if (!queue.offer(exchange)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wait for room in the queue, as long as the writer is running.
+     */
+    private void put(Exchange exchange) {
+        try {
+            while (!closed) {
+                if (queue.offer(exchange, 200, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.incrementAndGet();
+        logger.error("recording to " + file + " is incomplete, exchange not recorded: " + exchange.method + " " + redactUrl(exchange.url));
+    }
+
+    private String requestBody(HttpRequestBase request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        if (entity == null) {
+            return null;
+        }
+        if (!entity.isRepeatable()) {
+            return "<" + entity.getContentLength() + " bytes, not repeatable>";
+        }
+        try {
+            return body(entity);
+        } catch (IOException e) {
+            return "<body not captured: " + e + ">";
+        }
+    }
+
+    private static String requestMimeType(HttpRequestBase request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        return entity == null ? null : mimeType(entity);
+    }
+
+    private String body(HttpEntity entity) throws IOException {
+        String mimeType = mimeType(entity).toLowerCase(Locale.ROOT);
+        if (!(mimeType.contains("json") || mimeType.startsWith("text"))) {
+            // script uploads and other binary content
+            return "<" + entity.getContentLength() + " bytes " + mimeType + ">";
+        }
+        String body = EntityUtils.toString(entity, StandardCharsets.UTF_8);
+        return body.length() > maxBodyChars ? body.substring(0, maxBodyChars) + "<truncated>" : body;
+    }
+
+    private static String mimeType(HttpEntity entity) {
+        Header contentType = entity.getContentType();
+        return contentType == null ? "" : contentType.getValue();
+    }
+
+    /**
+     * Remove secrets from a header value.
+     */
+    static String redactHeader(String name, String value) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "cookie":
+            case "set-cookie":
+            case "authorization":
+            case "proxy-authorization":
+                return REDACTED;
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Remove secrets from the query of a url.
+     */
+    static String redactUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        return SECRET_QUERY_PARAMETERS.matcher(url).replaceAll("$1" + REDACTED);
+    }
+
+    /**
+     * Remove secrets from a json body.
+     */
+    static String redactBody(String body) {
+        if (body == null) {
+            return null;
+        }
+        return SECRET_JSON_FIELDS.matcher(body).replaceAll("$1" + REDACTED + "$2");
+    }
+
+    private void writeLoop() {
+        List<Exchange> batch = new ArrayList<>(64);
+        try {
+            open();
+            while (!closed || !queue.isEmpty()) {
+                Exchange first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, 63);
+                for (Exchange exchange : batch) {
+                    write(exchange);
+                }
+                batch.clear();
+                generator.flush();
+                if (fileOut.getChannel().size() >= maxFileSizeBytes) {
+                    roll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.error("traffic capture to " + file + " stopped", e);
+            closed = true;
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void open() throws IOException {
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        fileOut = new FileOutputStream(file.toFile(), true);
+        generator = JSON_FACTORY.createGenerator(new BufferedOutputStream(fileOut, 16 * 1024), JsonEncoding.UTF8);
+    }
+
+    /**
+     * file.har.jsonl becomes file.har.jsonl.1, file.har.jsonl.1 becomes file.har.jsonl.2 and so on, the oldest is removed.
+     */
+    private void roll() throws IOException {
+        closeFile();
+        if (maxFiles > 1) {
+            Files.deleteIfExists(rolled(maxFiles - 1));
+        }
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            Path source = rolled(i);
+            if (Files.exists(source)) {
+                Files.move(source, rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 1) {
+            Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        else {
+            Files.deleteIfExists(file);
+        }
+        open();
+    }
+
+    Path rolled(int index) {
+        return Paths.get(file + "." + index);
+    }
+
+    private void closeFile() {
+        try {
+            if (generator != null) {
+                generator.close();
+            }
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        } catch (IOException e) {
+            logger.warn("cannot close traffic capture file " + file + ": " + e.getMessage());
+        }
+        generator = null;
+        fileOut = null;
+    }
+
+    private void write(Exchange exchange) throws IOException {
+        JsonGenerator g = generator;
+        g.writeStartObject();
+        g.writeStringField("startedDateTime", Instant.ofEpochMilli(exchange.startedMillis).toString());
+        g.writeNumberField("time", exchange.durationNanos / 1_000_000.0);
+        g.writeStringField("_endpoint", exchange.endpoint);
+
+        g.writeObjectFieldStart("request");
+        g.writeStringField("method", exchange.method);
+        g.writeStringField("url", redactUrl(exchange.url));
+        g.writeStringField("httpVersion", "HTTP/1.1");
+        writeHeaders(g, exchange.requestHeaders);
+        if (exchange.requestBody != null) {
+            g.writeObjectFieldStart("postData");
+            g.writeStringField("mimeType", exchange.requestMimeType);
+            g.writeStringField("text", redactBody(exchange.requestBody));
+            g.writeEndObject();
+        }
+        g.writeEndObject();
+
+        g.writeObjectFieldStart("response");
+        g.writeNumberField("status", exchange.status);
+        g.writeStringField("statusText", exchange.statusText);
+        g.writeStringField("httpVersion", "HTTP/1.1");
+        writeHeaders(g, exchange.responseHeaders);
+        g.writeObjectFieldStart("content");
+        g.writeStringField("mimeType", exchange.responseMimeType == null ? "" : exchange.responseMimeType);
+        if (exchange.responseBody != null) {
+            g.writeStringField("text", redactBody(exchange.responseBody));
+        }
+        g.writeEndObject();
+        g.writeEndObject();
+
+        if (exchange.error != null) {
+            g.writeStringField("comment", exchange.error);
+        }
+        g.writeEndObject();
+        g.writeRaw('\n');
+    }
+
+    private static void writeHeaders(JsonGenerator g, Header[] headers) throws IOException {
+        g.writeArrayFieldStart("headers");
+        for (Header header : headers) {
+            g.writeStartObject();
+            g.writeStringField("name", header.getName());
+            g.writeStringField("value", redactHeader(header.getName(), header.getValue()));
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+    }
+
+    /**
+     * Writes the queued exchanges and closes the file.
+     */
+    @Override
+    public void close() {
+        if (closed && executor.isShutdown()) {
+            return;
+        }
+        closed = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("traffic capture did not finish writing in time.");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long droppedCount = dropped.get();
+        if (droppedCount > 0 && waitWhenFull) {
+            logger.error("recording to " + file + " is incomplete, " + droppedCount + " exchanges are missing.");
+        }
+        else if (droppedCount > 0) {
+            logger.warn("traffic capture dropped " + droppedCount + " exchanges, queue was full.");
+        }
+    }
+}
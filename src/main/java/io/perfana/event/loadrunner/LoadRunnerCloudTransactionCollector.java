@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRun;
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collects the transaction results of a run into a summary per transaction, for after the test.
+ *
+ * LoadRunner Cloud only offers cumulative summaries with one configured percentile, that is reported as is.
+ * During the run the summaries are sampled: the average response time of each interval is added to a histogram
+ * per transaction, weighted by the transactions in that interval. The interval average p50, p90 and p99 come from
+ * these histograms, so they describe the spread of the averages over time, not of single transactions.
+ * They are only given from at least two intervals. Memory does not grow with the run length.
+ */
+class LoadRunnerCloudTransactionCollector implements Closeable {
+
+    static final String THREAD_NAME = "LrcTransactionCollector";
+
+    /** One interval has no spread over time, its percentiles would all be the average. */
+    static final int MIN_INTERVALS = 2;
+
+    private final LoadRunnerCloudClient client;
+    private final EventLogger logger;
+    private final int runId;
+    private final Duration samplePeriod;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(this::newThread);
+
+    /** Per script and transaction, in order of appearance. */
+    private final Map<String, TransactionSamples> samples = new LinkedHashMap<>();
+
+    private volatile boolean closed = false;
+    private volatile boolean failed = false;
+    private volatile Thread thread;
+
+    private static class TransactionSamples {
+        final String name;
+        final ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+        long passed;
+        double responseTimeSumMillis;
+        int intervals;
+        TestRunTransaction latest;
+
+        TransactionSamples(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Results of one transaction, over all scripts. Values that are not known are NaN.
+     */
+    static class TransactionSummary {
+        final String name;
+        final long passed;
+        final long failed;
+        final double minMillis;
+        final double avgMillis;
+        final double maxMillis;
+        /** The percentile configured in LoadRunner Cloud, over all scripts the highest, which is an upper bound. */
+        final double percentileMillis;
+        /** Number of sampled intervals the interval averages come from. */
+        final int intervals;
+        final double intervalAvgP50Millis;
+        final double intervalAvgP90Millis;
+        final double intervalAvgP99Millis;
+
+        TransactionSummary(String name, long passed, long failed, double minMillis, double avgMillis, double maxMillis,
+                           double percentileMillis, int intervals, ResponseTimeHistogram histogram) {
+            this.name = name;
+            this.passed = passed;
+            this.failed = failed;
+            this.minMillis = minMillis;
+            this.avgMillis = avgMillis;
+            this.maxMillis = maxMillis;
+            this.percentileMillis = percentileMillis;
+            this.intervals = intervals;
+            boolean spread = intervals >= MIN_INTERVALS;
+            this.intervalAvgP50Millis = spread ? histogram.percentile(50) : Double.NaN;
+            this.intervalAvgP90Millis = spread ? histogram.percentile(90) : Double.NaN;
+            this.intervalAvgP99Millis = spread ? histogram.percentile(99) : Double.NaN;
+        }
+
+        double errorPercentage() {
+            long total = passed + failed;
+            return total == 0 ? 0 : failed * 100.0 / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: passed=%d failed=%d errors=%.1f%% avg=%.0f percentile=%s ms, "
+                    + "interval avg over %d intervals p50=%s p90=%s p99=%s ms",
+                name, passed, failed, errorPercentage(), avgMillis, millis(percentileMillis),
+                intervals, millis(intervalAvgP50Millis), millis(intervalAvgP90Millis), millis(intervalAvgP99Millis));
+        }
+
+        private static String millis(double value) {
+            return Double.isNaN(value) ? "n/a" : String.valueOf(Math.round(value));
+        }
+    }
+
+    /**
+     * Summary of all transactions of a run.
+     */
+    static class Summary {
+        final int runId;
+        final String runStatus;
+        final long durationMillis;
+        final List<TransactionSummary> transactions;
+        final TransactionSummary total;
+
+        Summary(int runId, String runStatus, long durationMillis, List<TransactionSummary> transactions, TransactionSummary total) {
+            this.runId = runId;
+            this.runStatus = runStatus;
+            this.durationMillis = durationMillis;
+            this.transactions = Collections.unmodifiableList(transactions);
+            this.total = total;
+        }
+
+        /**
+         * @return passed transactions per second over the run, 0 when the duration is not known
+         */
+        double throughputPerSecond(TransactionSummary transaction) {
+            return durationMillis <= 0 ? 0 : transaction.passed * 1000.0 / durationMillis;
+        }
+    }
+
+    LoadRunnerCloudTransactionCollector(LoadRunnerCloudClient client, EventLogger logger, int runId, Duration samplePeriod) {
+        this.client = client;
+        this.logger = logger;
+        this.runId = runId;
+        this.samplePeriod = samplePeriod;
+    }
+
+    /**
+     * Start sampling the transaction summaries in the background.
+     */
+    void start() {
+        LoadRunnerCloudClock clock = client.clock();
+        executor.execute(() -> {
+            try {
+                while (!closed) {
+                    clock.sleep(samplePeriod.toMillis());
+                    try {
+                        sample(client.testRunTransactions(runId));
+                    } catch (LoadRunnerCloudClientException e) {
+                        if (!closed) logger.warn("Cannot sample transactions of run [" + runId + "], will retry: " + e.getMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                // for instance an unreadable reply: do not end silently
+                failed = true;
+                logger.error("Sampling transactions of run [" + runId + "] failed, will stop sampling now.", e);
+                executor.shutdown();
+            }
+        });
+    }
+
+    /**
+     * @return true when sampling stopped because of an unexpected error
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Add the interval since the previous sample to the histograms.
+     *
+     * @param transactions cumulative transaction summaries, response times in seconds
+     */
+    synchronized void sample(List<TestRunTransaction> transactions) {
+        for (TestRunTransaction transaction : transactions) {
+            TransactionSamples samplesOfTransaction = samples.computeIfAbsent(
+                transaction.getLoadTestScriptId() + "|" + transaction.getName(), key -> new TransactionSamples(transaction.getName()));
+
+            double responseTimeSumMillis = transaction.getAvg() * 1000 * transaction.getPassed();
+            if (transaction.getPassed() < samplesOfTransaction.passed) {
+                // totals went down: start again from zero
+                samplesOfTransaction.passed = 0;
+                samplesOfTransaction.responseTimeSumMillis = 0;
+            }
+            long passed = transaction.getPassed() - samplesOfTransaction.passed;
+            if (passed > 0) {
+                double avgMillis = (responseTimeSumMillis - samplesOfTransaction.responseTimeSumMillis) / passed;
+                samplesOfTransaction.histogram.record(avgMillis, passed);
+                samplesOfTransaction.intervals++;
+            }
+            samplesOfTransaction.passed = transaction.getPassed();
+            samplesOfTransaction.responseTimeSumMillis = responseTimeSumMillis;
+            samplesOfTransaction.latest = transaction;
+        }
+    }
+
+    /**
+     * Stop sampling, fetch the final results and the run status in parallel and summarize.
+     *
+     * @param maxDuration max time to wait for the final results
+     */
+    Summary collect(Duration maxDuration) {
+        return collect(maxDuration, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * Stop sampling, fetch the final results and the run status in parallel and summarize.
+     *
+     * When the run has not ended yet, for instance because LoadRunner Cloud is still collating the results
+     * after a stop, the status is polled with the clock of the client until it is final or endMaxDuration
+     * has passed. Then the final results are fetched again. A run that did not end is summarized with its
+     * last known status.
+     *
+     * @param maxDuration max time to wait for the final results
+     * @param endMaxDuration max time to wait for the run to end, zero to not wait
+     * @param pollingPeriod time between status polls while waiting for the run to end
+     */
+    Summary collect(Duration maxDuration, Duration endMaxDuration, Duration pollingPeriod) {
+        close();
+
+        CompletableFuture<List<TestRunTransaction>> transactions = CompletableFuture.supplyAsync(
+            () -> client.testRunTransactions(runId), LoadRunnerCloudThreads.fanOutExecutor());
+        CompletableFuture<TestRun> testRun = CompletableFuture.supplyAsync(
+            () -> client.testRun(runId), LoadRunnerCloudThreads.fanOutExecutor());
+
+        long deadline = System.nanoTime() + maxDuration.toNanos();
+        List<TestRunTransaction> finalTransactions = await(transactions, deadline);
+        TestRun finalRun = await(testRun, deadline);
+        if (finalTransactions != null) {
+            sample(finalTransactions);
+        }
+        if (finalRun == null) {
+            return summarize("unknown", 0);
+        }
+        if (!LoadRunnerCloudResultCheck.isEnded(finalRun.getStatus()) && !endMaxDuration.isZero()) {
+            TestRun endedRun = waitForEnd(endMaxDuration, pollingPeriod);
+            if (endedRun != null) {
+                finalRun = endedRun;
+                CompletableFuture<List<TestRunTransaction>> endedTransactions = CompletableFuture.supplyAsync(
+                    () -> client.testRunTransactions(runId), LoadRunnerCloudThreads.fanOutExecutor());
+                List<TestRunTransaction> transactionsAtEnd = await(endedTransactions, System.nanoTime() + maxDuration.toNanos());
+                if (transactionsAtEnd != null) {
+                    sample(transactionsAtEnd);
+                }
+            }
+        }
+        return summarize(finalRun.getStatus(), durationMillis(finalRun, client.clock().currentTimeMillis()));
+    }
+
+    /**
+     * @return the run with its final status, null when it did not end within endMaxDuration
+     */
+    private TestRun waitForEnd(Duration endMaxDuration, Duration pollingPeriod) {
+        LoadRunnerCloudClock clock = client.clock();
+        long end = clock.currentTimeMillis() + endMaxDuration.toMillis();
+        try {
+            while (clock.currentTimeMillis() < end) {
+                clock.sleep(Math.min(pollingPeriod.toMillis(), Math.max(1, end - clock.currentTimeMillis())));
+                try {
+                    TestRun run = client.testRun(runId);
+                    if (LoadRunnerCloudResultCheck.isEnded(run.getStatus())) {
+                        return run;
+                    }
+                } catch (LoadRunnerCloudClientException e) {
+                    logger.warn("Cannot fetch status of run [" + runId + "], will retry: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        logger.warn("Run [" + runId + "] has not ended within " + endMaxDuration + ", results are not final.");
+        return null;
+    }
+
+    /**
+     * @return duration of the run so far, 0 when not known
+     */
+    static long durationMillis(TestRun run, long now) {
+        if (run.getStartTime() <= 0) {
+            return 0;
+        }
+        long end = run.getEndTime() > run.getStartTime() ? run.getEndTime() : now;
+        return Math.max(0, end - run.getStartTime());
+    }
+
+    private <T> T await(CompletableFuture<T> future, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            logger.warn("Cannot fetch results of run [" + runId + "]: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            logger.warn("Results of run [" + runId + "] not fetched in time.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Merge the samples of the same transaction in different scripts, and of all transactions for the total.
+     */
+    Summary summarize(String runStatus) {
+        return summarize(runStatus, 0);
+    }
+
+    synchronized Summary summarize(String runStatus, long durationMillis) {
+        Map<String, List<TransactionSamples>> byName = new LinkedHashMap<>();
+        for (TransactionSamples samplesOfTransaction : samples.values()) {
+            byName.computeIfAbsent(samplesOfTransaction.name, name -> new ArrayList<>()).add(samplesOfTransaction);
+        }
+
+        List<TransactionSummary> summaries = new ArrayList<>(byName.size());
+        byName.forEach((name, list) -> summaries.add(merge(name, list)));
+        TransactionSummary total = merge("total", new ArrayList<>(samples.values()));
+        return new Summary(runId, runStatus, durationMillis, summaries, total);
+    }
+
+    private static TransactionSummary merge(String name, List<TransactionSamples> list) {
+        ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+        long passed = 0;
+        long failed = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        double sum = 0;
+        double percentile = Double.NaN;
+        int intervals = Integer.MAX_VALUE;
+        for (TransactionSamples samplesOfTransaction : list) {
+            TestRunTransaction latest = samplesOfTransaction.latest;
+            histogram.merge(samplesOfTransaction.histogram);
+            passed += latest.getPassed();
+            failed += latest.getFailed();
+            min = Math.min(min, latest.getMin() * 1000);
+            max = Math.max(max, latest.getMax() * 1000);
+            sum += latest.getAvg() * 1000 * latest.getPassed();
+            if (latest.getPercentile() != null && latest.getPassed() > 0) {
+                // the percentile of merged transactions is at most the highest percentile of its parts
+                percentile = Double.isNaN(percentile) ? latest.getPercentile() * 1000 : Math.max(percentile, latest.getPercentile() * 1000);
+            }
+            if (samplesOfTransaction.intervals > 0) {
+                // a merge has the spread over time of its least sampled part
+                intervals = Math.min(intervals, samplesOfTransaction.intervals);
+            }
+        }
+        return new TransactionSummary(name, passed, failed, passed == 0 ? 0 : min, passed == 0 ? 0 : sum / passed, max,
+            percentile, intervals == Integer.MAX_VALUE ? 0 : intervals, histogram);
+    }
+
+    private Thread newThread(Runnable runnable) {
+        thread = LoadRunnerCloudThreads.newThread(THREAD_NAME, runnable);
+        return thread;
+    }
+
+    /**
+     * Stop sampling.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (Thread.currentThread() == thread) {
+            executor.shutdown();
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Transaction collector thread did not stop within 5 seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.eventscheduler.api.EventLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uploads local script zips and data files to LoadRunner Cloud, only when their content changed.
+ *
+ * The SHA-256 of each file is compared with a local manifest of earlier uploads. Hashing and
+ * uploading stream the files, and are done in parallel. The manifest only knows the uploads from
+ * this machine: delete it to upload everything again.
+ */
+class LoadRunnerCloudUploader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final LoadRunnerCloudClient client;
+    private final EventLogger logger;
+    private final Path manifestFile;
+
+    enum Kind {
+        SCRIPT, FILE
+    }
+
+    /**
+     * A local file for a script or data file in LoadRunner Cloud.
+     */
+    static class Upload {
+        final Kind kind;
+        final int id;
+        final Path path;
+
+        Upload(Kind kind, int id, Path path) {
+            this.kind = kind;
+            this.id = id;
+            this.path = path;
+        }
+
+        @Override
+        public String toString() {
+            return kind.name().toLowerCase(Locale.ROOT) + " " + id + " (" + path + ")";
+        }
+    }
+
+    /**
+     * Outcome of all uploads.
+     */
+    static class Report {
+        final List<Upload> uploaded;
+        final List<Upload> unchanged;
+        final List<Upload> skipped;
+        final Map<Upload, String> failed;
+
+        Report(List<Upload> uploaded, List<Upload> unchanged, List<Upload> skipped, Map<Upload, String> failed) {
+            this.uploaded = uploaded;
+            this.unchanged = unchanged;
+            this.skipped = skipped;
+            this.failed = failed;
+        }
+
+        boolean isOk() {
+            return failed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "uploaded: " + uploaded + ", unchanged: " + unchanged.size() + ", skipped: " + skipped
+                + (failed.isEmpty() ? "" : ", failed: " + failed);
+        }
+    }
+
+    LoadRunnerCloudUploader(LoadRunnerCloudClient client, EventLogger logger, Path manifestFile) {
+        this.client = client;
+        this.logger = logger;
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * Parse a comma separated list of id=path, for instance "12=scripts/login.zip,13=scripts/search.zip".
+     */
+    static List<Upload> parse(Kind kind, String uploads) {
+        if (uploads == null || uploads.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Upload> result = new ArrayList<>();
+        for (String upload : uploads.split(",")) {
+            if (upload.trim().isEmpty()) {
+                continue;
+            }
+            String[] idAndPath = upload.split("=", 2);
+            try {
+                result.add(new Upload(kind, Integer.parseInt(idAndPath[0].trim()), Paths.get(idAndPath[1].trim())));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new LoadRunnerCloudClientException("invalid " + kind.name().toLowerCase(Locale.ROOT) + " upload '" + upload + "', use id=path");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Upload the changed files in parallel.
+     *
+     * @param scripts the scripts of the load test, git scripts are not uploaded, or empty when unknown
+     */
+    Report upload(String tenantId, String projectId, List<Upload> uploads, List<ScriptConfig> scripts) {
+        Properties manifest = loadManifest();
+
+        List<Upload> uploaded = Collections.synchronizedList(new ArrayList<>());
+        List<Upload> unchanged = Collections.synchronizedList(new ArrayList<>());
+        List<Upload> skipped = new ArrayList<>();
+        Map<Upload, String> failed = new ConcurrentHashMap<>();
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Upload upload : uploads) {
+            if (upload.kind == Kind.SCRIPT && isGitScript(scripts, upload.id)) {
+                logger.warn("script " + upload.id + " is a git script, update it in git instead of uploading " + upload.path);
+                skipped.add(upload);
+                continue;
+            }
+            String key = manifestKey(tenantId, projectId, upload);
+            futures.add(CompletableFuture.runAsync(() -> {
+                String hash = sha256(upload.path);
+                if (hash.equals(manifest.getProperty(key))) {
+                    unchanged.add(upload);
+                    return;
+                }
+                if (upload.kind == Kind.SCRIPT) {
+                    client.uploadScript(projectId, upload.id, upload.path);
+                } else {
+                    client.uploadFile(projectId, upload.id, upload.path);
+                }
+                // Properties is synchronized
+                manifest.setProperty(key, hash);
+                uploaded.add(upload);
+                logger.info("uploaded " + upload);
+            }, LoadRunnerCloudThreads.fanOutExecutor()).exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                failed.put(upload, String.valueOf(cause.getMessage()));
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        if (!uploaded.isEmpty()) {
+            storeManifest(manifest);
+        }
+        Report report = new Report(new ArrayList<>(uploaded), new ArrayList<>(unchanged), skipped, failed);
+        logger.info("LoadRunner Cloud " + report);
+        return report;
+    }
+
+    private static boolean isGitScript(List<ScriptConfig> scripts, int scriptId) {
+        return scripts.stream()
+            .filter(s -> s.getScriptId() == scriptId)
+            .anyMatch(s -> Boolean.TRUE.equals(s.getIsGitScript()));
+    }
+
+    static String manifestKey(String tenantId, String projectId, Upload upload) {
+        return tenantId + "." + projectId + "." + upload.kind.name().toLowerCase(Locale.ROOT) + "." + upload.id;
+    }
+
+    /**
+     * @return hex SHA-256 of the file, read in chunks
+     */
+    static String sha256(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (IOException e) {
+            throw new LoadRunnerCloudClientException("cannot read " + path, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Properties loadManifest() {
+        Properties manifest = new Properties();
+        if (Files.exists(manifestFile)) {
+            try (InputStream in = Files.newInputStream(manifestFile)) {
+                manifest.load(in);
+            } catch (IOException e) {
+                logger.warn("cannot read upload manifest " + manifestFile + ", all files are uploaded: " + e.getMessage());
+            }
+        }
+        return manifest;
+    }
+
+    private void storeManifest(Properties manifest) {
+        Path tmp = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+        try {
+            Path parent = manifestFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                manifest.store(out, "hashes of files uploaded to LoadRunner Cloud");
+            }
+            Files.move(tmp, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("cannot write upload manifest " + manifestFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+/**
+ * Settings for the distribution of vusers over the load generator locations of a load test.
+ */
+public class LocationPlanSettings {
+    private final boolean enabled;
+    private final int targetVusers;
+    private final String capacities;
+
+    LocationPlanSettings(
+        boolean enabled,
+        int targetVusers,
+        String capacities) {
+            this.enabled = enabled;
+            this.targetVusers = targetVusers;
+            this.capacities = capacities;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the vusers to distribute, zero means the vusers of the scripts of the load test
+     */
+    public int getTargetVusers() {
+        return targetVusers;
+    }
+
+    public String getCapacities() {
+        return capacities;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationPlanSettings{" +
+            "enabled=" + enabled +
+            ", targetVusers=" + targetVusers +
+            ", capacities='" + capacities + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Network settings of the LoadRunner Cloud client: timeouts, proxy, compression and connection pool.
+ *
+ * Socket timeouts can be set per endpoint type, zero means use the default socket timeout.
+ */
+@Value
+@Builder(toBuilder = true)
+public class NetworkProfile {
+
+    public enum Endpoint {
+        AUTH, RUN_CONTROL, STATUS, SCRIPTS, RESULTS
+    }
+
+    @Builder.Default
+    int connectionRequestTimeoutMillis = 1_000;
+    @Builder.Default
+    int connectTimeoutMillis = 4_000;
+    @Builder.Default
+    int socketTimeoutMillis = 10_000;
+    int authSocketTimeoutMillis;
+    @Builder.Default
+    int runControlSocketTimeoutMillis = 30_000;
+    int statusSocketTimeoutMillis;
+    int scriptsSocketTimeoutMillis;
+    @Builder.Default
+    int resultsSocketTimeoutMillis = 30_000;
+
+    boolean useProxy;
+    @Builder.Default
+    String proxyHost = "localhost";
+    @Builder.Default
+    int proxyPort = 8888;
+    String proxyUser;
+    String proxyPassword;
+
+    @Builder.Default
+    boolean compressionEnabled = true;
+    @Builder.Default
+    int maxConnectionsPerRoute = 10;
+
+    public static NetworkProfile defaults() {
+        return NetworkProfile.builder().build();
+    }
+
+    public int socketTimeoutMillis(Endpoint endpoint) {
+        int timeout;
+        switch (endpoint) {
+            case AUTH: timeout = authSocketTimeoutMillis; break;
+            case RUN_CONTROL: timeout = runControlSocketTimeoutMillis; break;
+            case STATUS: timeout = statusSocketTimeoutMillis; break;
+            case SCRIPTS: timeout = scriptsSocketTimeoutMillis; break;
+            case RESULTS: timeout = resultsSocketTimeoutMillis; break;
+            default: timeout = 0;
+        }
+        return timeout > 0 ? timeout : socketTimeoutMillis;
+    }
+
+    public boolean hasProxyCredentials() {
+        return proxyUser != null && !proxyUser.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        // no proxy password in logs
+        return "NetworkProfile{" +
+            "connectionRequestTimeoutMillis=" + connectionRequestTimeoutMillis +
+            ", connectTimeoutMillis=" + connectTimeoutMillis +
+            ", socketTimeoutMillis=" + socketTimeoutMillis +
+            ", useProxy=" + useProxy +
+            ", proxyHost='" + proxyHost + '\'' +
+            ", proxyPort=" + proxyPort +
+            ", proxyUser='" + proxyUser + '\'' +
+            ", compressionEnabled=" + compressionEnabled +
+            ", maxConnectionsPerRoute=" + maxConnectionsPerRoute +
+            '}';
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy iterator over a paged LoadRunner Cloud list call. While the caller processes a page,
+ * the next page is fetched in the background, so at most two pages are in memory.
+ *
+ * The first page is fetched on the first call of hasNext. Close, or close the stream,
+ * when not iterating to the end, to cancel the prefetch.
+ */
+public class PagedIterator<T> implements Iterator<T>, Closeable {
+
+    @FunctionalInterface
+    interface PageFetcher<T> {
+        List<T> fetch(int offset, int limit);
+    }
+
+    private final PageFetcher<T> fetcher;
+    private final int pageSize;
+    private final Executor executor;
+
+    private Iterator<T> current = Collections.emptyIterator();
+    private List<T> previousPage;
+    private CompletableFuture<List<T>> nextPage;
+    private int nextOffset = 0;
+    private boolean lastPage = false;
+    private volatile boolean closed = false;
+
+    PagedIterator(PageFetcher<T> fetcher, int pageSize, Executor executor) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size should be positive: " + pageSize);
+        }
+        this.fetcher = fetcher;
+        this.pageSize = pageSize;
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (lastPage || closed) {
+                return false;
+            }
+            List<T> page = nextPage == null ? fetcher.fetch(nextOffset, pageSize) : join(nextPage);
+            nextPage = null;
+
+            if (page.equals(previousPage)) {
+                // the server ignores the paging parameters and sends the same list again
+                lastPage = true;
+                return false;
+            }
+            // a larger page also means the server ignores the paging parameters
+            lastPage = page.size() != pageSize;
+            nextOffset += pageSize;
+            if (!lastPage) {
+                int offset = nextOffset;
+                nextPage = CompletableFuture.supplyAsync(() -> fetcher.fetch(offset, pageSize), executor);
+            }
+            previousPage = page;
+            current = page.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    private static <T> List<T> join(CompletableFuture<List<T>> page) {
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new LoadRunnerCloudClientException("call to LoadRunner cloud failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return a sequential stream of the remaining elements, closing the stream closes this iterator
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        CompletableFuture<List<T>> page = nextPage;
+        if (page != null) {
+            page.cancel(true);
+        }
+        current = Collections.emptyIterator();
+    }
+}
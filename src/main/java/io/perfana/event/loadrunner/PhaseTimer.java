@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the duration of the phases of a start with the monotonic clock.
+ */
+class PhaseTimer {
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+    <T> T time(String phase, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    void time(String phase, Runnable action) {
+        time(phase, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Record a phase measured elsewhere, such as with the clock of the client.
+     */
+    void add(String phase, long millis) {
+        record(phase, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private synchronized void record(String phase, long nanos) {
+        phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    long totalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return phase durations in millis, with keys prefix + phase + "Millis", in order of measurement
+     */
+    synchronized Map<String, String> variables(String prefix) {
+        Map<String, String> variables = new LinkedHashMap<>();
+        phaseNanos.forEach((phase, nanos) ->
+            variables.put(prefix + phase + "Millis", String.valueOf(TimeUnit.NANOSECONDS.toMillis(nanos))));
+        return variables;
+    }
+
+    synchronized String summary() {
+        return phaseNanos.entrySet().stream()
+            .map(e -> e.getKey() + "=" + TimeUnit.NANOSECONDS.toMillis(e.getValue()) + " ms")
+            .collect(Collectors.joining(", ", "", ", total=" + totalMillis() + " ms"));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+/**
+ * Histogram of response times with a fixed number of logarithmic buckets: constant memory,
+ * whatever the number of recorded values, and histograms can be merged.
+ *
+ * Each power of two is divided in 8 buckets, so a percentile is within about 9% of the recorded value.
+ * Values from 1 ms up to about 4.6 hours are distinguished, others are put in the first or last bucket.
+ */
+class ResponseTimeHistogram {
+
+    static final int BUCKETS_PER_POWER_OF_TWO = 8;
+    static final int POWERS_OF_TWO = 24;
+    static final int BUCKET_COUNT = BUCKETS_PER_POWER_OF_TWO * POWERS_OF_TWO;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private double minMillis = Double.MAX_VALUE;
+    private double maxMillis = 0;
+
+    /**
+     * Record a response time a number of times.
+     */
+    void record(double millis, long count) {
+        if (count <= 0 || Double.isNaN(millis)) {
+            return;
+        }
+        counts[bucket(millis)] += count;
+        totalCount += count;
+        minMillis = Math.min(minMillis, millis);
+        maxMillis = Math.max(maxMillis, millis);
+    }
+
+    /**
+     * Add the counts of another histogram to this one.
+     */
+    void merge(ResponseTimeHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        minMillis = Math.min(minMillis, other.minMillis);
+        maxMillis = Math.max(maxMillis, other.maxMillis);
+    }
+
+    long count() {
+        return totalCount;
+    }
+
+    /**
+     * @param percentage e.g. 90 for the 90th percentile
+     * @return the estimated response time in millis, or 0 when nothing is recorded
+     */
+    double percentile(double percentage) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentage / 100.0 * totalCount));
+        if (rank >= totalCount) {
+            return maxMillis;
+        }
+        long seen = 0;
+        // the last bucket has no upper bound, so no middle
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(minMillis, Math.min(maxMillis, middleOf(i)));
+            }
+        }
+        return maxMillis;
+    }
+
+    static int bucket(double millis) {
+        if (millis <= 1) {
+            return 0;
+        }
+        int bucket = (int) (Math.log(millis) / Math.log(2) * BUCKETS_PER_POWER_OF_TWO);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    private static double middleOf(int bucket) {
+        return Math.pow(2, (bucket + 0.5) / BUCKETS_PER_POWER_OF_TWO);
+    }
+}
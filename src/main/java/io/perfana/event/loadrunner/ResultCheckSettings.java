@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.time.Duration;
+
+/**
+ * Settings for the check of the results of the run after the test.
+ *
+ * Thresholds of zero are not checked.
+ */
+public class ResultCheckSettings {
+    private final boolean enabled;
+    private final Duration maxDuration;
+    private final double maxErrorPercentage;
+    private final long maxPercentileMillis;
+
+    ResultCheckSettings(
+        boolean enabled,
+        Duration maxDuration,
+        double maxErrorPercentage,
+        long maxPercentileMillis) {
+            this.enabled = enabled;
+            this.maxDuration = maxDuration;
+            this.maxErrorPercentage = maxErrorPercentage;
+            this.maxPercentileMillis = maxPercentileMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration getMaxDuration() {
+        return maxDuration;
+    }
+
+    public double getMaxErrorPercentage() {
+        return maxErrorPercentage;
+    }
+
+    public long getMaxPercentileMillis() {
+        return maxPercentileMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCheckSettings{" +
+            "enabled=" + enabled +
+            ", maxDuration=" + maxDuration +
+            ", maxErrorPercentage=" + maxErrorPercentage +
+            ", maxPercentileMillis=" + maxPercentileMillis +
+            '}';
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunActive;
+
+/**
+ * State of a LoadRunner Cloud run: the active run statuses, plus before and after being active.
+ */
+public enum RunState {
+    /** started, not yet in the active test runs */
+    STARTING,
+    INITIALIZING,
+    CHECKING_STATUS,
+    RUNNING,
+    PAUSED,
+    STOPPING,
+    /** no longer in the active test runs */
+    ENDED;
+
+    static RunState of(TestRunActive.Status status) {
+        return status == null ? null : RunState.valueOf(status.name());
+    }
+
+    /**
+     * @return the name in camel case, e.g. CheckingStatus, for use in variable names
+     */
+    String camelCase() {
+        StringBuilder result = new StringBuilder();
+        for (String part : name().split("_")) {
+            result.append(part.charAt(0)).append(part.substring(1).toLowerCase());
+        }
+        return result.toString();
+    }
+}
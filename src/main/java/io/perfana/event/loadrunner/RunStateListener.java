@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Listener for state changes of LoadRunner Cloud runs, for instance to annotate a test timeline
+ * with the provisioning phases. Register with {@link #register(RunStateListener)}.
+ *
+ * Listeners are called on the polling thread, so return quickly.
+ */
+public interface RunStateListener {
+
+    void onTransition(RunStateTransition transition);
+
+    static void register(RunStateListener listener) {
+        Registry.LISTENERS.add(listener);
+    }
+
+    static void unregister(RunStateListener listener) {
+        Registry.LISTENERS.remove(listener);
+    }
+
+    final class Registry {
+        static final List<RunStateListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+        private Registry() {
+        }
+    }
+}
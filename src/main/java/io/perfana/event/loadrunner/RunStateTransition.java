@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A change of state of a LoadRunner Cloud run, as observed by polling.
+ */
+@Value
+@Builder
+public class RunStateTransition {
+    String projectId;
+    int runId;
+    RunState from;
+    RunState to;
+    /** when the new state was observed */
+    Instant timestamp;
+    /** time spent in the previous state */
+    Duration fromDuration;
+    /** time since the run was started */
+    Duration elapsed;
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+/**
+ * Settings for the in-process capture of the http traffic to LoadRunner Cloud.
+ */
+public class TrafficCaptureSettings {
+    private final boolean enabled;
+    private final String file;
+    private final long maxFileSizeBytes;
+    private final int maxFiles;
+
+    TrafficCaptureSettings(
+        boolean enabled,
+        String file,
+        long maxFileSizeBytes,
+        int maxFiles) {
+            this.enabled = enabled;
+            this.file = file;
+            this.maxFileSizeBytes = maxFileSizeBytes;
+            this.maxFiles = maxFiles;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public long getMaxFileSizeBytes() {
+        return maxFileSizeBytes;
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficCaptureSettings{" +
+            "enabled=" + enabled +
+            ", file='" + file + '\'' +
+            ", maxFileSizeBytes=" + maxFileSizeBytes +
+            ", maxFiles=" + maxFiles +
+            '}';
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+
+import java.util.List;
+
+/**
+ * Turns the cumulative transaction summaries of a run into statistics per interval
+ * between two calls. Only the totals of the previous call are kept.
+ */
+class TransactionIntervalTracker {
+
+    private long previousPassed;
+    private long previousFailed;
+    private double previousResponseTimeSumMillis;
+    private long previousTimestamp = -1;
+
+    /**
+     * Transaction counts and average response time between two checks.
+     */
+    static class IntervalStats {
+        final long passed;
+        final long failed;
+        final double avgResponseTimeMillis;
+        final long intervalMillis;
+
+        IntervalStats(long passed, long failed, double avgResponseTimeMillis, long intervalMillis) {
+            this.passed = passed;
+            this.failed = failed;
+            this.avgResponseTimeMillis = avgResponseTimeMillis;
+            this.intervalMillis = intervalMillis;
+        }
+
+        double errorPercentage() {
+            long total = passed + failed;
+            return total == 0 ? 0 : failed * 100.0 / total;
+        }
+
+        double failedPerMinute() {
+            return intervalMillis == 0 ? 0 : failed * 60_000.0 / intervalMillis;
+        }
+
+        double passedPerSecond() {
+            return intervalMillis == 0 ? 0 : passed * 1000.0 / intervalMillis;
+        }
+    }
+
+    /**
+     * @param transactions cumulative transaction summaries, response times in seconds
+     * @param nowMillis timestamp of the summaries
+     * @return stats since previous call, or null on first call or when the totals went down
+     */
+    IntervalStats nextInterval(List<TestRunTransaction> transactions, long nowMillis) {
+        long passed = 0;
+        long failed = 0;
+        double responseTimeSumMillis = 0;
+        for (TestRunTransaction transaction : transactions) {
+            passed += transaction.getPassed();
+            failed += transaction.getFailed();
+            responseTimeSumMillis += transaction.getAvg() * 1000 * transaction.getPassed();
+        }
+
+        boolean isFirstOrReset = previousTimestamp < 0 || passed < previousPassed || failed < previousFailed;
+
+        IntervalStats stats = null;
+        if (!isFirstOrReset) {
+            long deltaPassed = passed - previousPassed;
+            long deltaFailed = failed - previousFailed;
+            double avgMillis = deltaPassed == 0 ? 0 : (responseTimeSumMillis - previousResponseTimeSumMillis) / deltaPassed;
+            stats = new IntervalStats(deltaPassed, deltaFailed, avgMillis, nowMillis - previousTimestamp);
+        }
+
+        previousPassed = passed;
+        previousFailed = failed;
+        previousResponseTimeSumMillis = responseTimeSumMillis;
+        previousTimestamp = nowMillis;
+
+        return stats;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+/**
+ * Settings for the upload of changed local scripts and data files before the run.
+ */
+public class UploadSettings {
+    private final String scriptUploads;
+    private final String fileUploads;
+    private final String manifestFile;
+
+    UploadSettings(
+        String scriptUploads,
+        String fileUploads,
+        String manifestFile) {
+            this.scriptUploads = scriptUploads;
+            this.fileUploads = fileUploads;
+            this.manifestFile = manifestFile;
+    }
+
+    public boolean isEnabled() {
+        return !isBlank(scriptUploads) || !isBlank(fileUploads);
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    public String getScriptUploads() {
+        return scriptUploads;
+    }
+
+    public String getFileUploads() {
+        return fileUploads;
+    }
+
+    public String getManifestFile() {
+        return manifestFile;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadSettings{" +
+            "scriptUploads='" + scriptUploads + '\'' +
+            ", fileUploads='" + fileUploads + '\'' +
+            ", manifestFile='" + manifestFile + '\'' +
+            '}';
+    }
+}
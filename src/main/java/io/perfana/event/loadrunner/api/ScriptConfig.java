@@ -15,14 +15,18 @@
  */
 package io.perfana.event.loadrunner.api;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
 
 @Value
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor(force = true, access = AccessLevel.PRIVATE)
 @AllArgsConstructor
 @JsonIgnoreProperties(ignoreUnknown = true)
+// the boolean getters isLocalPacingEnabled() would map to localPacingEnabled, use the field names of LoadRunner Cloud
+@JsonAutoDetect(isGetterVisibility = JsonAutoDetect.Visibility.NONE)
 public class ScriptConfig {
     int id;
     int scriptId;
@@ -36,7 +40,9 @@ public class ScriptConfig {
     long duration;
     TearDown tearDown;
     int pacing;
+    @JsonProperty("isLocalPacingEnabled")
     boolean isLocalPacingEnabled;
+    @JsonProperty("isLocalRtsEnabled")
     boolean isLocalRtsEnabled;
     int locationType;
     int iterations;
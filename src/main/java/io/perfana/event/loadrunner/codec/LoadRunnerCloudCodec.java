@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner.codec;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Converts the api model of LoadRunner Cloud from and to json.
+ *
+ * Implementations are found via {@link ServiceLoader}, the first one on the classpath is used.
+ * Without one, {@link StreamingJacksonCodec} is the default.
+ */
+public interface LoadRunnerCloudCodec {
+
+    /**
+     * @param json the json text
+     * @param type the api model type, or an array of it
+     */
+    <T> T read(String json, Class<T> type) throws IOException;
+
+    String write(Object value) throws IOException;
+
+    static LoadRunnerCloudCodec load() {
+        Iterator<LoadRunnerCloudCodec> codecs = ServiceLoader.load(LoadRunnerCloudCodec.class).iterator();
+        return codecs.hasNext() ? codecs.next() : new StreamingJacksonCodec();
+    }
+}
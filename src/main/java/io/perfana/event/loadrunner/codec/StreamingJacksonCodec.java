@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner.codec;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Default codec: hand-written streaming readers for the types that are read on every poll,
+ * {@link TestRunActive} and {@link TestRunTransaction}, and Jackson databind for the rest.
+ *
+ * The streaming readers skip the reflection and intermediate objects of databind. They follow the
+ * same rules as the model annotations: unknown fields are ignored, null for a primitive is 0.
+ */
+public class StreamingJacksonCodec extends JacksonCodec {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T read(String json, Class<T> type) throws IOException {
+        if (type == TestRunActive[].class) {
+            return (T) readTestRunsActive(json);
+        }
+        if (type == TestRunTransaction[].class) {
+            return (T) readTestRunTransactions(json);
+        }
+        return super.read(json, type);
+    }
+
+    private TestRunActive[] readTestRunsActive(String json) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            expectArray(parser);
+            List<TestRunActive> result = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                result.add(readTestRunActive(parser));
+            }
+            return result.toArray(new TestRunActive[0]);
+        }
+    }
+
+    private static TestRunActive readTestRunActive(JsonParser parser) throws IOException {
+        TestRunActive.TestRunActiveBuilder builder = TestRunActive.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "runId": builder.runId(parser.getValueAsInt()); break;
+                case "testId": builder.testId(parser.getValueAsInt()); break;
+                case "projectId": builder.projectId(parser.getValueAsInt()); break;
+                case "testName": builder.testName(parser.getValueAsString()); break;
+                case "startTime": builder.startTime(parser.getValueAsLong()); break;
+                case "triggeredBy": builder.triggeredBy(parser.getValueAsString()); break;
+                case "status": builder.status(status(parser)); break;
+                default: parser.skipChildren();
+            }
+        }
+        return builder.build();
+    }
+
+    private static TestRunActive.Status status(JsonParser parser) throws IOException {
+        String value = parser.getValueAsString();
+        if (value == null) {
+            return null;
+        }
+        try {
+            return TestRunActive.Status.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException(parser, "Unknown test run status: " + value, e);
+        }
+    }
+
+    private TestRunTransaction[] readTestRunTransactions(String json) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            expectArray(parser);
+            List<TestRunTransaction> result = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                result.add(readTestRunTransaction(parser));
+            }
+            return result.toArray(new TestRunTransaction[0]);
+        }
+    }
+
+    private static TestRunTransaction readTestRunTransaction(JsonParser parser) throws IOException {
+        TestRunTransaction.TestRunTransactionBuilder builder = TestRunTransaction.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "loadTestScriptId": builder.loadTestScriptId(parser.getValueAsInt()); break;
+                case "scriptName": builder.scriptName(parser.getValueAsString()); break;
+                case "name": builder.name(parser.getValueAsString()); break;
+                case "slaStatus": builder.slaStatus(parser.getValueAsString()); break;
+                case "slaThreshold": builder.slaThreshold(nullableDouble(parser)); break;
+                case "min": builder.min(parser.getValueAsDouble()); break;
+                case "max": builder.max(parser.getValueAsDouble()); break;
+                case "avg": builder.avg(parser.getValueAsDouble()); break;
+                case "percentile": builder.percentile(nullableDouble(parser)); break;
+                case "stdDeviation": builder.stdDeviation(parser.getValueAsDouble()); break;
+                case "passed": builder.passed(parser.getValueAsLong()); break;
+                case "failed": builder.failed(parser.getValueAsLong()); break;
+                case "successRate": builder.successRate(nullableDouble(parser)); break;
+                default: parser.skipChildren();
+            }
+        }
+        return builder.build();
+    }
+
+    private static Double nullableDouble(JsonParser parser) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsDouble();
+    }
+
+    private static void expectArray(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected json array, got: " + parser.currentToken());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner.tracing;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends spans to a local file, one json object per line, with the field names of OpenTelemetry (OTLP json).
+ */
+public class FileSpanExporter implements SpanExporter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Path file;
+
+    public FileSpanExporter(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public void export(List<Span> spans) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Span span : spans) {
+                try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+                    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                    write(generator, span);
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    private static void write(JsonGenerator generator, Span span) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("traceId", span.getTraceId());
+        generator.writeStringField("spanId", span.getSpanId());
+        if (span.getParentSpanId() != null) {
+            generator.writeStringField("parentSpanId", span.getParentSpanId());
+        }
+        generator.writeStringField("name", span.getName());
+        generator.writeStringField("kind", "SPAN_KIND_CLIENT");
+        generator.writeStringField("startTimeUnixNano", String.valueOf(span.getStartEpochNanos()));
+        generator.writeStringField("endTimeUnixNano", String.valueOf(span.getEndEpochNanos()));
+        generator.writeObjectFieldStart("status");
+        generator.writeStringField("code", span.getStatus() == Span.Status.OK ? "STATUS_CODE_OK" : "STATUS_CODE_ERROR");
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("attributes");
+        for (Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+            Object value = attribute.getValue();
+            if (value instanceof Number) {
+                generator.writeNumberField(attribute.getKey(), ((Number) value).longValue());
+            } else {
+                generator.writeStringField(attribute.getKey(), String.valueOf(value));
+            }
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the exported spans in memory, for tests and for inspection without a tracing backend.
+ */
+public class InMemorySpanExporter implements SpanExporter {
+
+    private final List<Span> spans = new CopyOnWriteArrayList<>();
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void export(List<Span> batch) {
+        spans.addAll(batch);
+        batchSizes.add(batch.size());
+    }
+
+    public List<Span> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    /**
+     * @return the number of spans of each export call
+     */
+    public List<Integer> getBatchSizes() {
+        return new ArrayList<>(batchSizes);
+    }
+
+    public void reset() {
+        spans.clear();
+        batchSizes.clear();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner.tracing;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A finished span of a call to LoadRunner Cloud, modeled after OpenTelemetry client spans.
+ *
+ * Ids are lowercase hex: 32 characters for the trace id, 16 for span ids.
+ */
+public final class Span {
+
+    public enum Status {
+        OK, ERROR
+    }
+
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final String name;
+    private final long startEpochNanos;
+    private final long endEpochNanos;
+    private final Status status;
+    private final Map<String, Object> attributes;
+
+    public Span(String traceId, String spanId, String parentSpanId, String name,
+                long startEpochNanos, long endEpochNanos, Status status, Map<String, Object> attributes) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.startEpochNanos = startEpochNanos;
+        this.endEpochNanos = endEpochNanos;
+        this.status = status;
+        this.attributes = Collections.unmodifiableMap(new LinkedHashMap<>(attributes));
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return the span id of the enclosing call, or null
+     */
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStartEpochNanos() {
+        return startEpochNanos;
+    }
+
+    public long getEndEpochNanos() {
+        return endEpochNanos;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public String toString() {
+        return "Span{" +
+            "name='" + name + '\'' +
+            ", traceId='" + traceId + '\'' +
+            ", spanId='" + spanId + '\'' +
+            ", parentSpanId='" + parentSpanId + '\'' +
+            ", durationMillis=" + (endEpochNanos - startEpochNanos) / 1_000_000 +
+            ", status=" + status +
+            ", attributes=" + attributes +
+            '}';
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner.tracing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Sends batches of finished spans to a tracing backend.
+ *
+ * Implementations are found via {@link ServiceLoader}, the first one on the classpath is used.
+ * Without one, spans are written to a local file with {@link FileSpanExporter}.
+ * Export is called from one background thread, never from the thread of the call.
+ */
+public interface SpanExporter {
+
+    void export(List<Span> spans) throws IOException;
+
+    /**
+     * Called once after the last export.
+     */
+    default void close() throws IOException {
+    }
+
+    static SpanExporter load(Path file) {
+        Iterator<SpanExporter> exporters = ServiceLoader.load(SpanExporter.class).iterator();
+        return exporters.hasNext() ? exporters.next() : new FileSpanExporter(file);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads for polling, watching and fan-out calls to LoadRunner Cloud.
+ *
+ * This is the Java 21 version of the multi-release jar: the threads mostly sleep or
+ * wait for LoadRunner Cloud, so virtual threads are used. Keep in sync with src/main/java.
+ */
+final class LoadRunnerCloudThreads {
+
+    static final String MODE = "virtual";
+
+    private static final ExecutorService FAN_OUT_EXECUTOR =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("LrcFanOut-", 1).factory());
+
+    private static final ExecutorService PREFETCH_EXECUTOR =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("LrcPrefetch-", 1).factory());
+
+    private LoadRunnerCloudThreads() {
+    }
+
+    /**
+     * Create an unstarted virtual thread, for use in the thread factory of an executor.
+     */
+    static Thread newThread(String name, Runnable runnable) {
+        return Thread.ofVirtual().name(name).unstarted(runnable);
+    }
+
+    /**
+     * Shared executor for short concurrent calls, such as updating all scripts of a load test.
+     * A virtual thread per task. Do not shut down.
+     */
+    static ExecutorService fanOutExecutor() {
+        return FAN_OUT_EXECUTOR;
+    }
+
+    /**
+     * Executor for the prefetch of the next page of a paged call, separate from the fan-out executor
+     * as in the platform version. A virtual thread per task. Do not shut down.
+     */
+    static ExecutorService prefetchExecutor() {
+        return PREFETCH_EXECUTOR;
+    }
+}
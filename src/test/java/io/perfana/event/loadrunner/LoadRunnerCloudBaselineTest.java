@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.LoadRunnerCloudBaselineStore.RunStats;
+import io.perfana.event.loadrunner.LoadRunnerCloudBaselineStore.TransactionStats;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class LoadRunnerCloudBaselineTest {
+
+    private static final BaselineSettings SETTINGS = new BaselineSettings(true, "unused", 3, 10, 20, 30, 1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storeKeepsNewestRuns() {
+        LoadRunnerCloudBaselineStore store = new LoadRunnerCloudBaselineStore(folder.getRoot().toPath().resolve("baselines"), 3, EventLoggerStdOut.INSTANCE_DEBUG);
+        Assert.assertTrue(store.load("123", "1", "2").isEmpty());
+
+        for (int runId = 1; runId <= 5; runId++) {
+            store.add("123", "1", "2", run(runId, 10, 500, 800, 1));
+        }
+        store.add("123", "1", "3", run(9, 10, 500, 800, 1));
+
+        List<RunStats> runs = store.load("123", "1", "2");
+        Assert.assertEquals(3, runs.size());
+        Assert.assertEquals(3, runs.get(0).getRunId());
+        Assert.assertEquals(5, runs.get(2).getRunId());
+        Assert.assertEquals(500, runs.get(2).getTransactions().get(0).getAvgMillis(), 0.001);
+        Assert.assertEquals(1, store.load("123", "1", "3").size());
+    }
+
+    @Test
+    public void medianBaseline() {
+        List<TransactionStats> stats = Arrays.asList(tx("a", 10, 100, 0, 0), tx("a", 10, 900, 0, 0), tx("a", 10, 200, 0, 0));
+        Assert.assertEquals(200, LoadRunnerCloudBaselineComparison.median(stats, TransactionStats::getAvgMillis), 0.001);
+        Assert.assertTrue(Double.isNaN(LoadRunnerCloudBaselineComparison.median(Collections.emptyList(), TransactionStats::getAvgMillis)));
+    }
+
+    @Test
+    public void flagsRegressionsBeyondTolerance() {
+        List<RunStats> baseline = Arrays.asList(run(1, 10, 500, 800, 1), run(2, 10, 500, 800, 1), run(3, 50, 5000, 8000, 50));
+
+        LoadRunnerCloudBaselineComparison same = LoadRunnerCloudBaselineComparison.compare(run(4, 10, 550, 900, 1.5), baseline, SETTINGS);
+        Assert.assertEquals("within tolerance, outlier run 3 ignored by median", 0, same.regressions().size());
+        Assert.assertEquals(10, same.total.avgChangePercentage, 0.001);
+        Assert.assertEquals(3, same.baselineRuns);
+
+        LoadRunnerCloudBaselineComparison worse = LoadRunnerCloudBaselineComparison.compare(run(5, 8, 700, 800, 3), baseline, SETTINGS);
+        Assert.assertEquals(Arrays.asList("throughput", "avg", "errors"), worse.transactions.get(0).regressions);
+        Assert.assertTrue(worse.total.isRegression());
+        Assert.assertEquals(-20, worse.total.throughputChangePercentage, 0.001);
+        Assert.assertEquals(2, worse.total.errorPercentageChange, 0.001);
+    }
+
+    @Test
+    public void noThroughputIsRegression() {
+        List<RunStats> baseline = Collections.singletonList(run(1, 10, 500, 800, 1));
+
+        LoadRunnerCloudBaselineComparison none = LoadRunnerCloudBaselineComparison.compare(run(2, 0, 500, 800, 1), baseline, SETTINGS);
+        Assert.assertEquals(-100, none.total.throughputChangePercentage, 0.001);
+        Assert.assertEquals(Collections.singletonList("throughput"), none.total.regressions);
+    }
+
+    @Test
+    public void unknownResponseTimesAreNotCompared() {
+        // baselines of older versions have no avg and percentile
+        List<RunStats> baseline = Arrays.asList(run(1, 10, 0, 0, 1), run(2, 10, 0, 0, 1), run(3, 10, 500, 800, 1));
+
+        LoadRunnerCloudBaselineComparison comparison = LoadRunnerCloudBaselineComparison.compare(run(4, 10, 500, Double.NaN, 1), baseline, SETTINGS);
+        Assert.assertEquals("median of the known values only", 0, comparison.total.avgChangePercentage, 0.001);
+        Assert.assertTrue(Double.isNaN(comparison.total.percentileChangePercentage));
+        Assert.assertFalse(comparison.total.isRegression());
+    }
+
+    @Test
+    public void storeSerializesConcurrentAdds() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("baselines");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                LoadRunnerCloudBaselineStore store = new LoadRunnerCloudBaselineStore(directory, 100, EventLoggerStdOut.INSTANCE_DEBUG);
+                int firstRunId = thread * 10;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int runId = firstRunId; runId < firstRunId + 10; runId++) {
+                        store.add("123", "1", "2", run(runId, 10, 500, 800, 1));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals("no run is lost", 40,
+            new LoadRunnerCloudBaselineStore(directory, 100, EventLoggerStdOut.INSTANCE_DEBUG).load("123", "1", "2").size());
+    }
+
+    @Test
+    public void newTransactionIsNotCompared() {
+        RunStats current = RunStats.builder().runId(2)
+            .transactions(Collections.singletonList(tx("new", 10, 500, 800, 1)))
+            .total(tx("total", 10, 500, 800, 1)).build();
+
+        LoadRunnerCloudBaselineComparison comparison = LoadRunnerCloudBaselineComparison.compare(current, Collections.singletonList(run(1, 10, 500, 800, 1)), SETTINGS);
+        LoadRunnerCloudBaselineComparison.Delta delta = comparison.transactions.get(0);
+        Assert.assertTrue(Double.isNaN(delta.avgChangePercentage));
+        Assert.assertFalse(delta.isRegression());
+    }
+
+    private static RunStats run(int runId, double throughput, double avg, double percentile, double errorPercentage) {
+        return RunStats.builder()
+            .runId(runId)
+            .timestamp(runId * 1000L)
+            .runStatus("PASSED")
+            .transactions(Collections.singletonList(tx("login", throughput, avg, percentile, errorPercentage)))
+            .total(tx("total", throughput, avg, percentile, errorPercentage))
+            .build();
+    }
+
+    private static TransactionStats tx(String name, double throughput, double avg, double percentile, double errorPercentage) {
+        return TransactionStats.builder().name(name).passed(1000).failed(10)
+            .throughputPerSecond(throughput).avgMillis(avg).percentileMillis(percentile).errorPercentage(errorPercentage).build();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.LoadRunnerCloudCapacitySearch.StepResult;
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudCapacitySearchTest {
+
+    private static final String SCRIPTS_URL = "/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0";
+    private static final String SCRIPT_URL = "/projects/1/load-tests/2/scripts/5?TENANTID=123";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8594));
+
+    private final CapacitySearchSettings settings =
+        new CapacitySearchSettings(true, 10, 10, 100, Duration.ofMinutes(5), 5, 100);
+
+    @Test
+    public void kneeWhenThroughputStopsGrowing() {
+        StepResult step1 = new StepResult(10, 1, 100, 200, 0);
+        StepResult step2 = new StepResult(20, 2, 190, 210, 0);
+        StepResult step3 = new StepResult(30, 3, 195, 300, 0);
+
+        Assert.assertFalse(LoadRunnerCloudCapacitySearch.isKnee(step1, step2, settings));
+        Assert.assertTrue(LoadRunnerCloudCapacitySearch.isKnee(step2, step3, settings));
+    }
+
+    @Test
+    public void kneeWhenResponseTimeDegrades() {
+        StepResult step1 = new StepResult(10, 1, 100, 200, 0);
+        StepResult step2 = new StepResult(20, 2, 150, 500, 0);
+
+        Assert.assertTrue(LoadRunnerCloudCapacitySearch.isKnee(step1, step2, settings));
+    }
+
+    @Test
+    public void distributeVusersProportionally() {
+        List<ScriptConfig> scripts = Arrays.asList(
+            ScriptConfig.builder().id(1).vusersNum(30).build(),
+            ScriptConfig.builder().id(2).vusersNum(10).build());
+
+        List<ScriptConfig> distributed = LoadRunnerCloudCapacitySearch.distributeVusers(scripts, 10);
+
+        Assert.assertEquals(8, distributed.get(0).getVusersNum());
+        Assert.assertEquals(2, distributed.get(1).getVusersNum());
+        Assert.assertEquals(1, distributed.get(0).getId());
+    }
+
+    @Test
+    public void distributeVusersEvenlyWithoutCurrentVusers() {
+        List<ScriptConfig> scripts = Arrays.asList(
+            ScriptConfig.builder().id(1).build(),
+            ScriptConfig.builder().id(2).build(),
+            ScriptConfig.builder().id(3).build());
+
+        List<ScriptConfig> distributed = LoadRunnerCloudCapacitySearch.distributeVusers(scripts, 10);
+
+        Assert.assertEquals(10, distributed.stream().mapToInt(ScriptConfig::getVusersNum).sum());
+    }
+
+    @Test
+    public void distributeVusersOverActiveScriptsOnly() {
+        List<ScriptConfig> scripts = Arrays.asList(
+            ScriptConfig.builder().id(1).isActive(true).vusersNum(30).build(),
+            ScriptConfig.builder().id(2).isActive(false).vusersNum(30).build(),
+            ScriptConfig.builder().id(3).vusersNum(10).build());
+
+        List<ScriptConfig> distributed = LoadRunnerCloudCapacitySearch.distributeVusers(scripts, 20);
+
+        Assert.assertEquals(Arrays.asList(1, 3), distributed.stream().map(ScriptConfig::getId).collect(Collectors.toList()));
+        Assert.assertEquals(20, distributed.stream().mapToInt(ScriptConfig::getVusersNum).sum());
+    }
+
+    @Test
+    public void stepRampUpEndsBeforeMeasurement() throws Exception {
+        stubLogin();
+        wireMockRule.stubFor(get(urlEqualTo(SCRIPTS_URL)))
+            .setResponse(ResponseDefinitionBuilder.okForJson("").withBody("[{\"id\":5,\"vusersNum\":40,\"duration\":1200," +
+                "\"rampUp\":{\"duration\":900}}]").build());
+        wireMockRule.stubFor(put(urlEqualTo(SCRIPT_URL)))
+            .setResponse(ResponseDefinitionBuilder.okForEmptyJson().build());
+        wireMockRule.stubFor(post(urlEqualTo("/projects/1/load-tests/2/runs?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.responseDefinition().withStatus(500).withBody("no load generators").build());
+
+        Assert.assertNull(runSearch());
+
+        // step of 5 minutes: ramp-up of 75 seconds, restored to 900 afterwards
+        wireMockRule.verify(putRequestedFor(urlEqualTo(SCRIPT_URL))
+            .withRequestBody(matchingJsonPath("$[?(@.vusersNum == 10 && @.duration == 600 && @.rampUp.duration == 75)]")));
+        wireMockRule.verify(putRequestedFor(urlEqualTo(SCRIPT_URL))
+            .withRequestBody(matchingJsonPath("$[?(@.vusersNum == 40 && @.rampUp.duration == 900)]")));
+    }
+
+    @Test
+    public void failedStartRestoresScriptsAndReportsNoResult() throws Exception {
+        stubLogin();
+        // as returned by LoadRunner Cloud
+        wireMockRule.stubFor(get(urlEqualTo(SCRIPTS_URL)))
+            .setResponse(ResponseDefinitionBuilder.okForJson("").withBody("[{\"id\":5,\"vusersNum\":40,\"duration\":1200," +
+                "\"isLocalPacingEnabled\":true,\"isLocalRtsEnabled\":true}]").build());
+        wireMockRule.stubFor(put(urlEqualTo(SCRIPT_URL)))
+            .setResponse(ResponseDefinitionBuilder.okForEmptyJson().build());
+        wireMockRule.stubFor(post(urlEqualTo("/projects/1/load-tests/2/runs?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.responseDefinition().withStatus(500).withBody("no load generators").build());
+
+        Assert.assertNull("failure is reported as no result", runSearch());
+
+        // first put sets the step vusers, the last one restores the script as it was read, with the same field names
+        wireMockRule.verify(2, putRequestedFor(urlEqualTo(SCRIPT_URL)));
+        wireMockRule.verify(putRequestedFor(urlEqualTo(SCRIPT_URL))
+            .withRequestBody(matchingJsonPath("$[?(@.vusersNum == 40 && @.duration == 1200)]"))
+            .withRequestBody(matchingJsonPath("$[?(@.isLocalPacingEnabled == true && @.isLocalRtsEnabled == true)]")));
+    }
+
+    @Test
+    public void failedScriptListingReportsNoResult() throws Exception {
+        stubLogin();
+        wireMockRule.stubFor(get(urlEqualTo(SCRIPTS_URL)))
+            .setResponse(ResponseDefinitionBuilder.responseDefinition().withStatus(503).build());
+
+        Assert.assertNull(runSearch());
+        wireMockRule.verify(0, putRequestedFor(urlEqualTo(SCRIPT_URL)));
+    }
+
+    private void stubLogin() {
+        wireMockRule.resetAll();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+    }
+
+    private StepResult runSearch() throws Exception {
+        CompletableFuture<StepResult> result = new CompletableFuture<>();
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8594", EventLoggerStdOut.INSTANCE_DEBUG);
+             LoadRunnerCloudCapacitySearch search = new LoadRunnerCloudCapacitySearch(client, EventLoggerStdOut.INSTANCE_DEBUG, "1", "2",
+                 settings, Duration.ofMillis(10), Duration.ofSeconds(5), Duration.ofSeconds(5))) {
+            client.initApiKey("pp", "hello", "123");
+            search.start(runId -> Assert.fail("no step should run"), result::complete);
+            return result.get(5, TimeUnit.SECONDS);
+        }
+    }
+}
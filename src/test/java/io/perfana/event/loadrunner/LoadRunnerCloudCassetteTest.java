@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.RunReply;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URI;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+
+public class LoadRunnerCloudCassetteTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8586));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordAndReplayWithoutLoadRunnerCloud() {
+        wireMockRule.resetAll();
+        wireMockRule.stubFor(post(urlEqualTo("/v1/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(post(urlEqualTo("/v1/projects/1/load-tests/2/runs?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(RunReply.builder().runId(3).build()).build());
+        wireMockRule.stubFor(get(urlEqualTo("/v1/test-runs/active?TENANTID=123&projectIds=1"))
+                .inScenario("run").whenScenarioStateIs(STARTED).willSetStateTo("running"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { active(TestRunActive.Status.INITIALIZING) })
+                .withFixedDelay(300).build());
+        wireMockRule.stubFor(get(urlEqualTo("/v1/test-runs/active?TENANTID=123&projectIds=1"))
+                .inScenario("run").whenScenarioStateIs("running"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { active(TestRunActive.Status.RUNNING) }).build());
+
+        String file = folder.getRoot().toPath().resolve("lrc-cassette.har.jsonl").toString();
+
+        CassetteSettings record = new CassetteSettings(CassetteSettings.Mode.RECORD, file, 1);
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8586/v1", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.captureTraffic(LoadRunnerCloudTrafficCapture.recordCassette(record, EventLoggerStdOut.INSTANCE_DEBUG));
+            client.initApiKey("pp", "hello", "123");
+            Assert.assertEquals(3, client.startRun("1", "2").getRunId());
+            Assert.assertEquals(TestRunActive.Status.INITIALIZING, client.testRunsActive("1").get(0).getStatus());
+            Assert.assertEquals(TestRunActive.Status.RUNNING, client.testRunsActive("1").get(0).getStatus());
+        }
+
+        // nothing listens on port 1, and another base path
+        CassetteSettings replay = new CassetteSettings(CassetteSettings.Mode.REPLAY, file, 10);
+        long start = System.nanoTime();
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:1/v2", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.replayFrom(LoadRunnerCloudCassette.load(replay, EventLoggerStdOut.INSTANCE_DEBUG));
+            client.initApiKey("pp", "hello", "123");
+            Assert.assertEquals(3, client.startRun("1", "2").getRunId());
+            Assert.assertEquals(TestRunActive.Status.INITIALIZING, client.testRunsActive("1").get(0).getStatus());
+            Assert.assertEquals(TestRunActive.Status.RUNNING, client.testRunsActive("1").get(0).getStatus());
+            Assert.assertEquals("last response is repeated", TestRunActive.Status.RUNNING, client.testRunsActive("1").get(0).getStatus());
+
+            try {
+                client.testRunsActive("7");
+                Assert.fail("expected no recorded exchange");
+            } catch (LoadRunnerCloudClientException e) {
+                Assert.assertTrue(e.getMessage().contains("GET /test-runs/active?TENANTID=***&projectIds=7"));
+            }
+        }
+        long replayMillis = (System.nanoTime() - start) / 1_000_000;
+        Assert.assertTrue("recorded delay of 300 ms is compressed: " + replayMillis, replayMillis < 250);
+    }
+
+    @Test
+    public void keyIgnoresBaseUrlAndParameterOrder() {
+        Assert.assertEquals("GET /test-runs/active?TENANTID=***&projectIds=2",
+            LoadRunnerCloudCassette.key("get", URI.create("https://lrc.example.com/v1/test-runs/active?projectIds=2&TENANTID=1")));
+        Assert.assertEquals("POST /projects/1/load-tests/2/runs?TENANTID=***",
+            LoadRunnerCloudCassette.key("POST", URI.create("http://localhost:8586/projects/1/load-tests/2/runs?TENANTID=1")));
+    }
+
+    private static TestRunActive active(TestRunActive.Status status) {
+        return TestRunActive.builder().projectId(1).testId(2).runId(3).status(status).build();
+    }
+}
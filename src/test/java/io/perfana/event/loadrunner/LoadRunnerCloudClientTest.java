@@ -17,9 +17,11 @@ package io.perfana.event.loadrunner;
 
 import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.LoadTest;
 import io.perfana.event.loadrunner.api.RuntimeAdditionalAttribute;
 import io.perfana.event.loadrunner.api.ScriptConfig;
 import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.TestRunTransaction;
 import io.perfana.event.loadrunner.api.Token;
 import io.perfana.eventscheduler.log.EventLoggerStdOut;
 import org.junit.Assert;
@@ -27,8 +29,13 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
@@ -52,7 +59,7 @@ public class LoadRunnerCloudClientTest {
             .setResponse(ResponseDefinitionBuilder.okForEmptyJson().build());
 
         ScriptConfig scriptConfig = ScriptConfig.builder().scriptId(5).build();
-        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123")))
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0")))
             .setResponse(ResponseDefinitionBuilder.okForJson(new ScriptConfig[] {scriptConfig}).build());
 
         RuntimeAdditionalAttribute attribute = RuntimeAdditionalAttribute.builder()
@@ -78,7 +85,7 @@ public class LoadRunnerCloudClientTest {
             .setResponse(ResponseDefinitionBuilder.okForEmptyJson().build());
 
         ScriptConfig scriptConfig = ScriptConfig.builder().id(5).scriptId(501).build();
-        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123")))
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0")))
             .setResponse(ResponseDefinitionBuilder.okForJson(new ScriptConfig[] {scriptConfig}).build());
 
         RuntimeAdditionalAttribute attribute = RuntimeAdditionalAttribute.builder()
@@ -92,6 +99,102 @@ public class LoadRunnerCloudClientTest {
         client.addAdditionalRuntimeSettingsAttributesForAllScriptsOfTest("1","2", Arrays.asList(attributes));
     }
 
+    @Test
+    public void addAdditionalRuntimeSettingsAttributesForAllScriptsOfTestConcurrently() {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+
+        ScriptConfig[] scriptConfigs = {
+            ScriptConfig.builder().id(5).build(), ScriptConfig.builder().id(6).build(), ScriptConfig.builder().id(7).build() };
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(scriptConfigs).build());
+
+        RuntimeAdditionalAttribute[] attributes = { RuntimeAdditionalAttribute.builder().name("testName").value("testValue").build() };
+        wireMockRule.stubFor(put(urlMatching("/projects/1/load-tests/2/scripts/./rts/additional-attributes\\?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(attributes).withFixedDelay(500).build());
+
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8568", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+        long start = System.currentTimeMillis();
+        client.addAdditionalRuntimeSettingsAttributesForAllScriptsOfTest("1","2", Arrays.asList(attributes));
+        long duration = System.currentTimeMillis() - start;
+
+        wireMockRule.verify(3, putRequestedFor(urlMatching("/projects/1/load-tests/2/scripts/./rts/additional-attributes\\?TENANTID=123")));
+        Assert.assertTrue("scripts are updated concurrently, took " + duration + " ms", duration < 1_400);
+    }
+
+    @Test
+    public void loadTestsPaged() {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+        LoadTest[] firstPage = { LoadTest.builder().id(1).name("one").build(), LoadTest.builder().id(2).name("two").build() };
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests?TENANTID=123&limit=2&offset=0")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(firstPage).build());
+        LoadTest[] secondPage = { LoadTest.builder().id(3).name("three").build() };
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests?TENANTID=123&limit=2&offset=2")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(secondPage).build());
+
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8568", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+        List<String> names = client.loadTestsPaged("1", 2).stream().map(LoadTest::getName).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("one", "two", "three"), names);
+    }
+
+    @Test
+    public void scriptsForTestRunReadsAllPages() {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+        ScriptConfig[] firstPage = IntStream.range(0, LoadRunnerCloudClient.SCRIPTS_PAGE_SIZE)
+            .mapToObj(id -> ScriptConfig.builder().id(id).build())
+            .toArray(ScriptConfig[]::new);
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(firstPage).build());
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=100")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new ScriptConfig[] { ScriptConfig.builder().id(100).build() }).build());
+
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8568", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+        List<ScriptConfig> scriptConfigs = client.scriptsForTestRun("1", "2");
+        Assert.assertEquals(101, scriptConfigs.size());
+        Assert.assertEquals(100, scriptConfigs.get(100).getId());
+    }
+
+    @Test
+    public void pagedCallsFromSaturatedFanOut() throws Exception {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        ScriptConfig[] firstPage = IntStream.range(0, LoadRunnerCloudClient.SCRIPTS_PAGE_SIZE)
+            .mapToObj(id -> ScriptConfig.builder().id(id).build())
+            .toArray(ScriptConfig[]::new);
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(firstPage).build());
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=100")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new ScriptConfig[] { ScriptConfig.builder().id(100).build() }).build());
+
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8568", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+
+        // more paged calls than fan-out threads, each waits for its prefetch
+        List<Future<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < LoadRunnerCloudThreads.FAN_OUT_MAX_THREADS * 2; i++) {
+            calls.add(LoadRunnerCloudThreads.fanOutExecutor().submit(() -> client.scriptsForTestRun("1", "2").size()));
+        }
+        for (Future<Integer> call : calls) {
+            Assert.assertEquals(Integer.valueOf(101), call.get(30, TimeUnit.SECONDS));
+        }
+    }
+
     @Test
     public void scriptInfoForTestRun() {
         String testToken = "8457258394";
@@ -101,7 +204,7 @@ public class LoadRunnerCloudClientTest {
         Token token = Token.builder().token(testToken).build();
         wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
             .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
-        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123")))
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0")))
             .setResponse(ResponseDefinitionBuilder.okForJson(new ScriptConfig[] { ScriptConfig.builder().build() }).build());
 
         LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8568", EventLoggerStdOut.INSTANCE_DEBUG);
@@ -180,4 +283,24 @@ public class LoadRunnerCloudClientTest {
         Assert.assertTrue("running test expected in second call",
             testRunActives2.stream().anyMatch(t -> t.getStatus() == TestRunActive.Status.RUNNING));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRunTransactions() {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+
+        TestRunTransaction transaction = TestRunTransaction.builder().name("login").passed(10).failed(2).avg(0.25).build();
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/7/transactions?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction }).build());
+
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8568", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+
+        List<TestRunTransaction> transactions = client.testRunTransactions(7);
+        Assert.assertEquals(1, transactions.size());
+        Assert.assertEquals(2, transactions.get(0).getFailed());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+public class LoadRunnerCloudEarlyAbortGuardTest {
+
+    private static final long MINUTE = 60_000;
+
+    @Test
+    public void errorPercentageSustainedTriggersAbort() {
+        EarlyAbortThresholds thresholds = new EarlyAbortThresholds(50, 0, 0, Duration.ofMinutes(2), Duration.ofMinutes(1));
+        LoadRunnerCloudEarlyAbortGuard guard = new LoadRunnerCloudEarlyAbortGuard(null, EventLoggerStdOut.INSTANCE_DEBUG, 7, thresholds);
+
+        Assert.assertNull("first check only sets the baseline", guard.check(transactions(100, 0, 0.2), 0));
+        Assert.assertNull("healthy interval", guard.check(transactions(200, 10, 0.2), MINUTE));
+        Assert.assertNull("breach not sustained yet", guard.check(transactions(210, 100, 0.2), 2 * MINUTE));
+        Assert.assertNotNull("breach sustained", guard.check(transactions(220, 200, 0.2), 3 * MINUTE));
+    }
+
+    @Test
+    public void recoveryResetsBreach() {
+        EarlyAbortThresholds thresholds = new EarlyAbortThresholds(50, 0, 0, Duration.ofMinutes(2), Duration.ofMinutes(1));
+        LoadRunnerCloudEarlyAbortGuard guard = new LoadRunnerCloudEarlyAbortGuard(null, EventLoggerStdOut.INSTANCE_DEBUG, 7, thresholds);
+
+        guard.check(transactions(0, 0, 0), 0);
+        Assert.assertNull(guard.check(transactions(10, 90, 0.2), MINUTE));
+        Assert.assertNull("recovered", guard.check(transactions(110, 90, 0.2), 2 * MINUTE));
+        Assert.assertNull("new breach starts over", guard.check(transactions(120, 190, 0.2), 3 * MINUTE));
+    }
+
+    @Test
+    public void intervalAverageResponseTime() {
+        TransactionIntervalTracker tracker = new TransactionIntervalTracker();
+
+        Assert.assertNull(tracker.nextInterval(transactions(100, 0, 0.5), 0));
+        // cumulative avg 1.0 s over 200 means the last 100 took 1.5 s on average
+        TransactionIntervalTracker.IntervalStats stats = tracker.nextInterval(transactions(200, 0, 1.0), MINUTE);
+        Assert.assertEquals(1500, stats.avgResponseTimeMillis, 0.001);
+        Assert.assertEquals(100, stats.passed);
+    }
+
+    @Test
+    public void averageResponseTimeAboveThresholdTriggersAbort() {
+        EarlyAbortThresholds thresholds = new EarlyAbortThresholds(0, 0, 1000, Duration.ZERO, Duration.ofMinutes(1));
+        LoadRunnerCloudEarlyAbortGuard guard = new LoadRunnerCloudEarlyAbortGuard(null, EventLoggerStdOut.INSTANCE_DEBUG, 7, thresholds);
+
+        guard.check(transactions(100, 0, 0.5), 0);
+        Assert.assertNotNull(guard.check(transactions(200, 0, 1.0), MINUTE));
+    }
+
+    @Test
+    public void failedTransactionsPerMinute() {
+        EarlyAbortThresholds thresholds = new EarlyAbortThresholds(0, 100, 0, Duration.ZERO, Duration.ofMinutes(1));
+        LoadRunnerCloudEarlyAbortGuard guard = new LoadRunnerCloudEarlyAbortGuard(null, EventLoggerStdOut.INSTANCE_DEBUG, 7, thresholds);
+
+        guard.check(transactions(1000, 0, 0.1), 0);
+        Assert.assertNull(guard.check(transactions(2000, 50, 0.1), MINUTE));
+        Assert.assertNotNull(guard.check(transactions(3000, 200, 0.1), 2 * MINUTE));
+    }
+
+    @Test
+    public void reasonDoesNotDependOnDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            EarlyAbortThresholds thresholds = new EarlyAbortThresholds(50, 0, 0, Duration.ZERO, Duration.ofMinutes(1));
+            LoadRunnerCloudEarlyAbortGuard guard = new LoadRunnerCloudEarlyAbortGuard(null, EventLoggerStdOut.INSTANCE_DEBUG, 7, thresholds);
+
+            guard.check(transactions(0, 0, 0), 0);
+            String reason = guard.check(transactions(25, 75, 0.2), MINUTE);
+            Assert.assertTrue(reason, reason.startsWith("error percentage 75.0% above 50.0%"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    private static List<TestRunTransaction> transactions(long passed, long failed, double avg) {
+        // split over two transactions to check the totals
+        return Arrays.asList(
+            TestRunTransaction.builder().name("login").passed(passed / 2).failed(failed / 2).avg(avg).build(),
+            TestRunTransaction.builder().name("search").passed(passed - passed / 2).failed(failed - failed / 2).avg(avg).build());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.TestRun;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudEndpointSelectorTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8582));
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/v1/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+    }
+
+    @Test
+    public void parseBaseUrls() {
+        Assert.assertEquals(Arrays.asList("https://a/v1", "https://b/v1"),
+            LoadRunnerCloudEndpointSelector.parseBaseUrls(" https://a/v1 ,https://b/v1,"));
+    }
+
+    @Test
+    public void fastestHealthyFirstAndCached() {
+        List<String> candidates = Arrays.asList("https://slow/v1", "https://down/v1", "https://fast/v1");
+        Map<String, Long> latencies = new HashMap<>();
+        latencies.put("https://slow/v1", 80_000_000L);
+        latencies.put("https://down/v1", LoadRunnerCloudEndpointSelector.PROBE_FAILED);
+        latencies.put("https://fast/v1", 20_000_000L);
+        AtomicInteger probeCount = new AtomicInteger();
+
+        LoadRunnerCloudEndpointSelector selector = new LoadRunnerCloudEndpointSelector(candidates, Duration.ofMinutes(10),
+            EventLoggerStdOut.INSTANCE_DEBUG, baseUrl -> { probeCount.incrementAndGet(); return latencies.get(baseUrl); });
+        selector.invalidate();
+
+        Assert.assertEquals(Arrays.asList("https://fast/v1", "https://slow/v1", "https://down/v1"), selector.select());
+        Assert.assertEquals(3, probeCount.get());
+
+        selector.select();
+        Assert.assertEquals("second selection comes from cache", 3, probeCount.get());
+
+        selector.invalidate();
+        selector.select();
+        Assert.assertEquals(6, probeCount.get());
+    }
+
+    @Test
+    public void cacheExpiresWithClock() {
+        List<String> candidates = Arrays.asList("https://clock-a/v1", "https://clock-b/v1");
+        AtomicInteger probeCount = new AtomicInteger();
+        VirtualClock clock = new VirtualClock(Instant.parse("2024-01-01T10:00:00Z"));
+
+        LoadRunnerCloudEndpointSelector selector = new LoadRunnerCloudEndpointSelector(candidates, Duration.ofMinutes(10),
+            EventLoggerStdOut.INSTANCE_DEBUG, baseUrl -> { probeCount.incrementAndGet(); return 20_000_000L; });
+        selector.useClock(clock);
+        selector.invalidate();
+
+        selector.select();
+        clock.advance(Duration.ofMinutes(9));
+        selector.select();
+        Assert.assertEquals("cached within the cache duration", 2, probeCount.get());
+
+        clock.advance(Duration.ofMinutes(2));
+        selector.select();
+        Assert.assertEquals("probed again after the cache duration", 4, probeCount.get());
+        selector.invalidate();
+    }
+
+    @Test
+    public void probesRunOnFanOutThreadsWithTimeout() {
+        List<String> candidates = Arrays.asList("https://hanging/v1", "https://fast/v1");
+        List<String> probeThreads = new java.util.concurrent.CopyOnWriteArrayList<>();
+
+        LoadRunnerCloudEndpointSelector selector = new LoadRunnerCloudEndpointSelector(candidates, Duration.ofMinutes(10),
+            EventLoggerStdOut.INSTANCE_DEBUG, baseUrl -> {
+                probeThreads.add(Thread.currentThread().getName());
+                if (baseUrl.contains("hanging")) {
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return 20_000_000L;
+            }, Duration.ofMillis(200));
+        selector.invalidate();
+
+        long start = System.nanoTime();
+        Assert.assertEquals(Arrays.asList("https://fast/v1", "https://hanging/v1"), selector.select());
+        Assert.assertTrue("selection waits at most the probe timeout", System.nanoTime() - start < 5_000_000_000L);
+        Assert.assertTrue(probeThreads.toString(), probeThreads.stream().allMatch(name -> name.startsWith("LrcFanOut")));
+    }
+
+    @Test
+    public void probeRefusedPort() {
+        Assert.assertEquals(LoadRunnerCloudEndpointSelector.PROBE_FAILED, LoadRunnerCloudEndpointSelector.probe("http://localhost:1/v1", 1_000));
+        Assert.assertNotEquals(LoadRunnerCloudEndpointSelector.PROBE_FAILED, LoadRunnerCloudEndpointSelector.probe("http://localhost:8582/v1", 1_000));
+    }
+
+    @Test
+    public void clientFailsOverToNextBaseUrl() {
+        wireMockRule.stubFor(get(urlEqualTo("/v1/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).build());
+
+        AtomicInteger failoverCount = new AtomicInteger();
+        List<String> baseUrls = Arrays.asList("http://localhost:1/v1", "http://localhost:8582/v1");
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient(baseUrls, EventLoggerStdOut.INSTANCE_DEBUG,
+                NetworkProfile.defaults(), failoverCount::incrementAndGet)) {
+            client.initApiKey("pp", "hello", "123");
+            Assert.assertEquals("http://localhost:8582/v1", client.getBaseUrl());
+            Assert.assertEquals(0, client.testRunsActive("1").size());
+        }
+        Assert.assertEquals(1, failoverCount.get());
+    }
+
+    @Test
+    public void clientFailsOverAfterSocketTimeout() {
+        wireMockRule.stubFor(get(urlEqualTo("/v1/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).withFixedDelay(1_000).build());
+        wireMockRule.stubFor(get(urlEqualTo("/v2/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).build());
+        wireMockRule.stubFor(post(urlEqualTo("/v2/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+
+        NetworkProfile profile = NetworkProfile.builder().statusSocketTimeoutMillis(200).build();
+        List<String> baseUrls = Arrays.asList("http://localhost:8582/v1", "http://localhost:8582/v2");
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient(baseUrls, EventLoggerStdOut.INSTANCE_DEBUG, profile, () -> {})) {
+            client.initApiKey("pp", "hello", "123");
+            for (int i = 0; i < LoadRunnerCloudClient.SOCKET_TIMEOUTS_BEFORE_FAILOVER; i++) {
+                Assert.assertEquals("no failover yet", "http://localhost:8582/v1", client.getBaseUrl());
+                assertSocketTimeout(() -> client.testRunsActive("1"));
+            }
+            // no retry of the timed out calls, but the next call goes to the next endpoint after a new login
+            Assert.assertEquals(0, client.testRunsActive("1").size());
+        }
+        wireMockRule.verify(LoadRunnerCloudClient.SOCKET_TIMEOUTS_BEFORE_FAILOVER, getRequestedFor(urlEqualTo("/v1/test-runs/active?TENANTID=123&projectIds=1")));
+        wireMockRule.verify(1, postRequestedFor(urlEqualTo("/v2/auth?TENANTID=123")));
+        wireMockRule.verify(1, getRequestedFor(urlEqualTo("/v2/test-runs/active?TENANTID=123&projectIds=1")));
+    }
+
+    @Test
+    public void clientStaysAfterTimeoutsThatAreNotInARow() {
+        wireMockRule.stubFor(get(urlEqualTo("/v1/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).withFixedDelay(1_000).build());
+        wireMockRule.stubFor(get(urlEqualTo("/v1/test-runs/7?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(TestRun.builder().runId(7).status("RUNNING").build()).build());
+
+        AtomicInteger failoverCount = new AtomicInteger();
+        NetworkProfile profile = NetworkProfile.builder().statusSocketTimeoutMillis(200).build();
+        List<String> baseUrls = Arrays.asList("http://localhost:8582/v1", "http://localhost:8582/v2");
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient(baseUrls, EventLoggerStdOut.INSTANCE_DEBUG, profile, failoverCount::incrementAndGet)) {
+            client.initApiKey("pp", "hello", "123");
+            for (int i = 0; i < LoadRunnerCloudClient.SOCKET_TIMEOUTS_BEFORE_FAILOVER; i++) {
+                for (int j = 1; j < LoadRunnerCloudClient.SOCKET_TIMEOUTS_BEFORE_FAILOVER; j++) {
+                    assertSocketTimeout(() -> client.testRunsActive("1"));
+                }
+                // an answer in between resets the count
+                client.testRun(7);
+            }
+            Assert.assertEquals("http://localhost:8582/v1", client.getBaseUrl());
+        }
+        Assert.assertEquals(0, failoverCount.get());
+    }
+
+    private static void assertSocketTimeout(Runnable call) {
+        try {
+            call.run();
+            Assert.fail("expected socket timeout");
+        } catch (LoadRunnerCloudClientException e) {
+            Assert.assertTrue(e.getCause() instanceof java.net.SocketTimeoutException);
+        }
+    }
+}
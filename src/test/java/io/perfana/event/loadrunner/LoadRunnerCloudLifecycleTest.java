@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import io.perfana.event.loadrunner.api.RunReply;
+import io.perfana.event.loadrunner.api.TestRun;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.EventMessageBusSimple;
+import io.perfana.eventscheduler.api.config.TestConfig;
+import io.perfana.eventscheduler.api.config.TestContext;
+import io.perfana.eventscheduler.api.message.EventMessageBus;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudLifecycleTest {
+
+    private static final int CYCLES = 20;
+
+    private final AtomicInteger unexpectedOutcomes = new AtomicInteger();
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8578));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+
+        TestRunActive initializing = TestRunActive.builder()
+            .projectId(1).testId(2).runId(3).testName("test").status(TestRunActive.Status.INITIALIZING).build();
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { initializing }).build());
+
+        TestRunActive running = TestRunActive.builder()
+            .projectId(2).testId(2).runId(4).testName("test").status(TestRunActive.Status.RUNNING).build();
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=2")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { running }).build());
+    }
+
+    @Test
+    public void closeCancelsPollingAndReleasesResources() throws InterruptedException {
+        // warm up so lazily created jvm and wiremock threads do not count as leaks
+        runCycle("1", 3);
+
+        int baselineThreads = countPollerThreads();
+        long baselineOpenFiles = openFileDescriptors();
+
+        for (int i = 0; i < CYCLES; i++) {
+            runCycle("1", 3);
+        }
+
+        Assert.assertEquals("no outcome expected after close", 0, unexpectedOutcomes.get());
+        // a poller thread of another test class might still be ending, so at most the baseline
+        Assert.assertTrue("poller threads should be stopped",
+            waitForThreadsAtMost(LoadRunnerCloudLifecycleTest::countPollerThreads, baselineThreads));
+        if (baselineOpenFiles >= 0) {
+            Assert.assertTrue("open file descriptors should return to baseline",
+                waitForOpenFileDescriptorsAtMost(baselineOpenFiles + 5));
+        }
+    }
+
+    @Test
+    public void outcomeHandlerIsCalledWhenRunning() throws InterruptedException {
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8578", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+
+        CountDownLatch running = new CountDownLatch(1);
+        try (LoadRunnerCloudRunPoller poller = new LoadRunnerCloudRunPoller(client, EventLoggerStdOut.INSTANCE_DEBUG, Duration.ofMillis(10), Duration.ofSeconds(10))) {
+            poller.start("2", 4, outcome -> {
+                if (outcome == LoadRunnerCloudRunPoller.Outcome.RUNNING) running.countDown();
+            });
+            Assert.assertTrue("expected RUNNING outcome", running.await(5, TimeUnit.SECONDS));
+        } finally {
+            client.close();
+        }
+        // a thread of an executor ends just after the executor terminates
+        Assert.assertTrue("poller threads should be stopped", waitForThreadsAtMost(LoadRunnerCloudLifecycleTest::countPollerThreads, 0));
+    }
+
+    @Test
+    public void eventCyclesReleaseThreadsAndFiles() throws InterruptedException {
+        stubEventRun();
+        BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        EventMessageBus messageBus = new EventMessageBusSimple();
+        messageBus.addReceiver(message -> {
+            if ("Go!".equals(message.getMessage()) || "Stop!".equals(message.getMessage())) messages.add(message.getMessage());
+        });
+        LoadRunnerCloudEventContext context = eventConfig(folder.getRoot().toPath()).toContext();
+        TestConfig testConfig = new TestConfig();
+        testConfig.setTestRunId("lifecycle");
+        testConfig.setRampupTimeInSeconds(10);
+        testConfig.setConstantLoadTimeInSeconds(60);
+        TestContext testContext = testConfig.toContext();
+
+        // warm up so lazily created jvm, wiremock and fan-out threads do not count as leaks
+        runEventCycle(new LoadRunnerCloudEvent(context, testContext, messageBus, EventLoggerStdOut.INSTANCE), messages, false);
+
+        int baselineThreads = countPluginThreads();
+        long baselineOpenFiles = openFileDescriptors();
+
+        for (int i = 0; i < CYCLES / 2; i++) {
+            // a new event per cycle, as the scheduler does per test run, and one event used twice
+            LoadRunnerCloudEvent event = new LoadRunnerCloudEvent(context, testContext, messageBus, EventLoggerStdOut.INSTANCE);
+            runEventCycle(event, messages, i % 2 == 0);
+            runEventCycle(event, messages, i % 2 != 0);
+        }
+
+        Assert.assertTrue("plugin threads should be stopped", waitForThreadsAtMost(LoadRunnerCloudLifecycleTest::countPluginThreads, baselineThreads));
+        Assert.assertEquals("status batch registrations should be released", 0, LoadRunnerCloudStatusBatch.batchCount());
+        if (baselineOpenFiles >= 0) {
+            Assert.assertTrue("open file descriptors should return to baseline",
+                waitForOpenFileDescriptorsAtMost(baselineOpenFiles + 5));
+        }
+        wireMockRule.verify(CYCLES / 2, putRequestedFor(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP")));
+    }
+
+    @Test
+    public void abortDuringLoginDoesNotStartRun() throws InterruptedException {
+        stubEventRun();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(Token.builder().token("8457258394").build()).withFixedDelay(500).build());
+        LoadRunnerCloudEventConfig config = eventConfig(folder.getRoot().toPath());
+        config.setStatusBatchEnabled(false);
+        TestConfig testConfig = new TestConfig();
+        testConfig.setTestRunId("abort-during-login");
+        LoadRunnerCloudEvent event = new LoadRunnerCloudEvent(config.toContext(), testConfig.toContext(),
+            new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE_DEBUG);
+
+        Thread beforeTest = new Thread(event::beforeTest);
+        beforeTest.start();
+        Thread.sleep(100);
+        event.abortTest();
+        beforeTest.join(5_000);
+
+        Assert.assertFalse(beforeTest.isAlive());
+        wireMockRule.verify(0, postRequestedFor(urlEqualTo("/projects/5/load-tests/6/runs?TENANTID=123")));
+        wireMockRule.verify(0, putRequestedFor(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP")));
+    }
+
+    @Test
+    public void abortDuringStartRunLeavesNoJournalEntry() throws InterruptedException {
+        stubEventRun();
+        wireMockRule.stubFor(post(urlEqualTo("/projects/5/load-tests/6/runs?TENANTID=123")).inScenario("run")
+            .willSetStateTo("running")
+            .willReturn(ResponseDefinitionBuilder.okForJson(RunReply.builder().runId(7).build()).withFixedDelay(500)));
+        LoadRunnerCloudEventConfig config = eventConfig(folder.getRoot().toPath());
+        config.setStatusBatchEnabled(false);
+        TestConfig testConfig = new TestConfig();
+        testConfig.setTestRunId("abort-during-start-run");
+        LoadRunnerCloudEvent event = new LoadRunnerCloudEvent(config.toContext(), testConfig.toContext(),
+            new EventMessageBusSimple(), EventLoggerStdOut.INSTANCE_DEBUG);
+
+        Thread beforeTest = new Thread(event::beforeTest);
+        beforeTest.start();
+        // abort while the run is being started: abortTest waits for its runId to stop it
+        Thread.sleep(300);
+        event.abortTest();
+        beforeTest.join(5_000);
+
+        Assert.assertFalse(beforeTest.isAlive());
+        wireMockRule.verify(1, putRequestedFor(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP")));
+        LoadRunnerCloudRunJournal journal = new LoadRunnerCloudRunJournal(folder.getRoot().toPath().resolve("journal.json"), EventLoggerStdOut.INSTANCE_DEBUG);
+        Assert.assertTrue("aborted run should not stay in the journal: " + journal.entries(), journal.entries().isEmpty());
+    }
+
+    private void runEventCycle(LoadRunnerCloudEvent event, BlockingQueue<String> messages, boolean abort) throws InterruptedException {
+        messages.clear();
+        event.beforeTest();
+        Assert.assertEquals("Go!", messages.poll(10, TimeUnit.SECONDS));
+        if (abort) {
+            event.abortTest();
+        }
+        else {
+            event.afterTest();
+        }
+        Assert.assertNull("no Stop! expected", messages.poll());
+    }
+
+    private static LoadRunnerCloudEventConfig eventConfig(Path directory) {
+        LoadRunnerCloudEventConfig config = new LoadRunnerCloudEventConfig();
+        config.setName("lifecycle");
+        config.setLoadRunnerUser("pp");
+        config.setLoadRunnerPassword("hello");
+        config.setLoadRunnerTenantId("123");
+        config.setLoadRunnerProjectId("5");
+        config.setLoadRunnerLoadTestId("6");
+        config.setLoadRunnerBaseUrls("http://localhost:8578");
+        config.setPollingPeriodInSeconds(1);
+        config.setStopConfirmMaxDurationInSeconds(5);
+        config.setStatusBatchEnabled(true);
+        config.setWatchdogEnabled(true);
+        config.setEarlyAbortMaxErrorPercentage(50);
+        config.setEarlyAbortCheckPeriodInSeconds(1);
+        config.setTransactionSummaryEnabled(true);
+        config.setTransactionSummarySamplePeriodInSeconds(1);
+        config.setResultCheckEnabled(true);
+        config.setTrafficCaptureEnabled(true);
+        config.setTrafficCaptureFile(directory.resolve("traffic.har.jsonl").toString());
+        config.setTracingEnabled(true);
+        config.setTracingFile(directory.resolve("spans.jsonl").toString());
+        config.setRunJournalEnabled(true);
+        config.setRunJournalFile(directory.resolve("journal.json").toString());
+        return config;
+    }
+
+    private void stubEventRun() {
+        String scenario = "run";
+        wireMockRule.stubFor(post(urlEqualTo("/projects/5/load-tests/6/runs?TENANTID=123")).inScenario(scenario)
+            .willSetStateTo("running")
+            .willReturn(ResponseDefinitionBuilder.okForJson(RunReply.builder().runId(7).build())));
+        wireMockRule.stubFor(put(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP")).inScenario(scenario)
+            .willSetStateTo("stopped")
+            .willReturn(ResponseDefinitionBuilder.okForJson(RunReply.builder().runId(7).build())));
+
+        TestRunActive running = TestRunActive.builder()
+            .projectId(5).testId(6).runId(7).testName("test").status(TestRunActive.Status.RUNNING).build();
+        wireMockRule.stubFor(get(urlPathEqualTo("/test-runs/active")).withQueryParam("projectIds", equalTo("5"))
+            .inScenario(scenario).whenScenarioStateIs("running")
+            .willReturn(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { running })));
+        wireMockRule.stubFor(get(urlPathEqualTo("/test-runs/active")).withQueryParam("projectIds", equalTo("5"))
+            .inScenario(scenario).whenScenarioStateIs("stopped")
+            .willReturn(ResponseDefinitionBuilder.okForJson(new TestRunActive[0])));
+        wireMockRule.stubFor(get(urlPathEqualTo("/test-runs/active")).withQueryParam("projectIds", equalTo("5"))
+            .inScenario(scenario).whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(ResponseDefinitionBuilder.okForJson(new TestRunActive[0])));
+
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/7?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(TestRun.builder().runId(7).testId(6).status("PASSED").build()).build());
+        TestRunTransaction transaction = TestRunTransaction.builder().name("login").avg(0.2).passed(100).failed(0).build();
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/7/transactions?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction }).build());
+    }
+
+    private static int countPluginThreads() {
+        return (int) Thread.getAllStackTraces().keySet().stream()
+            .filter(Thread::isAlive)
+            .filter(t -> t.getName().startsWith("Lrc") && !t.getName().startsWith("LrcFanOut"))
+            .count();
+    }
+
+    private static boolean waitForThreadsAtMost(IntSupplier threadCount, int max) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            if (threadCount.getAsInt() <= max) return true;
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    private void runCycle(String projectId, int runId) throws InterruptedException {
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8578", EventLoggerStdOut.INSTANCE);
+        client.initApiKey("pp", "hello", "123");
+        LoadRunnerCloudRunPoller poller = new LoadRunnerCloudRunPoller(client, EventLoggerStdOut.INSTANCE, Duration.ofMillis(10), Duration.ofMinutes(5));
+        poller.start(projectId, runId, outcome -> unexpectedOutcomes.incrementAndGet());
+        Thread.sleep(30);
+        poller.close();
+        client.close();
+    }
+
+    private static int countPollerThreads() {
+        return (int) Thread.getAllStackTraces().keySet().stream()
+            .filter(Thread::isAlive)
+            .filter(t -> LoadRunnerCloudRunPoller.THREAD_NAME.equals(t.getName()))
+            .count();
+    }
+
+    private static long openFileDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    private static boolean waitForOpenFileDescriptorsAtMost(long max) throws InterruptedException {
+        // server side sockets of wiremock close asynchronously
+        for (int i = 0; i < 50; i++) {
+            if (openFileDescriptors() <= max) return true;
+            Thread.sleep(100);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.LoadTestLocation;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudLocationPlannerTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8590));
+
+    private final List<LoadTestLocation> locations = Arrays.asList(
+        LoadTestLocation.builder().id(1).location("US East").vusersPercent(100).build(),
+        LoadTestLocation.builder().id(2).location("EU West").vusersPercent(0).build(),
+        LoadTestLocation.builder().id(3).location("Asia Pacific").vusersPercent(0).build());
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/locations?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(locations).build());
+        wireMockRule.stubFor(put(urlPathMatching("/projects/1/load-tests/2/locations/.*")))
+            .setResponse(ResponseDefinitionBuilder.okForEmptyJson().build());
+    }
+
+    @Test
+    public void parseCapacities() {
+        Map<String, Integer> capacities = LoadRunnerCloudLocationPlanner.parseCapacities(" US East=500, EU West = 1000,");
+        Assert.assertEquals(Integer.valueOf(500), capacities.get("us east"));
+        Assert.assertEquals(Integer.valueOf(1000), capacities.get("eu west"));
+    }
+
+    @Test
+    public void shareInProportionToCapacity() {
+        LoadRunnerCloudLocationPlanner.Plan plan = LoadRunnerCloudLocationPlanner.plan(locations, 900,
+            LoadRunnerCloudLocationPlanner.parseCapacities("US East=500,EU West=1000"));
+
+        Assert.assertEquals(33, plan.allocations.get(0).percent);
+        Assert.assertEquals(67, plan.allocations.get(1).percent);
+        Assert.assertEquals("no capacity, no vusers", 0, plan.allocations.get(2).percent);
+        Assert.assertEquals(297, plan.allocations.get(0).expectedVusers);
+        Assert.assertEquals(603, plan.allocations.get(1).expectedVusers);
+    }
+
+    @Test
+    public void roundingStaysWithinCapacity() {
+        // by largest remainder Asia Pacific would get 2%, but 20 vusers is over its capacity of 19
+        LoadRunnerCloudLocationPlanner.Plan plan = LoadRunnerCloudLocationPlanner.plan(locations, 1000,
+            LoadRunnerCloudLocationPlanner.parseCapacities("US East=499,EU West=502,Asia Pacific=19"));
+
+        Assert.assertEquals(49, plan.allocations.get(0).percent);
+        Assert.assertEquals(50, plan.allocations.get(1).percent);
+        Assert.assertEquals(1, plan.allocations.get(2).percent);
+        plan.allocations.forEach(a -> Assert.assertTrue(a.toString(), a.expectedVusers <= a.capacity));
+    }
+
+    @Test(expected = LoadRunnerCloudClientException.class)
+    public void targetOverTotalCapacity() {
+        LoadRunnerCloudLocationPlanner.plan(locations, 2000, LoadRunnerCloudLocationPlanner.parseCapacities("US East=500,EU West=1000"));
+    }
+
+    @Test
+    public void applyUpdatesChangedLocationsOnly() {
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8590", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            LoadRunnerCloudLocationPlanner planner = new LoadRunnerCloudLocationPlanner(client, EventLoggerStdOut.INSTANCE_DEBUG, "1", "2");
+
+            planner.apply(100, LoadRunnerCloudLocationPlanner.parseCapacities("US East=100,EU West=100,Mars=10"));
+        }
+        wireMockRule.verify(1, putRequestedFor(urlEqualTo("/projects/1/load-tests/2/locations/1?TENANTID=123"))
+            .withRequestBody(matchingJsonPath("$.vusersPercent", equalTo("50"))));
+        wireMockRule.verify(1, putRequestedFor(urlEqualTo("/projects/1/load-tests/2/locations/2?TENANTID=123"))
+            .withRequestBody(matchingJsonPath("$.vusersPercent", equalTo("50"))));
+        wireMockRule.verify(0, putRequestedFor(urlEqualTo("/projects/1/load-tests/2/locations/3?TENANTID=123")));
+    }
+}
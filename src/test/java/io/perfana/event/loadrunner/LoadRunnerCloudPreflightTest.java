@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.LoadTest;
+import io.perfana.event.loadrunner.api.Project;
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudPreflightTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8584));
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(Project.builder().id(1).name("my project").build()).withFixedDelay(300).build());
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(LoadTest.builder().id(2).name("my test").build()).withFixedDelay(300).build());
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new ScriptConfig[] { ScriptConfig.builder().id(5).build() }).withFixedDelay(300).build());
+    }
+
+    @Test
+    public void allChecksPassConcurrently() {
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8584", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            LoadRunnerCloudPreflight preflight = new LoadRunnerCloudPreflight(client, EventLoggerStdOut.INSTANCE_DEBUG,
+                NetworkProfile.defaults(), Duration.ofSeconds(10));
+
+            LoadRunnerCloudPreflight.Report report = preflight.run("pp", "hello", "123", "1", "2");
+
+            Assert.assertTrue(report.toString(), report.isOk());
+            Assert.assertEquals(4, report.checks.size());
+            Assert.assertTrue("checks after login run concurrently: " + report.millis, report.millis < 800);
+        }
+    }
+
+    @Test
+    public void allFailuresReportedTogether() {
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/3?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.responseDefinition().withStatus(404).withBody("{\"message\":\"not found\"}").build());
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/3/scripts?TENANTID=123&limit=100&offset=0")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new ScriptConfig[0]).build());
+
+        NetworkProfile unreachableProxy = NetworkProfile.builder().useProxy(true).proxyPort(1).connectTimeoutMillis(500).build();
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8584", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            LoadRunnerCloudPreflight preflight = new LoadRunnerCloudPreflight(client, EventLoggerStdOut.INSTANCE_DEBUG,
+                unreachableProxy, Duration.ofSeconds(10));
+
+            LoadRunnerCloudPreflight.Report report = preflight.run("pp", "hello", "123", "1", "3");
+
+            Assert.assertFalse(report.isOk());
+            Assert.assertEquals("proxy,load test,scripts",
+                report.failures().stream().map(c -> c.name).collect(Collectors.joining(",")));
+        }
+    }
+
+    @Test
+    public void slowCheckDoesNotHangPreflight() {
+        ScriptConfig[] firstPage = IntStream.range(0, LoadRunnerCloudClient.SCRIPTS_PAGE_SIZE)
+            .mapToObj(id -> ScriptConfig.builder().id(id).build())
+            .toArray(ScriptConfig[]::new);
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(firstPage).build());
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=100")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new ScriptConfig[0]).withFixedDelay(5000).build());
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8584", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            LoadRunnerCloudPreflight preflight = new LoadRunnerCloudPreflight(client, EventLoggerStdOut.INSTANCE_DEBUG,
+                NetworkProfile.defaults(), Duration.ofSeconds(1));
+
+            LoadRunnerCloudPreflight.Report report = preflight.run("pp", "hello", "123", "1", "2");
+
+            Assert.assertTrue("bounded by the max duration: " + report.millis, report.millis < 2000);
+            Assert.assertEquals("scripts", report.failures().stream().map(c -> c.name).collect(Collectors.joining(",")));
+            Assert.assertTrue(report.toString(), report.failures().get(0).message.contains("no result within"));
+        }
+    }
+
+    @Test
+    public void checksAfterLoginSkippedWhenLoginFails() {
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.responseDefinition().withStatus(401).withBody("{}").build());
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8584", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            LoadRunnerCloudPreflight preflight = new LoadRunnerCloudPreflight(client, EventLoggerStdOut.INSTANCE_DEBUG,
+                NetworkProfile.defaults(), Duration.ofSeconds(10));
+
+            LoadRunnerCloudPreflight.Report report = preflight.run("pp", "wrong", "123", "1", "2");
+
+            Assert.assertEquals(4, report.failures().size());
+            Assert.assertTrue(report.toString().contains("skipped, authentication failed"));
+        }
+        wireMockRule.verify(0, getRequestedFor(urlPathMatching("/projects/.*")));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.eventscheduler.api.EventStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+
+public class LoadRunnerCloudResultCheckTest {
+
+    private static final ResultCheckSettings NO_THRESHOLDS = new ResultCheckSettings(true, Duration.ofSeconds(10), 0, 0);
+    private static final ResultCheckSettings THRESHOLDS = new ResultCheckSettings(true, Duration.ofSeconds(10), 5, 1000);
+
+    @Test
+    public void slaStatus() {
+        Assert.assertEquals(EventStatus.SUCCESS, LoadRunnerCloudResultCheck.check(summary("PASSED", 100, 0, 200), NO_THRESHOLDS).status);
+        LoadRunnerCloudResultCheck failed = LoadRunnerCloudResultCheck.check(summary("FAILED", 100, 0, 200), NO_THRESHOLDS);
+        Assert.assertEquals(EventStatus.FAILURE, failed.status);
+        Assert.assertTrue(failed.message, failed.message.contains("SLA broken"));
+        Assert.assertEquals(EventStatus.FAILURE, LoadRunnerCloudResultCheck.check(summary("system_error", 100, 0, 200), NO_THRESHOLDS).status);
+        Assert.assertEquals("no SLA verdict, no thresholds",
+            EventStatus.UNKNOWN, LoadRunnerCloudResultCheck.check(summary("unknown", 100, 0, 200), NO_THRESHOLDS).status);
+    }
+
+    @Test
+    public void runNotEnded() {
+        LoadRunnerCloudResultCheck running = LoadRunnerCloudResultCheck.check(summary("RUNNING", 100, 2, 800), THRESHOLDS);
+        Assert.assertEquals("thresholds met, but results not final", EventStatus.UNKNOWN, running.status);
+        Assert.assertTrue(running.message, running.message.contains("not ended"));
+        Assert.assertEquals(EventStatus.UNKNOWN, LoadRunnerCloudResultCheck.check(summary("STOPPED", 90, 10, 3000), THRESHOLDS).status);
+
+        Assert.assertTrue(LoadRunnerCloudResultCheck.hasUsableResults("PASSED"));
+        Assert.assertTrue(LoadRunnerCloudResultCheck.hasUsableResults("failed"));
+        for (String status : new String[] { "RUNNING", "STOPPED", "STOPPING", "HALTED", "ABORTED", "SYSTEM_ERROR", "unknown", null }) {
+            Assert.assertFalse(status, LoadRunnerCloudResultCheck.hasUsableResults(status));
+        }
+        Assert.assertTrue(LoadRunnerCloudResultCheck.isEnded("halted"));
+        Assert.assertFalse(LoadRunnerCloudResultCheck.isEnded("STOPPED"));
+    }
+
+    @Test
+    public void thresholds() {
+        LoadRunnerCloudResultCheck met = LoadRunnerCloudResultCheck.check(summary("PASSED", 100, 2, 800), THRESHOLDS);
+        Assert.assertEquals(EventStatus.SUCCESS, met.status);
+        Assert.assertTrue(met.message, met.message.contains("percentile 800 ms (max 1000 ms)"));
+
+        LoadRunnerCloudResultCheck errors = LoadRunnerCloudResultCheck.check(summary("PASSED", 90, 10, 800), THRESHOLDS);
+        Assert.assertEquals(EventStatus.FAILURE, errors.status);
+        Assert.assertTrue(errors.message, errors.message.contains("errors 10.00% (max 5.00%)"));
+
+        LoadRunnerCloudResultCheck slow = LoadRunnerCloudResultCheck.check(summary("PASSED", 100, 0, 3000), THRESHOLDS);
+        Assert.assertEquals(EventStatus.FAILURE, slow.status);
+        Assert.assertTrue(slow.message, slow.message.contains("percentile 3000 ms"));
+
+        LoadRunnerCloudResultCheck notReported = LoadRunnerCloudResultCheck.check(summary("PASSED", 100, 0, Double.NaN), THRESHOLDS);
+        Assert.assertEquals(EventStatus.UNKNOWN, notReported.status);
+        Assert.assertTrue(notReported.message, notReported.message.contains("percentile not reported"));
+
+        Assert.assertEquals("no transactions, no thresholds to compare",
+            EventStatus.UNKNOWN, LoadRunnerCloudResultCheck.check(summary("unknown", 0, 0, 0), THRESHOLDS).status);
+    }
+
+    private static LoadRunnerCloudTransactionCollector.Summary summary(String runStatus, long passed, long failed, double percentileMillis) {
+        double millis = Double.isNaN(percentileMillis) ? 200 : percentileMillis;
+        ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+        if (passed > 0) {
+            histogram.record(millis, passed);
+        }
+        LoadRunnerCloudTransactionCollector.TransactionSummary total = new LoadRunnerCloudTransactionCollector.TransactionSummary(
+            "total", passed, failed, millis, millis, millis, percentileMillis, LoadRunnerCloudTransactionCollector.MIN_INTERVALS, histogram);
+        return new LoadRunnerCloudTransactionCollector.Summary(1, runStatus, 0, Collections.emptyList(), total);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.RunReply;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+
+public class LoadRunnerCloudRunHandleTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8579));
+
+    private LoadRunnerCloudClient client;
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+        wireMockRule.stubFor(put(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(RunReply.builder().runId(7).build()).build());
+
+        client = new LoadRunnerCloudClient("http://localhost:8579", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+    }
+
+    @Test
+    public void abortBeforeRunIdIsKnownStopsRunWhenStarted() {
+        TestRunActive stopping = TestRunActive.builder()
+            .projectId(1).testId(2).runId(7).status(TestRunActive.Status.STOPPING).build();
+
+        String scenarioName = "stopping-run";
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1"))
+                .inScenario(scenarioName)
+                .whenScenarioStateIs(STARTED)
+                .willSetStateTo("stopped"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { stopping }).build());
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1"))
+                .inScenario(scenarioName)
+                .whenScenarioStateIs("stopped"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).build());
+
+        LoadRunnerCloudRunHandle handle = new LoadRunnerCloudRunHandle("1");
+        handle.requestAbort();
+
+        // startRun returns after the abort arrived
+        CompletableFuture.runAsync(() -> {
+            sleep(200);
+            handle.started(7);
+        });
+
+        boolean stopped = handle.stopAndConfirm(client, EventLoggerStdOut.INSTANCE_DEBUG, Duration.ofMillis(10), Duration.ofSeconds(5));
+
+        Assert.assertTrue("stop should be confirmed", stopped);
+        Assert.assertTrue(handle.isAbortRequested());
+        wireMockRule.verify(1, putRequestedFor(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP")));
+        wireMockRule.verify(2, getRequestedFor(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")));
+    }
+
+    @Test
+    public void failedStartNeedsNoStop() {
+        LoadRunnerCloudRunHandle handle = new LoadRunnerCloudRunHandle("1");
+        handle.startFailed(new LoadRunnerCloudClientException("start failed"));
+
+        boolean stopped = handle.stopAndConfirm(client, EventLoggerStdOut.INSTANCE_DEBUG, Duration.ofMillis(10), Duration.ofSeconds(5));
+
+        Assert.assertTrue(stopped);
+        wireMockRule.verify(0, putRequestedFor(anyUrl()));
+    }
+
+    @Test
+    public void stopNotConfirmedWithinDeadline() {
+        TestRunActive stopping = TestRunActive.builder()
+            .projectId(1).testId(2).runId(7).status(TestRunActive.Status.STOPPING).build();
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { stopping }).build());
+
+        LoadRunnerCloudRunHandle handle = new LoadRunnerCloudRunHandle("1");
+        handle.started(7);
+
+        boolean stopped = handle.stopAndConfirm(client, EventLoggerStdOut.INSTANCE_DEBUG, Duration.ofMillis(20), Duration.ofMillis(200));
+
+        Assert.assertFalse("stop should not be confirmed", stopped);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.RunReply;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudRunJournalTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8592));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoadRunnerCloudRunJournal journal;
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(get(urlPathEqualTo("/test-runs/active")).withQueryParam("projectIds", equalTo("1,2")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] {
+                TestRunActive.builder().runId(11).projectId(1).status(TestRunActive.Status.RUNNING).build(),
+                TestRunActive.builder().runId(13).projectId(1).status(TestRunActive.Status.RUNNING).build() }).build());
+        wireMockRule.stubFor(put(urlPathMatching("/test-runs/.*")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(RunReply.builder().runId(11).build()).build());
+
+        journal = new LoadRunnerCloudRunJournal(folder.getRoot().toPath().resolve("journal/runs.json"), EventLoggerStdOut.INSTANCE_DEBUG);
+    }
+
+    @Test
+    public void addAndRemoveAreDurable() {
+        journal.add(LoadRunnerCloudRunJournal.ownEntry(11, "123", "1", "test-1", 1000));
+        journal.add(LoadRunnerCloudRunJournal.ownEntry(12, "123", "1", "test-2", 2000));
+        journal.remove(11);
+
+        LoadRunnerCloudRunJournal reopened = new LoadRunnerCloudRunJournal(folder.getRoot().toPath().resolve("journal/runs.json"), EventLoggerStdOut.INSTANCE_DEBUG);
+        List<LoadRunnerCloudRunJournal.Entry> entries = reopened.entries();
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals(12, entries.get(0).getRunId());
+        Assert.assertEquals("test-2", entries.get(0).getTestRunId());
+        Assert.assertFalse("own run is not orphaned", LoadRunnerCloudRunJournal.isOrphan(entries.get(0)));
+    }
+
+    @Test
+    public void journalsOfOneFileInOneJvm() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("journal/runs.json");
+        LoadRunnerCloudRunJournal[] journals = {
+            new LoadRunnerCloudRunJournal(file, EventLoggerStdOut.INSTANCE_DEBUG),
+            new LoadRunnerCloudRunJournal(file, EventLoggerStdOut.INSTANCE_DEBUG) };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                LoadRunnerCloudRunJournal threadJournal = journals[thread % 2];
+                int firstRunId = thread * 25;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int runId = firstRunId; runId < firstRunId + 25; runId++) {
+                        threadJournal.add(LoadRunnerCloudRunJournal.ownEntry(runId, "123", "1", "test-" + runId, 1000));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals("no change is lost", 100, journal.entries().size());
+    }
+
+    @Test
+    public void reconcileStopsActiveOrphansOnly() {
+        LoadRunnerCloudRunJournal.Entry own = LoadRunnerCloudRunJournal.ownEntry(13, "123", "1", "alive", 1000);
+        journal.add(own);
+        // owner is gone: a pid that does not exist
+        journal.add(own.toBuilder().runId(11).pid(Long.MAX_VALUE).testRunId("killed").build());
+        journal.add(own.toBuilder().runId(12).projectId("2").pid(Long.MAX_VALUE).testRunId("killed, run ended").build());
+        journal.add(own.toBuilder().runId(14).host("other-host").pid(Long.MAX_VALUE).build());
+        journal.add(own.toBuilder().runId(15).tenantId("456").pid(Long.MAX_VALUE).build());
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8592", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            Assert.assertEquals(Collections.singletonList(11), journal.reconcile(client, "123"));
+        }
+
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/test-runs/active")));
+        wireMockRule.verify(1, putRequestedFor(urlEqualTo("/test-runs/11?TENANTID=123&action=STOP")));
+        wireMockRule.verify(1, putRequestedFor(urlPathMatching("/test-runs/.*")));
+        List<Integer> left = journal.entries().stream().map(LoadRunnerCloudRunJournal.Entry::getRunId).collect(Collectors.toList());
+        Assert.assertEquals("owned, other host and other tenant are kept", Arrays.asList(13, 14, 15), left);
+    }
+
+    @Test
+    public void noStatusCallWithoutOrphans() {
+        journal.add(LoadRunnerCloudRunJournal.ownEntry(13, "123", "1", "alive", 1000));
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8592", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            Assert.assertTrue(journal.reconcile(client, "123").isEmpty());
+        }
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/test-runs/active")));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import io.perfana.event.loadrunner.api.TestRunActive;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LoadRunnerCloudRunStateTrackerTest {
+
+    private final Instant start = Instant.parse("2023-01-02T03:04:05Z");
+
+    @Test
+    public void transitionsWithDurations() {
+        List<RunStateTransition> transitions = new ArrayList<>();
+        LoadRunnerCloudRunStateTracker tracker = new LoadRunnerCloudRunStateTracker("1", 3, start, transitions::add);
+
+        tracker.observe(null, start.plusSeconds(5));
+        tracker.observe(run(TestRunActive.Status.INITIALIZING), start.plusSeconds(10));
+        tracker.observe(run(TestRunActive.Status.INITIALIZING), start.plusSeconds(20));
+        tracker.observe(run(TestRunActive.Status.CHECKING_STATUS), start.plusSeconds(70));
+        tracker.observe(run(TestRunActive.Status.RUNNING), start.plusSeconds(80));
+        tracker.observe(null, start.plusSeconds(380));
+        tracker.observe(run(TestRunActive.Status.RUNNING), start.plusSeconds(390));
+
+        Assert.assertEquals(4, transitions.size());
+
+        RunStateTransition first = transitions.get(0);
+        Assert.assertEquals(RunState.STARTING, first.getFrom());
+        Assert.assertEquals(RunState.INITIALIZING, first.getTo());
+        Assert.assertEquals(Duration.ofSeconds(10), first.getFromDuration());
+
+        RunStateTransition running = transitions.get(2);
+        Assert.assertEquals(RunState.RUNNING, running.getTo());
+        Assert.assertEquals(Duration.ofSeconds(10), running.getFromDuration());
+        Assert.assertEquals(Duration.ofSeconds(80), running.getElapsed());
+        Assert.assertEquals(start.plusSeconds(80), running.getTimestamp());
+
+        RunStateTransition ended = transitions.get(3);
+        Assert.assertEquals(RunState.ENDED, ended.getTo());
+        Assert.assertEquals(Duration.ofSeconds(300), ended.getFromDuration());
+        Assert.assertEquals("no transitions after ended", RunState.ENDED, tracker.getState());
+    }
+
+    @Test
+    public void camelCase() {
+        Assert.assertEquals("CheckingStatus", RunState.CHECKING_STATUS.camelCase());
+        Assert.assertEquals("Running", RunState.RUNNING.camelCase());
+    }
+
+    private static TestRunActive run(TestRunActive.Status status) {
+        return TestRunActive.builder().projectId(1).runId(3).status(status).build();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.RunReply;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+
+public class LoadRunnerCloudRunWatchdogTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8580));
+
+    @Test
+    public void watchdogPeriod() {
+        Duration min = Duration.ofSeconds(10);
+        Duration max = Duration.ofSeconds(60);
+
+        Assert.assertEquals(min, LoadRunnerCloudRunWatchdog.watchdogPeriod(Duration.ofMinutes(2), min, max));
+        Assert.assertEquals(Duration.ofSeconds(30), LoadRunnerCloudRunWatchdog.watchdogPeriod(Duration.ofMinutes(20), min, max));
+        Assert.assertEquals(max, LoadRunnerCloudRunWatchdog.watchdogPeriod(Duration.ofHours(8), min, max));
+        Assert.assertEquals(max, LoadRunnerCloudRunWatchdog.watchdogPeriod(Duration.ZERO, min, max));
+    }
+
+    @Test
+    public void unexpectedEndOfRunIsReported() throws InterruptedException {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+
+        TestRunActive running = TestRunActive.builder()
+            .projectId(1).testId(2).runId(7).status(TestRunActive.Status.RUNNING).build();
+
+        String scenarioName = "run-dies";
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1"))
+                .inScenario(scenarioName)
+                .whenScenarioStateIs(STARTED)
+                .willSetStateTo("gone"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { running }).build());
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1"))
+                .inScenario(scenarioName)
+                .whenScenarioStateIs("gone"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).build());
+
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8580", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+
+        CountDownLatch unexpectedEnd = new CountDownLatch(1);
+        try (LoadRunnerCloudRunWatchdog watchdog = new LoadRunnerCloudRunWatchdog(client, EventLoggerStdOut.INSTANCE_DEBUG, "1", 7, Duration.ofMillis(20), Duration.ofMinutes(1))) {
+            watchdog.start(state -> unexpectedEnd.countDown());
+            Assert.assertTrue("unexpected end expected", unexpectedEnd.await(5, TimeUnit.SECONDS));
+        } finally {
+            client.close();
+        }
+        wireMockRule.verify(2, getRequestedFor(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")));
+    }
+
+    @Test
+    public void unexpectedErrorEndsWatchdogAsFailed() throws InterruptedException {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        TestRunActive running = TestRunActive.builder()
+            .projectId(1).testId(2).runId(7).status(TestRunActive.Status.RUNNING).build();
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { running }).build());
+
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8580", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+
+        // not a client error: a listener that fails
+        LoadRunnerCloudRunStateTracker tracker = new LoadRunnerCloudRunStateTracker("1", 7, Instant.now(),
+            transition -> { throw new IllegalStateException("listener failed"); });
+        try (LoadRunnerCloudRunWatchdog watchdog = new LoadRunnerCloudRunWatchdog(client, EventLoggerStdOut.INSTANCE_DEBUG, "1", 7,
+                Duration.ofMillis(20), Duration.ofMinutes(1), tracker, null)) {
+            watchdog.start(state -> Assert.fail("not an unexpected end of the run"));
+            for (int i = 0; i < 250 && !watchdog.isFailed(); i++) {
+                Thread.sleep(20);
+            }
+            Assert.assertTrue(watchdog.isFailed());
+            Thread.sleep(100);
+        } finally {
+            client.close();
+        }
+        wireMockRule.verify(1, getRequestedFor(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")));
+    }
+
+    @Test
+    public void stopByEarlyAbortGuardIsNotReported() throws InterruptedException {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+
+        // second transactions call shows 100 failed of 110, a breach
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/7/transactions?TENANTID=123"))
+                .inScenario("transactions").whenScenarioStateIs(STARTED).willSetStateTo("breach"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction(100, 0) }).build());
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/7/transactions?TENANTID=123"))
+                .inScenario("transactions").whenScenarioStateIs("breach"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction(110, 100) }).build());
+
+        TestRunActive running = TestRunActive.builder()
+            .projectId(1).testId(2).runId(7).status(TestRunActive.Status.RUNNING).build();
+        TestRunActive stopping = TestRunActive.builder()
+            .projectId(1).testId(2).runId(7).status(TestRunActive.Status.STOPPING).build();
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1"))
+                .inScenario("run").whenScenarioStateIs(STARTED))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { running }).build());
+        wireMockRule.stubFor(put(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP"))
+                .inScenario("run").willSetStateTo("stopping"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(RunReply.builder().runId(7).build()).build());
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1"))
+                .inScenario("run").whenScenarioStateIs("stopping"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { stopping }).build());
+
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8580", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+
+        LoadRunnerCloudRunHandle handle = new LoadRunnerCloudRunHandle("1");
+        handle.started(7);
+        EarlyAbortThresholds thresholds = new EarlyAbortThresholds(50, 0, 0, Duration.ZERO, Duration.ofMillis(20));
+        CountDownLatch aborted = new CountDownLatch(1);
+        AtomicInteger unexpectedEnds = new AtomicInteger();
+        try (LoadRunnerCloudRunWatchdog watchdog = new LoadRunnerCloudRunWatchdog(client, EventLoggerStdOut.INSTANCE_DEBUG, "1", 7,
+                Duration.ofMillis(20), Duration.ofMinutes(1), null, handle);
+             LoadRunnerCloudEarlyAbortGuard guard = new LoadRunnerCloudEarlyAbortGuard(client, EventLoggerStdOut.INSTANCE_DEBUG, 7, thresholds, handle)) {
+            watchdog.start(state -> unexpectedEnds.incrementAndGet());
+            guard.start(reason -> aborted.countDown());
+            Assert.assertTrue("early abort expected", aborted.await(5, TimeUnit.SECONDS));
+            // give the watchdog time to see the stopping run
+            Thread.sleep(200);
+        } finally {
+            client.close();
+        }
+
+        Assert.assertTrue("stopped run is not an error", handle.isStopExpected());
+        Assert.assertEquals("watchdog should stay silent after a requested stop", 0, unexpectedEnds.get());
+        wireMockRule.verify(1, putRequestedFor(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP")));
+    }
+
+    @Test
+    public void unexpectedErrorEndsEarlyAbortGuardAsFailed() throws InterruptedException {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/7/transactions?TENANTID=123"))
+                .inScenario("transactions").whenScenarioStateIs(STARTED).willSetStateTo("breach"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction(100, 0) }).build());
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/7/transactions?TENANTID=123"))
+                .inScenario("transactions").whenScenarioStateIs("breach"))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction(110, 100) }).build());
+        wireMockRule.stubFor(put(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(RunReply.builder().runId(7).build()).build());
+
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8580", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+
+        EarlyAbortThresholds thresholds = new EarlyAbortThresholds(50, 0, 0, Duration.ZERO, Duration.ofMillis(20));
+        try (LoadRunnerCloudEarlyAbortGuard guard = new LoadRunnerCloudEarlyAbortGuard(client, EventLoggerStdOut.INSTANCE_DEBUG, 7, thresholds)) {
+            guard.start(reason -> { throw new IllegalStateException("abort handler failed"); });
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!guard.isFailed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            Assert.assertTrue("guard should end as failed", guard.isFailed());
+        } finally {
+            client.close();
+        }
+
+        wireMockRule.verify(1, putRequestedFor(urlEqualTo("/test-runs/7?TENANTID=123&action=STOP")));
+    }
+
+    private static TestRunTransaction transaction(long passed, long failed) {
+        return TestRunTransaction.builder().name("login").avg(0.2).passed(passed).failed(failed).build();
+    }
+}
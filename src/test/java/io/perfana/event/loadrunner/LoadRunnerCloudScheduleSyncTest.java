@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.RampUp;
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.event.loadrunner.api.TearDown;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudScheduleSyncTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8591));
+
+    private final ScriptConfig inSync = ScriptConfig.builder().id(5).scriptId(12).vusersNum(10)
+        .rampUp(RampUp.builder().duration(60).interval(10).vusers(2).build())
+        .duration(660)
+        .tearDown(TearDown.builder().duration(30).build())
+        .build();
+    private final ScriptConfig drifted = inSync.toBuilder().id(6).duration(1800).build();
+    private final ScriptConfig iterations = inSync.toBuilder().id(7).schedulingMode("iterations").duration(0).iterations(100).build();
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(get(urlEqualTo("/projects/1/load-tests/2/scripts?TENANTID=123&limit=100&offset=0")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new ScriptConfig[] { inSync, drifted, iterations }).build());
+        wireMockRule.stubFor(put(urlPathMatching("/projects/1/load-tests/2/scripts/.*")))
+            .setResponse(ResponseDefinitionBuilder.okForEmptyJson().build());
+    }
+
+    @Test
+    public void syncedKeepsIntervalAndTearDown() {
+        ScriptConfig synced = LoadRunnerCloudScheduleSync.synced(drifted, Duration.ofSeconds(120), Duration.ofSeconds(600));
+
+        Assert.assertEquals(120, synced.getRampUp().getDuration());
+        Assert.assertEquals(Integer.valueOf(10), synced.getRampUp().getInterval());
+        Assert.assertEquals("duration includes ramp-up", 720, synced.getDuration());
+        Assert.assertEquals(drifted.getTearDown(), synced.getTearDown());
+        Assert.assertEquals(inSync, LoadRunnerCloudScheduleSync.synced(inSync, Duration.ofSeconds(60), Duration.ofSeconds(600)));
+    }
+
+    @Test
+    public void onlyDriftedScriptsAreUpdated() {
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8591", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            LoadRunnerCloudScheduleSync sync = new LoadRunnerCloudScheduleSync(client, EventLoggerStdOut.INSTANCE_DEBUG, "1", "2");
+
+            Assert.assertEquals(1, sync.sync(Duration.ofSeconds(60), Duration.ofSeconds(600)));
+        }
+        wireMockRule.verify(1, putRequestedFor(urlEqualTo("/projects/1/load-tests/2/scripts/6?TENANTID=123"))
+            .withRequestBody(matchingJsonPath("$.duration", equalTo("660"))));
+        wireMockRule.verify(1, putRequestedFor(urlPathMatching("/projects/1/load-tests/2/scripts/.*")));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudStatusBatchTest {
+
+    private static final String ACTIVE_PATH = "/test-runs/active";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8583));
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+
+        TestRunActive run1 = TestRunActive.builder().projectId(1).runId(11).status(TestRunActive.Status.RUNNING).build();
+        TestRunActive run2 = TestRunActive.builder().projectId(2).runId(22).status(TestRunActive.Status.INITIALIZING).build();
+        wireMockRule.stubFor(get(urlPathEqualTo(ACTIVE_PATH)).withQueryParam("projectIds", equalTo("1,2")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { run1, run2 }).build());
+    }
+
+    @Test
+    public void oneCallForAllProjectsPerTick() {
+        try (LoadRunnerCloudClient client1 = newClient(); LoadRunnerCloudClient client2 = newClient()) {
+            client1.joinStatusBatch("1", Duration.ofMinutes(1));
+            client2.joinStatusBatch("2", Duration.ofMinutes(1));
+
+            List<TestRunActive> project1 = client1.testRunsActive("1");
+            List<TestRunActive> project2 = client2.testRunsActive("2");
+
+            Assert.assertEquals(1, project1.size());
+            Assert.assertEquals(11, project1.get(0).getRunId());
+            Assert.assertEquals(1, project2.size());
+            Assert.assertEquals(22, project2.get(0).getRunId());
+            wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(ACTIVE_PATH)));
+
+            // a caller never gets the same result twice
+            client1.testRunsActive("1");
+            wireMockRule.verify(2, getRequestedFor(urlPathEqualTo(ACTIVE_PATH)));
+        }
+        Assert.assertEquals("batch is removed when all clients are closed", 0, LoadRunnerCloudStatusBatch.batchCount());
+    }
+
+    @Test
+    public void oldResultIsNotReused() throws InterruptedException {
+        try (LoadRunnerCloudClient client1 = newClient(); LoadRunnerCloudClient client2 = newClient()) {
+            client1.joinStatusBatch("1", Duration.ofMillis(50));
+            client2.joinStatusBatch("2", Duration.ofMillis(50));
+
+            client1.testRunsActive("1");
+            Thread.sleep(100);
+            client2.testRunsActive("2");
+            wireMockRule.verify(2, getRequestedFor(urlPathEqualTo(ACTIVE_PATH)));
+        }
+    }
+
+    @Test
+    public void ageIsMeasuredWithClientClock() {
+        VirtualClock clock = new VirtualClock(Instant.parse("2024-01-01T10:00:00Z"));
+        try (LoadRunnerCloudClient client1 = newClient(); LoadRunnerCloudClient client2 = newClient();
+             LoadRunnerCloudClient client3 = newClient()) {
+            client1.useClock(clock);
+            client2.useClock(clock);
+            client3.useClock(clock);
+            client1.joinStatusBatch("1", Duration.ofSeconds(5));
+            client2.joinStatusBatch("2", Duration.ofSeconds(5));
+            client3.joinStatusBatch("2", Duration.ofSeconds(5));
+
+            client1.testRunsActive("1");
+            clock.advance(Duration.ofSeconds(4));
+            client2.testRunsActive("2");
+            wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(ACTIVE_PATH)));
+
+            // not seen by client3 yet, but too old in virtual time
+            clock.advance(Duration.ofSeconds(2));
+            client3.testRunsActive("2");
+            wireMockRule.verify(2, getRequestedFor(urlPathEqualTo(ACTIVE_PATH)));
+        }
+    }
+
+    @Test
+    public void smallestMaxAgeOfAllRunsIsUsed() {
+        VirtualClock clock = new VirtualClock(Instant.parse("2024-01-01T10:00:00Z"));
+        try (LoadRunnerCloudClient client1 = newClient(); LoadRunnerCloudClient client2 = newClient()) {
+            client1.useClock(clock);
+            client2.useClock(clock);
+            // the first run polls slowly, the second run joins later and polls fast
+            client1.joinStatusBatch("1", Duration.ofMinutes(1));
+            client2.joinStatusBatch("2", Duration.ofSeconds(5));
+
+            client1.testRunsActive("1");
+            clock.advance(Duration.ofSeconds(6));
+            // too old for the second run
+            client2.testRunsActive("2");
+            wireMockRule.verify(2, getRequestedFor(urlPathEqualTo(ACTIVE_PATH)));
+        }
+    }
+
+    @Test
+    public void callIsSharedAndMadeWithoutLock() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo(ACTIVE_PATH)).withQueryParam("projectIds", equalTo("1,2")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).withFixedDelay(1000).build());
+        TestRunActive run3 = TestRunActive.builder().projectId(3).runId(33).status(TestRunActive.Status.RUNNING).build();
+        wireMockRule.stubFor(get(urlPathEqualTo(ACTIVE_PATH)).withQueryParam("projectIds", equalTo("1,2,3")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { run3 }).build());
+
+        try (LoadRunnerCloudClient client1 = newClient(); LoadRunnerCloudClient client2 = newClient();
+             LoadRunnerCloudClient client3 = newClient()) {
+            client1.joinStatusBatch("1", Duration.ofMinutes(1));
+            client2.joinStatusBatch("2", Duration.ofMinutes(1));
+
+            CompletableFuture<List<TestRunActive>> slow1 = CompletableFuture.supplyAsync(() -> client1.testRunsActive("1"));
+            Thread.sleep(200);
+            CompletableFuture<List<TestRunActive>> slow2 = CompletableFuture.supplyAsync(() -> client2.testRunsActive("2"));
+            Thread.sleep(100);
+
+            // project 3 is not in the call in progress: its own call does not wait for the slow call
+            client3.joinStatusBatch("3", Duration.ofMinutes(1));
+            long start = System.nanoTime();
+            List<TestRunActive> project3 = client3.testRunsActive("3");
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            Assert.assertEquals(33, project3.get(0).getRunId());
+            Assert.assertTrue("call waited " + millis + " ms for the call in progress", millis < 500);
+
+            Assert.assertEquals(0, slow1.get(5, TimeUnit.SECONDS).size());
+            Assert.assertEquals(0, slow2.get(5, TimeUnit.SECONDS).size());
+            wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(ACTIVE_PATH)).withQueryParam("projectIds", equalTo("1,2")));
+        }
+    }
+
+    @Test
+    public void withoutBatchSingleProject() {
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).build());
+        try (LoadRunnerCloudClient client = newClient()) {
+            Assert.assertEquals(0, client.testRunsActive("1").size());
+        }
+    }
+
+    private LoadRunnerCloudClient newClient() {
+        LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8583", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.initApiKey("pp", "hello", "123");
+        return client;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LoadRunnerCloudThreadsTest {
+
+    /**
+     * The test tasks of the build tell which version to expect: testJava21 runs against the
+     * multi-release jar, where the Java 21 version should be loaded.
+     */
+    @Test
+    public void expectedVersionIsLoaded() {
+        String expectedMode = System.getProperty("lrc.expectedThreadMode");
+        Assume.assumeNotNull(expectedMode);
+        Assert.assertEquals(expectedMode, LoadRunnerCloudThreads.MODE);
+    }
+
+    @Test
+    public void newThreadRunsWithName() throws InterruptedException {
+        AtomicReference<String> name = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = LoadRunnerCloudThreads.newThread("LrcTest", () -> {
+            name.set(Thread.currentThread().getName());
+            done.countDown();
+        });
+        Assert.assertEquals(Thread.State.NEW, thread.getState());
+        thread.start();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("LrcTest", name.get());
+    }
+
+    @Test
+    public void fanOutExecutorRunsTasks() throws Exception {
+        Future<String> name = LoadRunnerCloudThreads.fanOutExecutor().submit(() -> Thread.currentThread().getName());
+        Assert.assertTrue(name.get(5, TimeUnit.SECONDS).startsWith("LrcFanOut-"));
+        Assert.assertFalse(LoadRunnerCloudThreads.fanOutExecutor().isShutdown());
+    }
+}
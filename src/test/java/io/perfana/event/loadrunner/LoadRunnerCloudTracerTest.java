@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.RunReply;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.event.loadrunner.tracing.InMemorySpanExporter;
+import io.perfana.event.loadrunner.tracing.Span;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudTracerTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8593));
+
+    private final InMemorySpanExporter exporter = new InMemorySpanExporter();
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(put(urlEqualTo("/test-runs/11?TENANTID=123&action=STOP")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(RunReply.builder().runId(11).build()).build());
+        wireMockRule.stubFor(put(urlEqualTo("/test-runs/12?TENANTID=123&action=STOP")))
+            .setResponse(ResponseDefinitionBuilder.responseDefinition().withStatus(500).withBody("oops").build());
+    }
+
+    @Test
+    public void spanForEachCall() {
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8593", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.trace(new LoadRunnerCloudTracer(exporter, "test-run-1", Duration.ofSeconds(1), EventLoggerStdOut.INSTANCE_DEBUG));
+            client.initApiKey("pp", "hello", "123");
+            client.traceRunId(11);
+            client.stopRun(11);
+            try {
+                client.stopRun(12);
+                Assert.fail("expected error for status 500");
+            } catch (LoadRunnerCloudClientException e) {
+                // expected
+            }
+        }
+        // closing the client flushes the spans
+        List<Span> spans = exporter.getSpans();
+        Assert.assertEquals(3, spans.size());
+
+        Span auth = spans.get(0);
+        Assert.assertEquals("POST /auth", auth.getName());
+        Assert.assertEquals(Span.Status.OK, auth.getStatus());
+        Assert.assertEquals("test-run-1", auth.getAttributes().get(LoadRunnerCloudTracer.ATTRIBUTE_TEST_RUN_ID));
+        Assert.assertNull("no run before start", auth.getAttributes().get(LoadRunnerCloudTracer.ATTRIBUTE_RUN_ID));
+        Assert.assertEquals(200, auth.getAttributes().get("http.response.status_code"));
+        Assert.assertEquals("AUTH", auth.getAttributes().get("lrc.endpoint"));
+
+        Span stop = spans.get(1);
+        Assert.assertEquals("PUT /test-runs/{id}", stop.getName());
+        Assert.assertEquals("/test-runs/11", stop.getAttributes().get("url.path"));
+        Assert.assertEquals(11, stop.getAttributes().get(LoadRunnerCloudTracer.ATTRIBUTE_RUN_ID));
+        Assert.assertEquals(0, stop.getAttributes().get("lrc.retry_count"));
+        Assert.assertTrue(stop.getEndEpochNanos() >= stop.getStartEpochNanos());
+
+        Span failed = spans.get(2);
+        Assert.assertEquals(Span.Status.ERROR, failed.getStatus());
+        Assert.assertEquals(500, failed.getAttributes().get("http.response.status_code"));
+        Assert.assertEquals("run id from the path", 12, failed.getAttributes().get(LoadRunnerCloudTracer.ATTRIBUTE_RUN_ID));
+        Assert.assertEquals(LoadRunnerCloudClientException.class.getName(), failed.getAttributes().get("error.type"));
+
+        for (Span span : spans) {
+            Assert.assertEquals(LoadRunnerCloudTracer.traceId("test-run-1"), span.getTraceId());
+            Assert.assertNull(span.getParentSpanId());
+        }
+    }
+
+    @Test
+    public void traceIdFollowsTestRunId() {
+        Assert.assertEquals(32, LoadRunnerCloudTracer.traceId("test-run-1").length());
+        Assert.assertEquals(LoadRunnerCloudTracer.traceId("test-run-1"), LoadRunnerCloudTracer.traceId("test-run-1"));
+        Assert.assertNotEquals(LoadRunnerCloudTracer.traceId("test-run-1"), LoadRunnerCloudTracer.traceId("test-run-2"));
+    }
+
+    @Test
+    public void exportInBoundedBatches() {
+        // fits in the queue, more than one batch
+        int count = LoadRunnerCloudTracer.MAX_BATCH_SIZE + 10;
+        LoadRunnerCloudTracer tracer = new LoadRunnerCloudTracer(exporter, "test-run-1", Duration.ofMinutes(1), EventLoggerStdOut.INSTANCE_DEBUG);
+        for (int i = 0; i < count; i++) {
+            LoadRunnerCloudTracer.ActiveSpan parent = tracer.start("parent");
+            tracer.start("child").end();
+            parent.end();
+        }
+        tracer.close();
+
+        Assert.assertEquals(0, tracer.droppedCount());
+        Assert.assertEquals(count * 2, exporter.getSpans().size());
+        Assert.assertTrue(exporter.getBatchSizes().size() >= 3);
+        Assert.assertTrue(exporter.getBatchSizes().stream().allMatch(size -> size <= LoadRunnerCloudTracer.MAX_BATCH_SIZE));
+        Span child = exporter.getSpans().get(0);
+        Span parent = exporter.getSpans().get(1);
+        Assert.assertEquals("child", child.getName());
+        Assert.assertEquals(parent.getSpanId(), child.getParentSpanId());
+    }
+}
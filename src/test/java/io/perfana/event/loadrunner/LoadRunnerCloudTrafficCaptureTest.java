@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudTrafficCaptureTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8585));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { TestRunActive.builder().runId(42).status(TestRunActive.Status.RUNNING).build() }).build());
+    }
+
+    @Test
+    public void captureWithRedactedCredentials() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("capture/lrc.har.jsonl");
+        TrafficCaptureSettings settings = new TrafficCaptureSettings(true, file.toString(), 10 * 1024 * 1024, 2);
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8585", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.captureTraffic(new LoadRunnerCloudTrafficCapture(settings, EventLoggerStdOut.INSTANCE_DEBUG));
+            client.initApiKey("pp", "secret-password", "123");
+            Assert.assertEquals(42, client.testRunsActive("1").get(0).getRunId());
+        }
+
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Assert.assertFalse(content.contains("secret-password"));
+        Assert.assertFalse(content.contains("8457258394"));
+        Assert.assertFalse(content.contains("\"pp\""));
+        Assert.assertFalse(content.contains("TENANTID=123"));
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assert.assertEquals(2, lines.size());
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode auth = mapper.readTree(lines.get(0));
+        Assert.assertEquals("POST", auth.at("/request/method").asText());
+        Assert.assertEquals("AUTH", auth.at("/_endpoint").asText());
+        Assert.assertTrue(auth.at("/request/postData/text").asText().contains("\"password\":\"***\""));
+        Assert.assertTrue(auth.at("/request/postData/text").asText().contains("\"user\":\"***\""));
+
+        JsonNode active = mapper.readTree(lines.get(1));
+        Assert.assertEquals("http://localhost:8585/test-runs/active?TENANTID=***&projectIds=1", active.at("/request/url").asText());
+        Assert.assertEquals(200, active.at("/response/status").asInt());
+        Assert.assertTrue(active.at("/response/content/text").asText().contains("RUNNING"));
+        Assert.assertTrue(active.at("/time").asDouble() >= 0);
+    }
+
+    @Test
+    public void rollOver() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("lrc.har.jsonl");
+        TrafficCaptureSettings settings = new TrafficCaptureSettings(true, file.toString(), 1, 3);
+
+        LoadRunnerCloudTrafficCapture capture = new LoadRunnerCloudTrafficCapture(settings, EventLoggerStdOut.INSTANCE_DEBUG);
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8585", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.captureTraffic(capture);
+            client.initApiKey("pp", "hello", "123");
+            for (int i = 0; i < 10; i++) {
+                client.testRunsActive("1");
+            }
+        }
+
+        Assert.assertTrue(Files.exists(file));
+        Assert.assertTrue(Files.exists(capture.rolled(1)));
+        Assert.assertTrue(Files.exists(capture.rolled(2)));
+        Assert.assertFalse("at most 3 files", Files.exists(capture.rolled(3)));
+    }
+
+    @Test
+    public void cassetteRecordingWaitsInsteadOfDropping() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("lrc-cassette.har.jsonl");
+        CassetteSettings record = new CassetteSettings(CassetteSettings.Mode.RECORD, file.toString(), 1);
+        int exchanges = 4 * LoadRunnerCloudTrafficCapture.QUEUE_SIZE;
+
+        LoadRunnerCloudTrafficCapture capture = LoadRunnerCloudTrafficCapture.recordCassette(record, EventLoggerStdOut.INSTANCE);
+        try {
+            for (int i = 0; i < exchanges; i++) {
+                capture.failed(new HttpGet("http://localhost:8585/test-runs/" + i + "?TENANTID=123"),
+                    NetworkProfile.Endpoint.STATUS, System.currentTimeMillis(), 0, new IOException("refused"));
+            }
+        } finally {
+            capture.close();
+        }
+
+        Assert.assertEquals(0, capture.droppedCount());
+        Assert.assertEquals(exchanges, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void redact() {
+        Assert.assertEquals("{\"user\":\"***\",\"password\":\"***\"}",
+            LoadRunnerCloudTrafficCapture.redactBody("{\"user\":\"pp\",\"password\":\"se\\\"cret\"}"));
+        Assert.assertEquals("{\"token\" : \"***\"}", LoadRunnerCloudTrafficCapture.redactBody("{\"token\" : \"8457258394\"}"));
+        Assert.assertEquals("***", LoadRunnerCloudTrafficCapture.redactHeader("Set-Cookie", "LWSSO_COOKIE_KEY=8457258394"));
+        Assert.assertEquals("application/json", LoadRunnerCloudTrafficCapture.redactHeader("Content-Type", "application/json"));
+        Assert.assertEquals("http://localhost/auth?TENANTID=***", LoadRunnerCloudTrafficCapture.redactUrl("http://localhost/auth?TENANTID=123"));
+        Assert.assertEquals("/test-runs/active?projectIds=1&TENANTID=***&limit=2",
+            LoadRunnerCloudTrafficCapture.redactUrl("/test-runs/active?projectIds=1&TENANTID=123&limit=2"));
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.TestRun;
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.api.EventStatus;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudTransactionCollectorTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8588));
+
+    @Test
+    public void intervalsAreFoldedIntoHistograms() {
+        LoadRunnerCloudTransactionCollector collector = new LoadRunnerCloudTransactionCollector(null, EventLoggerStdOut.INSTANCE_DEBUG, 3, Duration.ofSeconds(30));
+
+        // first 90 logins at 100 ms, then 10 logins at 1 s
+        collector.sample(Collections.singletonList(transaction(1, "login", 90, 0, 0.1)));
+        collector.sample(Collections.singletonList(transaction(1, "login", 100, 2, 0.19)));
+
+        LoadRunnerCloudTransactionCollector.TransactionSummary login = collector.summarize("PASSED").transactions.get(0);
+        Assert.assertEquals(100, login.passed);
+        Assert.assertEquals(2, login.failed);
+        Assert.assertEquals(190, login.avgMillis, 0.001);
+        Assert.assertEquals(2, login.intervals);
+        Assert.assertEquals(100, login.intervalAvgP50Millis, 10);
+        Assert.assertEquals(100, login.intervalAvgP90Millis, 10);
+        Assert.assertEquals(1000, login.intervalAvgP99Millis, 100);
+        Assert.assertEquals("percentile of LoadRunner Cloud", 380, login.percentileMillis, 0.001);
+    }
+
+    @Test
+    public void noIntervalPercentilesFromOneSample() {
+        LoadRunnerCloudTransactionCollector collector = new LoadRunnerCloudTransactionCollector(null, EventLoggerStdOut.INSTANCE_DEBUG, 3, Duration.ofSeconds(30));
+
+        collector.sample(Collections.singletonList(transaction(1, "login", 100, 0, 0.2)));
+
+        LoadRunnerCloudTransactionCollector.TransactionSummary login = collector.summarize("PASSED").transactions.get(0);
+        Assert.assertEquals(1, login.intervals);
+        Assert.assertTrue(Double.isNaN(login.intervalAvgP50Millis));
+        Assert.assertTrue(Double.isNaN(login.intervalAvgP90Millis));
+        Assert.assertTrue(Double.isNaN(login.intervalAvgP99Millis));
+        Assert.assertEquals(400, login.percentileMillis, 0.001);
+        Assert.assertTrue(login.toString(), login.toString().contains("p90=n/a"));
+    }
+
+    @Test
+    public void unexpectedErrorEndsSamplingAsFailed() throws InterruptedException {
+        wireMockRule.resetAll();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/3/transactions?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction(1, "login", 90, 0, 0.1) }).build());
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8588", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            LoadRunnerCloudTransactionCollector collector = new LoadRunnerCloudTransactionCollector(client, EventLoggerStdOut.INSTANCE_DEBUG, 3, Duration.ofMillis(20)) {
+                @Override
+                synchronized void sample(List<TestRunTransaction> transactions) {
+                    throw new IllegalStateException("sample failed");
+                }
+            };
+
+            collector.start();
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!collector.isFailed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            Assert.assertTrue("sampling should end as failed", collector.isFailed());
+            // no more samples after the failure
+            Thread.sleep(200);
+            collector.close();
+        }
+
+        wireMockRule.verify(1, getRequestedFor(urlEqualTo("/test-runs/3/transactions?TENANTID=123")));
+    }
+
+    @Test
+    public void collectFetchesFinalResultsAndMergesScripts() {
+        wireMockRule.resetAll();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        TestRunTransaction[] transactions = {
+            transaction(1, "login", 40, 1, 0.2),
+            transaction(2, "login", 60, 0, 0.2),
+            transaction(2, "search", 10, 10, 1.5)
+        };
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/3/transactions?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(transactions).withFixedDelay(300).build());
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/3?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(TestRun.builder().runId(3).status("PASSED").build()).withFixedDelay(300).build());
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8588", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            LoadRunnerCloudTransactionCollector collector = new LoadRunnerCloudTransactionCollector(client, EventLoggerStdOut.INSTANCE_DEBUG, 3, Duration.ofSeconds(30));
+
+            long start = System.nanoTime();
+            LoadRunnerCloudTransactionCollector.Summary summary = collector.collect(Duration.ofSeconds(10));
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            Assert.assertTrue("fetched in parallel: " + millis, millis < 550);
+            Assert.assertEquals("PASSED", summary.runStatus);
+            Assert.assertEquals(Arrays.asList("login", "search"), Arrays.asList(summary.transactions.get(0).name, summary.transactions.get(1).name));
+            Assert.assertEquals(100, summary.transactions.get(0).passed);
+            Assert.assertEquals(1, summary.transactions.get(0).failed);
+            Assert.assertEquals(110, summary.total.passed);
+            Assert.assertEquals(11, summary.total.failed);
+            Assert.assertEquals("highest percentile of the merged transactions", 3000, summary.total.percentileMillis, 0.001);
+            Assert.assertEquals(400, summary.transactions.get(0).percentileMillis, 0.001);
+            Assert.assertTrue("only the final sample", Double.isNaN(summary.total.intervalAvgP99Millis));
+        }
+    }
+
+    @Test
+    public void collectWaitsForRunToEnd() {
+        stubAuth();
+        VirtualClock clock = new VirtualClock(Instant.parse("2024-01-01T10:00:00Z"));
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/3/transactions?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction(1, "login", 40, 0, 0.2) }).build());
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/3?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(TestRun.builder().runId(3).status("STOPPED").build()).build());
+        // collating the results after the stop takes a minute
+        clock.after(Duration.ofSeconds(60), () -> {
+            wireMockRule.stubFor(get(urlEqualTo("/test-runs/3/transactions?TENANTID=123")))
+                .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction(1, "login", 100, 1, 0.2) }).build());
+            wireMockRule.stubFor(get(urlEqualTo("/test-runs/3?TENANTID=123")))
+                .setResponse(ResponseDefinitionBuilder.okForJson(TestRun.builder().runId(3).status("PASSED").build()).build());
+        });
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8588", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            client.useClock(clock);
+            LoadRunnerCloudTransactionCollector collector = new LoadRunnerCloudTransactionCollector(client, EventLoggerStdOut.INSTANCE_DEBUG, 3, Duration.ofSeconds(30));
+
+            LoadRunnerCloudTransactionCollector.Summary summary = collector.collect(Duration.ofSeconds(10), Duration.ofSeconds(120), Duration.ofSeconds(10));
+
+            Assert.assertEquals("PASSED", summary.runStatus);
+            Assert.assertEquals("results fetched again after the end", 100, summary.total.passed);
+            Assert.assertEquals(1, summary.total.failed);
+            Assert.assertEquals(6, clock.sleepCount());
+        }
+    }
+
+    @Test
+    public void collectGivesUpWhenRunDoesNotEnd() {
+        stubAuth();
+        VirtualClock clock = new VirtualClock(Instant.parse("2024-01-01T10:00:00Z"));
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/3/transactions?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunTransaction[] { transaction(1, "login", 40, 0, 0.2) }).build());
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/3?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(TestRun.builder().runId(3).status("RUNNING").build()).build());
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8588", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            client.useClock(clock);
+            LoadRunnerCloudTransactionCollector collector = new LoadRunnerCloudTransactionCollector(client, EventLoggerStdOut.INSTANCE_DEBUG, 3, Duration.ofSeconds(30));
+
+            LoadRunnerCloudTransactionCollector.Summary summary = collector.collect(Duration.ofSeconds(10), Duration.ofSeconds(120), Duration.ofSeconds(10));
+
+            Assert.assertEquals("RUNNING", summary.runStatus);
+            Assert.assertEquals("bounded by the max duration", 12, clock.sleepCount());
+            Assert.assertEquals(EventStatus.UNKNOWN, LoadRunnerCloudResultCheck.check(summary,
+                new ResultCheckSettings(true, Duration.ofSeconds(10), 5, 0)).status);
+        }
+    }
+
+    private void stubAuth() {
+        wireMockRule.resetAll();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+    }
+
+    private static TestRunTransaction transaction(int scriptId, String name, long passed, long failed, double avgSeconds) {
+        return TestRunTransaction.builder().loadTestScriptId(scriptId).name(name)
+            .passed(passed).failed(failed).avg(avgSeconds).min(avgSeconds / 2).max(avgSeconds * 2).percentile(avgSeconds * 2).build();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class LoadRunnerCloudUploaderTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8589));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+        wireMockRule.stubFor(put(urlPathMatching("/projects/1/(scripts|files)/.*")))
+            .setResponse(ResponseDefinitionBuilder.okForEmptyJson().build());
+    }
+
+    @Test
+    public void parse() {
+        List<LoadRunnerCloudUploader.Upload> uploads = LoadRunnerCloudUploader.parse(LoadRunnerCloudUploader.Kind.SCRIPT, " 12=a.zip, 13 = b/c.zip,");
+        Assert.assertEquals(2, uploads.size());
+        Assert.assertEquals(13, uploads.get(1).id);
+        Assert.assertEquals("b/c.zip", uploads.get(1).path.toString());
+        Assert.assertTrue(LoadRunnerCloudUploader.parse(LoadRunnerCloudUploader.Kind.FILE, null).isEmpty());
+    }
+
+    @Test(expected = LoadRunnerCloudClientException.class)
+    public void parseInvalid() {
+        LoadRunnerCloudUploader.parse(LoadRunnerCloudUploader.Kind.SCRIPT, "a.zip");
+    }
+
+    @Test
+    public void uploadsOnlyChangedFiles() throws IOException {
+        Path script = write("login.zip", "script v1");
+        Path data = write("users.csv", "user\npp\n");
+        Path manifest = folder.getRoot().toPath().resolve("manifest.properties");
+        List<LoadRunnerCloudUploader.Upload> uploads = Arrays.asList(
+            new LoadRunnerCloudUploader.Upload(LoadRunnerCloudUploader.Kind.SCRIPT, 12, script),
+            new LoadRunnerCloudUploader.Upload(LoadRunnerCloudUploader.Kind.FILE, 7, data));
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8589", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            LoadRunnerCloudUploader uploader = new LoadRunnerCloudUploader(client, EventLoggerStdOut.INSTANCE_DEBUG, manifest);
+
+            LoadRunnerCloudUploader.Report first = uploader.upload("123", "1", uploads, Collections.emptyList());
+            Assert.assertTrue(first.isOk());
+            Assert.assertEquals(2, first.uploaded.size());
+            wireMockRule.verify(1, putRequestedFor(urlEqualTo("/projects/1/scripts/12?TENANTID=123"))
+                .withRequestBody(containing("script v1")));
+            wireMockRule.verify(1, putRequestedFor(urlEqualTo("/projects/1/files/7?TENANTID=123")));
+
+            LoadRunnerCloudUploader.Report second = uploader.upload("123", "1", uploads, Collections.emptyList());
+            Assert.assertEquals(0, second.uploaded.size());
+            Assert.assertEquals(2, second.unchanged.size());
+            wireMockRule.verify(2, putRequestedFor(urlPathMatching("/projects/1/.*")));
+
+            write("login.zip", "script v2");
+            LoadRunnerCloudUploader.Report third = uploader.upload("123", "1", uploads, Collections.emptyList());
+            Assert.assertEquals(1, third.uploaded.size());
+            wireMockRule.verify(1, putRequestedFor(urlEqualTo("/projects/1/scripts/12?TENANTID=123"))
+                .withRequestBody(containing("script v2")));
+            wireMockRule.verify(3, putRequestedFor(urlPathMatching("/projects/1/.*")));
+        }
+    }
+
+    @Test
+    public void failedUploadIsRetriedNextTime() throws IOException {
+        wireMockRule.stubFor(put(urlPathEqualTo("/projects/1/files/7")))
+            .setResponse(ResponseDefinitionBuilder.responseDefinition().withStatus(500).build());
+        Path manifest = folder.getRoot().toPath().resolve("manifest.properties");
+        List<LoadRunnerCloudUploader.Upload> uploads = Collections.singletonList(
+            new LoadRunnerCloudUploader.Upload(LoadRunnerCloudUploader.Kind.FILE, 7, write("users.csv", "pp")));
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8589", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            LoadRunnerCloudUploader uploader = new LoadRunnerCloudUploader(client, EventLoggerStdOut.INSTANCE_DEBUG, manifest);
+
+            Assert.assertFalse(uploader.upload("123", "1", uploads, Collections.emptyList()).isOk());
+            Assert.assertFalse(uploader.upload("123", "1", uploads, Collections.emptyList()).isOk());
+        }
+        wireMockRule.verify(2, putRequestedFor(urlEqualTo("/projects/1/files/7?TENANTID=123")));
+    }
+
+    @Test
+    public void gitScriptIsSkipped() throws IOException {
+        List<LoadRunnerCloudUploader.Upload> uploads = Collections.singletonList(
+            new LoadRunnerCloudUploader.Upload(LoadRunnerCloudUploader.Kind.SCRIPT, 12, write("login.zip", "script")));
+        List<ScriptConfig> scripts = Collections.singletonList(ScriptConfig.builder().id(5).scriptId(12).isGitScript(true).build());
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8589", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            LoadRunnerCloudUploader uploader = new LoadRunnerCloudUploader(client, EventLoggerStdOut.INSTANCE_DEBUG,
+                folder.getRoot().toPath().resolve("manifest.properties"));
+
+            LoadRunnerCloudUploader.Report report = uploader.upload("123", "1", uploads, scripts);
+            Assert.assertTrue(report.isOk());
+            Assert.assertEquals(1, report.skipped.size());
+        }
+        wireMockRule.verify(0, putRequestedFor(urlPathMatching("/projects/1/.*")));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
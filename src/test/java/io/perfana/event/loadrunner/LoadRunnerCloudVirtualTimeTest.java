@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * Long polling, watchdog and stop confirmation paths in virtual time.
+ */
+public class LoadRunnerCloudVirtualTimeTest {
+
+    private static final Instant START = Instant.parse("2030-01-01T00:00:00Z");
+    private static final String ACTIVE_URL = "/test-runs/active?TENANTID=123&projectIds=1";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8587));
+
+    private VirtualClock clock;
+    private LoadRunnerCloudClient client;
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(Token.builder().token("8457258394").build()));
+
+        clock = new VirtualClock(START);
+        client = new LoadRunnerCloudClient("http://localhost:8587", EventLoggerStdOut.INSTANCE_DEBUG);
+        client.useClock(clock);
+        client.initApiKey("pp", "hello", "123");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+    }
+
+    @Test
+    public void pollingMaxDurationReached() {
+        stubActive(TestRunActive.Status.INITIALIZING);
+
+        long realStart = System.nanoTime();
+        try (LoadRunnerCloudRunPoller poller = new LoadRunnerCloudRunPoller(client, EventLoggerStdOut.INSTANCE_DEBUG,
+                Duration.ofSeconds(10), Duration.ofSeconds(300))) {
+            Assert.assertEquals(LoadRunnerCloudRunPoller.Outcome.MAX_DURATION_REACHED, poller.pollForTestRunning("1", 3));
+        }
+        long realMillis = (System.nanoTime() - realStart) / 1_000_000;
+
+        Assert.assertEquals(Duration.ofSeconds(310), Duration.ofMillis(clock.currentTimeMillis() - START.toEpochMilli()));
+        wireMockRule.verify(31, getRequestedFor(urlEqualTo(ACTIVE_URL)));
+        Assert.assertTrue("300 seconds of polling in real time: " + realMillis + " ms", realMillis < 5_000);
+    }
+
+    @Test
+    public void watchdogNoticesRunEndAfterHours() throws InterruptedException {
+        stubActive(TestRunActive.Status.RUNNING);
+        clock.after(Duration.ofHours(3), () -> wireMockRule.stubFor(get(urlEqualTo(ACTIVE_URL)))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).build()));
+
+        CountDownLatch unexpectedEnd = new CountDownLatch(1);
+        AtomicLong endNoticedAt = new AtomicLong();
+        try (LoadRunnerCloudRunWatchdog watchdog = new LoadRunnerCloudRunWatchdog(client, EventLoggerStdOut.INSTANCE_DEBUG,
+                "1", 3, Duration.ofMinutes(1), Duration.ZERO)) {
+            watchdog.start(reason -> {
+                endNoticedAt.set(clock.currentTimeMillis());
+                unexpectedEnd.countDown();
+            });
+            Assert.assertTrue("watchdog should notice the end of the run", unexpectedEnd.await(10, TimeUnit.SECONDS));
+        }
+
+        Assert.assertEquals(START.plus(Duration.ofHours(3)).toEpochMilli(), endNoticedAt.get());
+        wireMockRule.verify(180, getRequestedFor(urlEqualTo(ACTIVE_URL)));
+    }
+
+    @Test
+    public void stopNotConfirmedWithinDeadline() {
+        stubActive(TestRunActive.Status.STOPPING);
+        wireMockRule.stubFor(put(urlEqualTo("/test-runs/3?TENANTID=123&action=STOP")))
+            .setResponse(ResponseDefinitionBuilder.okForEmptyJson().build());
+
+        LoadRunnerCloudRunHandle handle = new LoadRunnerCloudRunHandle("1");
+        handle.started(3);
+
+        Assert.assertFalse(handle.stopAndConfirm(client, EventLoggerStdOut.INSTANCE_DEBUG, Duration.ofSeconds(10), Duration.ofMinutes(2)));
+        Assert.assertEquals(12, clock.sleepCount());
+        Assert.assertEquals(START.plus(Duration.ofMinutes(2)).toEpochMilli(), clock.currentTimeMillis());
+    }
+
+    @Test
+    public void scheduleUsesClock() {
+        wireMockRule.stubFor(post(urlEqualTo("/projects/1/load-tests/2/schedules?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.okForEmptyJson().build());
+
+        client.createSchedule("1", "2");
+
+        wireMockRule.verify(postRequestedFor(urlEqualTo("/projects/1/load-tests/2/schedules?TENANTID=123"))
+            .withRequestBody(containing("2030-01-01T00:01")));
+    }
+
+    private void stubActive(TestRunActive.Status status) {
+        TestRunActive run = TestRunActive.builder().projectId(1).testId(2).runId(3).testName("test").status(status).build();
+        wireMockRule.stubFor(get(urlEqualTo(ACTIVE_URL)))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[] { run }).build());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.Token;
+import io.perfana.eventscheduler.log.EventLoggerStdOut;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+public class NetworkProfileTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(8581));
+
+    @Before
+    public void setUp() {
+        wireMockRule.resetAll();
+
+        Token token = Token.builder().token("8457258394").build();
+        wireMockRule.stubFor(post(urlEqualTo("/auth?TENANTID=123")))
+            .setResponse(ResponseDefinitionBuilder.jsonResponse(token));
+    }
+
+    @Test
+    public void socketTimeoutPerEndpoint() {
+        NetworkProfile profile = NetworkProfile.builder().socketTimeoutMillis(5_000).statusSocketTimeoutMillis(1_000).build();
+
+        Assert.assertEquals(1_000, profile.socketTimeoutMillis(NetworkProfile.Endpoint.STATUS));
+        Assert.assertEquals(5_000, profile.socketTimeoutMillis(NetworkProfile.Endpoint.AUTH));
+        Assert.assertEquals(30_000, profile.socketTimeoutMillis(NetworkProfile.Endpoint.RESULTS));
+    }
+
+    @Test
+    public void statusSocketTimeoutIsApplied() {
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).withFixedDelay(1_000).build());
+
+        NetworkProfile profile = NetworkProfile.builder().statusSocketTimeoutMillis(200).build();
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8581", EventLoggerStdOut.INSTANCE_DEBUG, profile)) {
+            client.initApiKey("pp", "hello", "123");
+            client.testRunsActive("1");
+            Assert.fail("expected socket timeout");
+        } catch (LoadRunnerCloudClientException e) {
+            Assert.assertTrue(e.getCause() instanceof java.net.SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void configuredProxyPortIsUsed() {
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).build());
+
+        // wiremock acts as the proxy: requests for the unresolvable host must arrive at the proxy port
+        NetworkProfile profile = NetworkProfile.builder().useProxy(true).proxyHost("localhost").proxyPort(8581).build();
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://lrc.invalid", EventLoggerStdOut.INSTANCE_DEBUG, profile)) {
+            client.initApiKey("pp", "hello", "123");
+            List<TestRunActive> testRunActives = client.testRunsActive("1");
+            Assert.assertEquals(0, testRunActives.size());
+        }
+        wireMockRule.verify(1, getRequestedFor(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")));
+    }
+
+    @Test
+    public void compressionIsRequested() {
+        wireMockRule.stubFor(get(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1")))
+            .setResponse(ResponseDefinitionBuilder.okForJson(new TestRunActive[0]).build());
+
+        try (LoadRunnerCloudClient client = new LoadRunnerCloudClient("http://localhost:8581", EventLoggerStdOut.INSTANCE_DEBUG)) {
+            client.initApiKey("pp", "hello", "123");
+            client.testRunsActive("1");
+        }
+        wireMockRule.verify(getRequestedFor(urlEqualTo("/test-runs/active?TENANTID=123&projectIds=1"))
+            .withHeader("Accept-Encoding", containing("gzip")));
+    }
+}
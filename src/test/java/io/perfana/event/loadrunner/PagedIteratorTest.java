@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class PagedIteratorTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private static List<Integer> items(int count) {
+        return IntStream.range(0, count).boxed().collect(Collectors.toList());
+    }
+
+    private static PagedIterator.PageFetcher<Integer> pagesOf(List<Integer> all, AtomicInteger fetchCount) {
+        return (offset, limit) -> {
+            fetchCount.incrementAndGet();
+            return new ArrayList<>(all.subList(Math.min(offset, all.size()), Math.min(offset + limit, all.size())));
+        };
+    }
+
+    @Test
+    public void allPagesInOrder() {
+        AtomicInteger fetchCount = new AtomicInteger();
+        PagedIterator<Integer> iterator = new PagedIterator<>(pagesOf(items(25), fetchCount), 10, executor);
+
+        Assert.assertEquals("lazy: nothing fetched before iterating", 0, fetchCount.get());
+        Assert.assertEquals(items(25), iterator.stream().collect(Collectors.toList()));
+        Assert.assertEquals(3, fetchCount.get());
+    }
+
+    @Test
+    public void nextPageIsPrefetched() throws InterruptedException {
+        AtomicInteger fetchCount = new AtomicInteger();
+        try (PagedIterator<Integer> iterator = new PagedIterator<>(pagesOf(items(25), fetchCount), 10, executor)) {
+            Assert.assertEquals(Integer.valueOf(0), iterator.next());
+            for (int i = 0; i < 50 && fetchCount.get() < 2; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals("second page fetched while processing the first", 2, fetchCount.get());
+        }
+    }
+
+    @Test
+    public void fullPageEndsWithEmptyPage() {
+        AtomicInteger fetchCount = new AtomicInteger();
+        PagedIterator<Integer> iterator = new PagedIterator<>(pagesOf(items(20), fetchCount), 10, executor);
+        Assert.assertEquals(20, iterator.stream().count());
+        Assert.assertEquals(3, fetchCount.get());
+    }
+
+    @Test
+    public void serverIgnoresPaging() {
+        AtomicInteger fetchCount = new AtomicInteger();
+        PagedIterator<Integer> larger = new PagedIterator<>((offset, limit) -> { fetchCount.incrementAndGet(); return items(25); }, 10, executor);
+        Assert.assertEquals(25, larger.stream().count());
+        Assert.assertEquals(1, fetchCount.get());
+
+        PagedIterator<Integer> same = new PagedIterator<>((offset, limit) -> items(10), 10, executor);
+        Assert.assertEquals("same page again is not repeated", 10, same.stream().count());
+    }
+
+    @Test
+    public void fetchFailureGoesToCaller() {
+        PagedIterator<Integer> iterator = new PagedIterator<>((offset, limit) -> {
+            if (offset > 0) throw new LoadRunnerCloudClientException("page failed");
+            return items(10);
+        }, 10, executor);
+        try {
+            iterator.stream().count();
+            Assert.fail("expected exception");
+        } catch (LoadRunnerCloudClientException e) {
+            Assert.assertEquals("page failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void closedIteratorHasNoNext() {
+        PagedIterator<Integer> iterator = new PagedIterator<>(pagesOf(items(25), new AtomicInteger()), 10, executor);
+        iterator.next();
+        iterator.close();
+        Assert.assertFalse(iterator.hasNext());
+    }
+}
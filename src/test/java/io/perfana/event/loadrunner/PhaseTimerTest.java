@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+public class PhaseTimerTest {
+
+    @Test
+    public void phasesInOrderOfMeasurement() throws InterruptedException {
+        PhaseTimer phases = new PhaseTimer();
+
+        String result = phases.time("Authentication", () -> "token");
+        phases.time("StartRun", () -> sleep(20));
+        sleep(10);
+        phases.add("WaitForRunning", 10);
+
+        Assert.assertEquals("token", result);
+        Map<String, String> variables = phases.variables("perfana-lrc-phase");
+        Assert.assertEquals("[perfana-lrc-phaseAuthenticationMillis, perfana-lrc-phaseStartRunMillis, perfana-lrc-phaseWaitForRunningMillis]",
+            new ArrayList<>(variables.keySet()).toString());
+        Assert.assertTrue(Long.parseLong(variables.get("perfana-lrc-phaseStartRunMillis")) >= 20);
+        Assert.assertEquals("10", variables.get("perfana-lrc-phaseWaitForRunningMillis"));
+        Assert.assertTrue(phases.totalMillis() >= 30);
+        Assert.assertTrue(phases.summary().contains("StartRun="));
+    }
+
+    @Test
+    public void failedPhaseIsMeasured() {
+        PhaseTimer phases = new PhaseTimer();
+        try {
+            phases.time("Authentication", () -> { throw new LoadRunnerCloudClientException("wrong password"); });
+            Assert.fail("expected exception");
+        } catch (LoadRunnerCloudClientException e) {
+            Assert.assertTrue(phases.variables("").containsKey("AuthenticationMillis"));
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResponseTimeHistogramTest {
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.record(millis, 1);
+        }
+        Assert.assertEquals(1000, histogram.count());
+        assertWithin(500, histogram.percentile(50));
+        assertWithin(900, histogram.percentile(90));
+        assertWithin(990, histogram.percentile(99));
+        Assert.assertEquals(1000, histogram.percentile(100), 0.001);
+    }
+
+    @Test
+    public void weightedRecord() {
+        ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+        histogram.record(100, 95);
+        histogram.record(2000, 5);
+        assertWithin(100, histogram.percentile(50));
+        assertWithin(100, histogram.percentile(95));
+        assertWithin(2000, histogram.percentile(99));
+        Assert.assertEquals(2000, histogram.percentile(100), 0.001);
+    }
+
+    @Test
+    public void mergeIsSameAsRecordingAll() {
+        ResponseTimeHistogram a = new ResponseTimeHistogram();
+        ResponseTimeHistogram b = new ResponseTimeHistogram();
+        ResponseTimeHistogram all = new ResponseTimeHistogram();
+        for (int i = 0; i < 500; i++) {
+            a.record(10 + i, 2);
+            b.record(300 + i * 3, 1);
+            all.record(10 + i, 2);
+            all.record(300 + i * 3, 1);
+        }
+        a.merge(b);
+        Assert.assertEquals(all.count(), a.count());
+        for (double p : new double[] { 1, 50, 90, 99, 100 }) {
+            Assert.assertEquals(all.percentile(p), a.percentile(p), 0.0001);
+        }
+    }
+
+    @Test
+    public void emptyAndOutOfRange() {
+        ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+        Assert.assertEquals(0, histogram.percentile(90), 0.0);
+        histogram.record(0.2, 1);
+        histogram.record(1e12, 1);
+        Assert.assertEquals(0, ResponseTimeHistogram.bucket(0.2));
+        Assert.assertEquals(ResponseTimeHistogram.BUCKET_COUNT - 1, ResponseTimeHistogram.bucket(1e12));
+        Assert.assertEquals(1e12, histogram.percentile(100), 0.0);
+    }
+
+    private static void assertWithin(double expected, double actual) {
+        Assert.assertEquals(expected, actual, expected * 0.1);
+    }
+}
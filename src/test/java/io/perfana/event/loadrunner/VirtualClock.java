@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Clock for tests: a sleep advances the time immediately, so hours of polling run in milliseconds.
+ *
+ * Actions can be scheduled at a virtual time, for instance to change a WireMock stub when a run ends.
+ */
+class VirtualClock implements LoadRunnerCloudClock {
+
+    private final List<Action> actions = new ArrayList<>();
+    private final AtomicInteger sleepCount = new AtomicInteger();
+
+    private long nowMillis;
+
+    private static class Action {
+        final long atMillis;
+        final Runnable runnable;
+
+        Action(long atMillis, Runnable runnable) {
+            this.atMillis = atMillis;
+            this.runnable = runnable;
+        }
+    }
+
+    VirtualClock(Instant start) {
+        this.nowMillis = start.toEpochMilli();
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return nowMillis;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("virtual sleep interrupted");
+        }
+        sleepCount.incrementAndGet();
+        advance(Duration.ofMillis(millis));
+        // let other threads, such as a closing test, make progress
+        Thread.yield();
+    }
+
+    /**
+     * Move the time forward and run the actions that are due.
+     */
+    void advance(Duration duration) {
+        List<Runnable> due = new ArrayList<>();
+        synchronized (this) {
+            nowMillis += duration.toMillis();
+            for (Iterator<Action> iterator = actions.iterator(); iterator.hasNext(); ) {
+                Action action = iterator.next();
+                if (action.atMillis <= nowMillis) {
+                    due.add(action.runnable);
+                    iterator.remove();
+                }
+            }
+        }
+        due.forEach(Runnable::run);
+    }
+
+    /**
+     * Run the action when the virtual time reaches the given time from now.
+     */
+    synchronized void after(Duration duration, Runnable action) {
+        actions.add(new Action(nowMillis + duration.toMillis(), action));
+    }
+
+    int sleepCount() {
+        return sleepCount.get();
+    }
+}
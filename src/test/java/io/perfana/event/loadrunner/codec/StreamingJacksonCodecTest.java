@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker, Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.event.loadrunner.codec;
+
+import io.perfana.event.loadrunner.api.ScriptConfig;
+import io.perfana.event.loadrunner.api.TestRunActive;
+import io.perfana.event.loadrunner.api.TestRunTransaction;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class StreamingJacksonCodecTest {
+
+    private static final String TEST_RUNS_ACTIVE = "[" +
+        "{\"runId\":101,\"testId\":2,\"projectId\":1,\"testName\":\"my test\",\"startTime\":1700000000000," +
+        "\"triggeredBy\":\"pp\",\"status\":\"INITIALIZING\",\"extra\":{\"nested\":[1,2]}}," +
+        "{\"runId\":\"102\",\"testId\":null,\"status\":null}" +
+        "]";
+
+    private static final String TEST_RUN_TRANSACTIONS = "[" +
+        "{\"loadTestScriptId\":5,\"scriptName\":\"s\",\"name\":\"login\",\"slaStatus\":\"N/A\",\"slaThreshold\":null," +
+        "\"min\":0.1,\"max\":2.5,\"avg\":0.4,\"percentile\":1.2,\"stdDeviation\":0.3,\"passed\":1000,\"failed\":3," +
+        "\"successRate\":99.7,\"breakers\":[]}" +
+        "]";
+
+    private final LoadRunnerCloudCodec streaming = new StreamingJacksonCodec();
+    private final LoadRunnerCloudCodec databind = new JacksonCodec();
+
+    @Test
+    public void testRunsActiveSameAsDatabind() throws IOException {
+        TestRunActive[] expected = databind.read(TEST_RUNS_ACTIVE, TestRunActive[].class);
+        TestRunActive[] actual = streaming.read(TEST_RUNS_ACTIVE, TestRunActive[].class);
+        assertArrayEquals(expected, actual);
+        assertEquals(TestRunActive.Status.INITIALIZING, actual[0].getStatus());
+        assertEquals(102, actual[1].getRunId());
+    }
+
+    @Test
+    public void testRunTransactionsSameAsDatabind() throws IOException {
+        TestRunTransaction[] expected = databind.read(TEST_RUN_TRANSACTIONS, TestRunTransaction[].class);
+        TestRunTransaction[] actual = streaming.read(TEST_RUN_TRANSACTIONS, TestRunTransaction[].class);
+        assertArrayEquals(expected, actual);
+        assertNull(actual[0].getSlaThreshold());
+        assertEquals(1000, actual[0].getPassed());
+    }
+
+    @Test
+    public void emptyArray() throws IOException {
+        assertEquals(0, streaming.read("[ ]", TestRunActive[].class).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownStatusFails() throws IOException {
+        streaming.read("[{\"runId\":1,\"status\":\"EXPLODED\"}]", TestRunActive[].class);
+    }
+
+    @Test(expected = IOException.class)
+    public void notAnArrayFails() throws IOException {
+        streaming.read("{\"runId\":1}", TestRunActive[].class);
+    }
+
+    @Test
+    public void otherTypesUseDatabind() throws IOException {
+        ScriptConfig scriptConfig = streaming.read("{\"id\":5,\"vusersNum\":10}", ScriptConfig.class);
+        assertEquals(5, scriptConfig.getId());
+    }
+
+    @Test
+    public void scriptConfigRoundTripKeepsFieldNames() throws IOException {
+        String json = "{\"id\":5,\"isGitScript\":false,\"isLocalPacingEnabled\":true,\"isLocalRtsEnabled\":true}";
+        ScriptConfig scriptConfig = streaming.read(json, ScriptConfig.class);
+        assertTrue(scriptConfig.isLocalPacingEnabled());
+        assertTrue(scriptConfig.isLocalRtsEnabled());
+
+        String written = streaming.write(scriptConfig);
+        assertTrue(written, written.contains("\"isLocalPacingEnabled\":true"));
+        assertTrue(written, written.contains("\"isLocalRtsEnabled\":true"));
+        assertTrue(written, written.contains("\"isGitScript\":false"));
+        assertFalse(written, written.contains("\"localPacingEnabled\""));
+    }
+
+    @Test
+    public void defaultCodec() {
+        assertTrue(LoadRunnerCloudCodec.load() instanceof StreamingJacksonCodec);
+    }
+}